@@ -0,0 +1,18 @@
+-- Archive of sent messages, used if sent messages are moved out of deferred_message once sent
+-- (sent-message-retention-mode=ARCHIVE). Only keeps the metadata of a message, not its payload.
+CREATE TABLE deferred_message_sent
+(
+    id                     bigint PRIMARY KEY,
+    message_id             varchar                  NOT NULL,
+    message_idempotence_id varchar                  NOT NULL,
+    message_type_name      varchar                  NOT NULL,
+    message_type_version   varchar,
+    cluster_name           varchar,
+    topic                  varchar                  NOT NULL,
+    created                timestamp with time zone NOT NULL,
+    sent                   timestamp with time zone NOT NULL,
+    sent_immediately       boolean                  NOT NULL,
+    trace_id_string        varchar
+);
+
+CREATE INDEX deferred_message_sent_sent ON deferred_message_sent (sent);
@@ -1,11 +1,15 @@
 package ch.admin.bit.jeap.messaging.transactionaloutbox.config;
 
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRetentionRule;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.SentMessageRetentionMode;
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.TransactionalOutboxConfiguration;
 import lombok.Data;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @Data
 @AutoConfiguration(value="txOutboxConfigProps")
@@ -19,14 +23,70 @@ public class TransactionalOutboxConfigurationProperties implements Transactional
 
     public int messageRelayBatchSize = 5;
 
+    public boolean messageRelayAdaptiveBatchSizeEnabled = false;
+
+    public int messageRelayMinBatchSize = 5;
+
+    public int messageRelayMaxBatchSize = 500;
+
+    public Duration messageRelayTargetBatchDuration = Duration.ofSeconds(1);
+
+    public boolean messageRelayRetryEnabled = false;
+
+    public Duration messageRelayRetryInitialDelay = Duration.ofSeconds(1);
+
+    public Duration messageRelayRetryMaxDelay = Duration.ofMinutes(5);
+
+    public boolean messageRelayPipeliningEnabled = false;
+
+    public boolean messageRelayTransactionsEnabled = false;
+
+    public String messageRelayTransactionIdPrefix = "jeap-outbox-relay-";
+
+    public String messageRelayTransactionInstanceId;
+
+    public int messageRelayWorkerCount = 1;
+
+    public int messageRelayPrefetchDepth = 0;
+
+    public boolean messageRelayClaimingEnabled = false;
+
+    public Duration messageRelayMaxClaimDuration = Duration.ofMinutes(2);
+
+    public boolean sendCircuitBreakerEnabled = false;
+
+    public int sendCircuitBreakerFailureThreshold = 3;
+
+    public Duration sendCircuitBreakerOpenDuration = Duration.ofSeconds(30);
+
+    public Duration topicHealthCacheTtl = Duration.ZERO;
+
+    public boolean messageRelayWakeUpEnabled = false;
+
+    public Duration messageRelayMaxIdleDelay = Duration.ofSeconds(30);
+
     public Duration messageSendImmediatelyTimeout = Duration.ofSeconds(15);
 
     public Duration messageSendImmediatelyMaxBlockTime = Duration.ofSeconds(5);
 
+    public boolean messageSendImmediatelyBatchingEnabled = false;
+
+    public Duration messageSendImmediatelyBatchWindow = Duration.ofMillis(2);
+
     public Duration messageSendScheduledTimeout = Duration.ofSeconds(60);
 
     public Duration messageSendScheduledMaxBlockTime = Duration.ofSeconds(15);
 
+    public boolean afterCommitSendAsyncEnabled = false;
+
+    public boolean writeBehindEnabled = false;
+
+    public int afterCommitSendThreadCount = 4;
+
+    public int afterCommitSendQueueCapacity = 1000;
+
+    public boolean virtualThreadsEnabled = false;
+
     public boolean scheduledRelayEnabled = true;
 
     public String houseKeepingSchedule = "0 0 3 * * *";
@@ -35,11 +95,37 @@ public class TransactionalOutboxConfigurationProperties implements Transactional
 
     public int houseKeepingMaxPages = 100000;
 
+    public boolean houseKeepingIdRangeDeletesEnabled = false;
+
+    public Duration houseKeepingTargetChunkDuration = Duration.ofMillis(500);
+
+    public int houseKeepingMaxChunkSize = 100000;
+
+    public boolean houseKeepingContinuousEnabled = false;
+
+    public Duration houseKeepingContinuousInterval = Duration.ofSeconds(10);
+
+    public int houseKeepingContinuousMaxDeletesPerSecond = 500;
+
     public Duration sentMessageRetentionDuration = Duration.ofDays(2);
 
+    public SentMessageRetentionMode sentMessageRetentionMode = SentMessageRetentionMode.RETAIN;
+
     public Duration unsentMessageRetentionDuration = Duration.ofDays(30);
 
+    public List<MessageRetentionRule> messageRetentionRules = new ArrayList<>();
+
+    public boolean houseKeepingPartitioningEnabled = false;
+
+    public Duration houseKeepingPartitionInterval = Duration.ofDays(1);
+
+    public int houseKeepingPartitionsAhead = 3;
+
     public Duration metricsUpdateInterval = Duration.ofSeconds(10);
 
+    public boolean metricsLagEstimationEnabled = false;
+
+    public Duration metricsLagReconciliationInterval = Duration.ofMinutes(5);
+
 }
 
@@ -11,9 +11,16 @@ import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
 
 import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.MESSAGES_READY_TO_BE_SENT_TIMER;
 
@@ -28,7 +35,17 @@ class JpaDeferredMessageRepository implements DeferredMessageRepository, FailedM
     private static final String FIND_FAILED_MESSAGES_STARTING_AFTER_ID = FAILED_MESSAGE_CONSTRUCTOR_EXPRESSION +
             "FROM DeferredMessage d WHERE d.failed IS NOT NULL AND d.id > :afterId AND d.failed < :failedBefore AND d.resend = :resend ORDER BY d.id";
 
+    // Partitions are managed with PostgreSQL DDL, which does not support bind parameters for identifiers and bounds
+    private static final Pattern PARTITION_NAME = Pattern.compile("deferred_message_[a-z0-9_]+");
+    private static final String DEFAULT_PARTITION_NAME = "deferred_message_default";
+    private static final String FIND_PARTITION_NAMES = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = 'deferred_message'::regclass";
+
+    // Keeps the number of bind parameters of a bulk update well below the limits of the databases
+    private static final int MAX_IDS_PER_BULK_UPDATE = 1000;
+
     private final SpringDataJpaDeferredMessageRepository springDataJpaDeferredMessageRepository;
+    private final TransactionalOutboxConfiguration config;
 
     @PersistenceContext
     private final EntityManager entityManager;
@@ -43,6 +60,11 @@ class JpaDeferredMessageRepository implements DeferredMessageRepository, FailedM
         return springDataJpaDeferredMessageRepository.save(deferredMessage);
     }
 
+    @Override
+    public List<DeferredMessage> saveAll(List<DeferredMessage> deferredMessages) {
+        return springDataJpaDeferredMessageRepository.saveAll(deferredMessages);
+    }
+
     @Override
     public void deleteById(long id) {
         springDataJpaDeferredMessageRepository.deleteById(id);
@@ -50,28 +72,96 @@ class JpaDeferredMessageRepository implements DeferredMessageRepository, FailedM
 
     @Override
     public void markSentImmediately(long id, ZonedDateTime sentTime) {
-        if (springDataJpaDeferredMessageRepository.markSentImmediately(id, sentTime) == 0) {
+        if (springDataJpaDeferredMessageRepository.markSentImmediately(id, sentTime, DeliveryState.SENT) == 0) {
             throw TransactionalOutboxException.deferredMessageNotFoundInOutbox(id);
         }
     }
 
+    @Override
+    @Transactional
+    public void markSentImmediately(Collection<Long> ids, ZonedDateTime sentTime) {
+        updateInChunks(ids, idsChunk -> springDataJpaDeferredMessageRepository.markSentImmediately(idsChunk, sentTime, DeliveryState.SENT));
+    }
+
     @Override
     public void markSentScheduled(long id, ZonedDateTime sentTime) {
-        if (springDataJpaDeferredMessageRepository.markSentScheduled(id, sentTime) == 0) {
+        if (springDataJpaDeferredMessageRepository.markSentScheduled(id, sentTime, DeliveryState.SENT) == 0) {
             throw TransactionalOutboxException.deferredMessageNotFoundInOutbox(id);
         }
     }
 
+    @Override
+    @Transactional
+    public void markSentScheduled(Collection<Long> ids, ZonedDateTime sentTime) {
+        updateInChunks(ids, idsChunk -> springDataJpaDeferredMessageRepository.markSentScheduled(idsChunk, sentTime, DeliveryState.SENT));
+    }
+
+    @Override
+    @Transactional
+    public void deleteSentMessages(Collection<Long> ids) {
+        applyInChunks(ids.stream().distinct().toList(), springDataJpaDeferredMessageRepository::deleteMessages);
+    }
+
+    @Override
+    @Transactional
+    public void archiveSentMessages(Collection<Long> ids, ZonedDateTime sentTime, boolean sentImmediately) {
+        applyInChunks(ids.stream().distinct().toList(), idsChunk -> {
+            List<Long> lockedIds = springDataJpaDeferredMessageRepository.lockIdsOfMessages(idsChunk);
+            if (lockedIds.isEmpty()) {
+                return 0;
+            }
+            springDataJpaDeferredMessageRepository.archiveMessages(lockedIds, sentTime, sentImmediately);
+            return springDataJpaDeferredMessageRepository.deleteMessages(lockedIds);
+        });
+    }
+
+    @Override
+    public int deleteArchivedMessagesSentBefore(ZonedDateTime sentBefore, int maxMessages) {
+        return springDataJpaDeferredMessageRepository.deleteArchivedMessagesSentBefore(sentBefore, maxMessages);
+    }
+
+    private static void updateInChunks(Collection<Long> ids, ToIntFunction<List<Long>> update) {
+        List<Long> distinctIds = ids.stream().distinct().toList();
+        int numUpdated = applyInChunks(distinctIds, update);
+        if (numUpdated < distinctIds.size()) {
+            throw TransactionalOutboxException.deferredMessagesNotFoundInOutbox(distinctIds.size() - numUpdated, distinctIds.size());
+        }
+    }
+
+    private static int applyInChunks(List<Long> ids, ToIntFunction<List<Long>> update) {
+        int numUpdated = 0;
+        for (int from = 0; from < ids.size(); from += MAX_IDS_PER_BULK_UPDATE) {
+            numUpdated += update.applyAsInt(ids.subList(from, Math.min(from + MAX_IDS_PER_BULK_UPDATE, ids.size())));
+        }
+        return numUpdated;
+    }
+
     @Override
     public void markFailed(long id, ZonedDateTime failedTime, SendFailureReason failReason) {
-        if (springDataJpaDeferredMessageRepository.markFailed(id, failedTime, failReason) == 0) {
+        if (springDataJpaDeferredMessageRepository.markFailed(id, failedTime, failReason, DeliveryState.FAILED) == 0) {
+            throw TransactionalOutboxException.deferredMessageNotFoundInOutbox(id);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void markFailed(Collection<Long> ids, ZonedDateTime failedTime, SendFailureReason failReason) {
+        updateInChunks(ids, idsChunk -> springDataJpaDeferredMessageRepository.markFailed(idsChunk, failedTime, failReason, DeliveryState.FAILED));
+    }
+
+    @Override
+    public void scheduleNextAttempt(long id, int attempts, ZonedDateTime nextAttemptAt) {
+        if (springDataJpaDeferredMessageRepository.scheduleNextAttempt(id, attempts, nextAttemptAt) == 0) {
             throw TransactionalOutboxException.deferredMessageNotFoundInOutbox(id);
         }
     }
 
     @Override
     public void markForResend(long id, boolean resend) {
-        if (springDataJpaDeferredMessageRepository.markForResend(id, resend) == 0) {
+        int numUpdated = resend ?
+                springDataJpaDeferredMessageRepository.markForResend(id, DeliveryState.PENDING) :
+                springDataJpaDeferredMessageRepository.unmarkForResend(id, DeliveryState.FAILED, DeliveryState.SENT, DeliveryState.PENDING);
+        if (numUpdated == 0) {
             throw TransactionalOutboxException.deferredMessageNotFoundInOutbox(id);
         }
     }
@@ -83,10 +173,111 @@ class JpaDeferredMessageRepository implements DeferredMessageRepository, FailedM
         }
     }
 
+    @Override
+    @Transactional
+    public void setScheduleAfter(Collection<Long> ids, ZonedDateTime scheduleAfter) {
+        updateInChunks(ids, idsChunk -> springDataJpaDeferredMessageRepository.setScheduleAfter(idsChunk, scheduleAfter));
+    }
+
     @Override
     @Timed(value = MESSAGES_READY_TO_BE_SENT_TIMER, description = "Search messages ready to be sent.")
     public List<DeferredMessage> findMessagesReadyToBeSent(int numMessages) {
-        return springDataJpaDeferredMessageRepository.findMessagesReadyToBeSent(numMessages);
+        return isHoldingBackBehindRetries() ?
+                springDataJpaDeferredMessageRepository.findMessagesReadyToBeSentWithRetries(numMessages) :
+                springDataJpaDeferredMessageRepository.findMessagesReadyToBeSent(numMessages);
+    }
+
+    @Override
+    @Timed(value = MESSAGES_READY_TO_BE_SENT_TIMER, description = "Search messages ready to be sent.")
+    public List<DeferredMessage> findMessagesReadyToBeSent(int numMessages, Collection<ClusterTopic> excludedClusterTopics) {
+        if (excludedClusterTopics.isEmpty()) {
+            return findMessagesReadyToBeSent(numMessages);
+        }
+        return isHoldingBackBehindRetries() ?
+                springDataJpaDeferredMessageRepository.findMessagesReadyToBeSentWithRetries(numMessages, toConditionValues(excludedClusterTopics)) :
+                springDataJpaDeferredMessageRepository.findMessagesReadyToBeSent(numMessages, toConditionValues(excludedClusterTopics));
+    }
+
+    @Override
+    @Timed(value = MESSAGES_READY_TO_BE_SENT_TIMER, description = "Search messages ready to be sent.")
+    public List<DeferredMessage> findMessagesReadyToBeSent(int numMessages, long afterId, Collection<ClusterTopic> excludedClusterTopics) {
+        return isHoldingBackBehindRetries() ?
+                springDataJpaDeferredMessageRepository.findMessagesReadyToBeSentWithRetries(numMessages, afterId, toNotExcludedConditionValues(excludedClusterTopics)) :
+                springDataJpaDeferredMessageRepository.findMessagesReadyToBeSent(numMessages, afterId, toNotExcludedConditionValues(excludedClusterTopics));
+    }
+
+    @Override
+    @Transactional
+    @Timed(value = MESSAGES_READY_TO_BE_SENT_TIMER, description = "Search messages ready to be sent.")
+    public List<DeferredMessage> claimMessagesReadyToBeSent(String claimedBy, ZonedDateTime claimedUntil, int numMessages) {
+        return claimMessagesReadyToBeSent(claimedBy, claimedUntil, numMessages, List.of());
+    }
+
+    @Override
+    @Transactional
+    @Timed(value = MESSAGES_READY_TO_BE_SENT_TIMER, description = "Search messages ready to be sent.")
+    public List<DeferredMessage> claimMessagesReadyToBeSent(String claimedBy, ZonedDateTime claimedUntil, int numMessages,
+                                                            Collection<ClusterTopic> excludedClusterTopics) {
+        // The rows found are locked until the claim is committed, concurrent claimants skip them instead of waiting on them.
+        final List<Long> ids;
+        if (excludedClusterTopics.isEmpty()) {
+            ids = isHoldingBackBehindRetries() ?
+                    springDataJpaDeferredMessageRepository.lockIdsOfMessagesReadyToBeClaimedWithRetries(claimedBy, numMessages) :
+                    springDataJpaDeferredMessageRepository.lockIdsOfMessagesReadyToBeClaimed(claimedBy, numMessages);
+        } else {
+            ids = isHoldingBackBehindRetries() ?
+                    springDataJpaDeferredMessageRepository.lockIdsOfMessagesReadyToBeClaimedWithRetries(claimedBy, numMessages, toConditionValues(excludedClusterTopics)) :
+                    springDataJpaDeferredMessageRepository.lockIdsOfMessagesReadyToBeClaimed(claimedBy, numMessages, toConditionValues(excludedClusterTopics));
+        }
+        return claim(ids, claimedBy, claimedUntil);
+    }
+
+    @Override
+    @Transactional
+    @Timed(value = MESSAGES_READY_TO_BE_SENT_TIMER, description = "Search messages ready to be sent.")
+    public List<DeferredMessage> claimMessagesReadyToBeSent(String claimedBy, ZonedDateTime claimedUntil, int numMessages, long afterId,
+                                                            Collection<ClusterTopic> excludedClusterTopics) {
+        List<Long> ids = isHoldingBackBehindRetries() ?
+                springDataJpaDeferredMessageRepository.lockIdsOfMessagesReadyToBeClaimedWithRetries(claimedBy, numMessages, afterId,
+                        toNotExcludedConditionValues(excludedClusterTopics)) :
+                springDataJpaDeferredMessageRepository.lockIdsOfMessagesReadyToBeClaimed(claimedBy, numMessages, afterId,
+                        toNotExcludedConditionValues(excludedClusterTopics));
+        return claim(ids, claimedBy, claimedUntil);
+    }
+
+    @Override
+    @Transactional
+    public int renewClaims(String claimedBy, Collection<Long> ids, ZonedDateTime claimedUntil) {
+        return applyInChunks(ids.stream().distinct().toList(),
+                idsChunk -> springDataJpaDeferredMessageRepository.renewClaims(idsChunk, claimedBy, claimedUntil));
+    }
+
+    /**
+     * Only if the relay retries messages, messages can back off and hold back the later messages with the same topic and
+     * key. Otherwise the more expensive condition checking for such messages is not needed.
+     */
+    private boolean isHoldingBackBehindRetries() {
+        return config.isMessageRelayRetryEnabled();
+    }
+
+    private List<DeferredMessage> claim(List<Long> ids, String claimedBy, ZonedDateTime claimedUntil) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        springDataJpaDeferredMessageRepository.claim(ids, claimedBy, claimedUntil);
+        return springDataJpaDeferredMessageRepository.findByIdInOrderByIdAsc(ids);
+    }
+
+    private static List<String> toNotExcludedConditionValues(Collection<ClusterTopic> excludedClusterTopics) {
+        // 'NOT IN ()' is not valid SQL. The empty string never matches as the concatenation of cluster name and topic
+        // always contains a '/'.
+        return excludedClusterTopics.isEmpty() ? List.of("") : toConditionValues(excludedClusterTopics);
+    }
+
+    private static List<String> toConditionValues(Collection<ClusterTopic> clusterTopics) {
+        return clusterTopics.stream()
+                .map(clusterTopic -> Objects.requireNonNullElse(clusterTopic.clusterName(), "") + "/" + clusterTopic.topic())
+                .toList();
     }
 
     @Override
@@ -104,9 +295,139 @@ class JpaDeferredMessageRepository implements DeferredMessageRepository, FailedM
         springDataJpaDeferredMessageRepository.deleteAllById(ids);
     }
 
+    @Override
+    public Slice<Long> findSentImmediatelyBeforeOrSentScheduledBefore(ZonedDateTime dateTime, RetentionScope scope, Pageable pageable) {
+        return springDataJpaDeferredMessageRepository.findSentBeforeInRetentionScope(dateTime, scope.topic(), scope.messageType(),
+                toExcludedTopicsConditionValues(scope), toExcludedTopicMessageTypesConditionValues(scope), pageable);
+    }
+
+    @Override
+    public Slice<Long> findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(ZonedDateTime dateTime, RetentionScope scope, Pageable pageable) {
+        return springDataJpaDeferredMessageRepository.findUnsentCreatedBeforeInRetentionScope(dateTime, scope.topic(), scope.messageType(),
+                toExcludedTopicsConditionValues(scope), toExcludedTopicMessageTypesConditionValues(scope), pageable);
+    }
+
+    @Override
+    public int deleteMessagesSentBeforeInIdRange(long fromId, long toId, ZonedDateTime sentBefore, RetentionScope scope) {
+        return springDataJpaDeferredMessageRepository.deleteMessagesSentBeforeInIdRangeInRetentionScope(fromId, toId, sentBefore,
+                scope.topic(), scope.messageType(), toExcludedTopicsConditionValues(scope), toExcludedTopicMessageTypesConditionValues(scope));
+    }
+
+    @Override
+    public int deleteUnsentMessagesCreatedBeforeInIdRange(long fromId, long toId, ZonedDateTime createdBefore, RetentionScope scope) {
+        return springDataJpaDeferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRangeInRetentionScope(fromId, toId, createdBefore,
+                scope.topic(), scope.messageType(), toExcludedTopicsConditionValues(scope), toExcludedTopicMessageTypesConditionValues(scope));
+    }
+
+    // 'NOT IN ()' is not valid SQL. The empty string never matches as a topic name is never empty and the concatenation
+    // of topic and message type always contains a '/'.
+    private static List<String> toExcludedTopicsConditionValues(RetentionScope scope) {
+        return scope.excludedTopics().isEmpty() ? List.of("") : List.copyOf(scope.excludedTopics());
+    }
+
+    private static List<String> toExcludedTopicMessageTypesConditionValues(RetentionScope scope) {
+        return scope.excludedTopicMessageTypes().isEmpty() ? List.of("") : scope.excludedTopicMessageTypes().stream()
+                .map(topicMessageType -> topicMessageType.topic() + "/" + topicMessageType.messageType())
+                .toList();
+    }
+
+    @Override
+    public int deleteMessagesSentBeforeInIdRange(long fromId, long toId, ZonedDateTime sentBefore) {
+        return springDataJpaDeferredMessageRepository.deleteMessagesSentBeforeInIdRange(fromId, toId, sentBefore);
+    }
+
+    @Override
+    public int deleteUnsentMessagesCreatedBeforeInIdRange(long fromId, long toId, ZonedDateTime createdBefore) {
+        return springDataJpaDeferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(fromId, toId, createdBefore);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> findPartitionNames() {
+        return (List<String>) entityManager.createNativeQuery(FIND_PARTITION_NAMES).getResultList();
+    }
+
+    @Override
+    @Transactional
+    public void createPartition(String partitionName, ZonedDateTime from, ZonedDateTime to) {
+        final String partition = validPartitionName(partitionName);
+        final List<String> partitionNames = findPartitionNames();
+        if (partitionNames.contains(partition)) {
+            return;
+        }
+        final String range = "FROM ('" + toTimestampLiteral(from) + "') TO ('" + toTimestampLiteral(to) + "')";
+        if (!partitionNames.contains(DEFAULT_PARTITION_NAME)) {
+            entityManager.createNativeQuery("CREATE TABLE " + partition + " PARTITION OF deferred_message FOR VALUES " + range).executeUpdate();
+            return;
+        }
+        // PostgreSQL refuses to create a partition while the default partition holds messages in its range, e.g. the
+        // messages inserted before the partitioning housekeeping first ran. The messages are moved to the new partition
+        // before attaching it, with the inserts into the default partition blocked until the transaction completes.
+        final String rangeCondition = "created >= '" + toTimestampLiteral(from) + "' AND created < '" + toTimestampLiteral(to) + "'";
+        entityManager.createNativeQuery("LOCK TABLE " + DEFAULT_PARTITION_NAME + " IN SHARE MODE").executeUpdate();
+        entityManager.createNativeQuery("CREATE TABLE " + partition + " (LIKE deferred_message INCLUDING DEFAULTS INCLUDING CONSTRAINTS)").executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO " + partition + " SELECT * FROM " + DEFAULT_PARTITION_NAME + " WHERE " + rangeCondition).executeUpdate();
+        entityManager.createNativeQuery("DELETE FROM " + DEFAULT_PARTITION_NAME + " WHERE " + rangeCondition).executeUpdate();
+        entityManager.createNativeQuery("ALTER TABLE deferred_message ATTACH PARTITION " + partition + " FOR VALUES " + range).executeUpdate();
+    }
+
+    @Override
+    @Transactional
+    public int deleteMessagesSentBeforeInDefaultPartition(ZonedDateTime sentBefore, int maxMessages) {
+        final String sentBeforeLiteral = toTimestampLiteral(sentBefore);
+        return entityManager.createNativeQuery("DELETE FROM " + DEFAULT_PARTITION_NAME + " WHERE id IN (SELECT id FROM " + DEFAULT_PARTITION_NAME +
+                        " WHERE sent_immediately < '" + sentBeforeLiteral + "' OR sent_scheduled < '" + sentBeforeLiteral + "' LIMIT " + maxMessages + ")")
+                .executeUpdate();
+    }
+
+    @Override
+    @Transactional
+    public int dropPartitionKeepingUnsentMessages(String partitionName) {
+        final String partition = validPartitionName(partitionName);
+        entityManager.createNativeQuery("ALTER TABLE deferred_message DETACH PARTITION " + partition).executeUpdate();
+        // No partition covers the time range of the detached partition anymore, i.e. the kept messages end up in the default partition
+        int numKeptMessages = entityManager.createNativeQuery("INSERT INTO deferred_message SELECT * FROM " + partition +
+                " WHERE delivery_state <> '" + DeliveryState.SENT.name() + "'").executeUpdate();
+        entityManager.createNativeQuery("DROP TABLE " + partition).executeUpdate();
+        return numKeptMessages;
+    }
+
+    private static String validPartitionName(String partitionName) {
+        if (!PARTITION_NAME.matcher(partitionName).matches()) {
+            throw new IllegalArgumentException("Invalid deferred message partition name: " + partitionName);
+        }
+        return partitionName;
+    }
+
+    private static String toTimestampLiteral(ZonedDateTime dateTime) {
+        return dateTime.withZoneSameInstant(ZoneOffset.UTC).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    }
+
     @Override
     public int countMessagesReadyToBeSent() {
-        return springDataJpaDeferredMessageRepository.countMessagesReadyToBeSent();
+        return isHoldingBackBehindRetries() ?
+                springDataJpaDeferredMessageRepository.countMessagesReadyToBeSentWithRetries() :
+                springDataJpaDeferredMessageRepository.countMessagesReadyToBeSent();
+    }
+
+    @Override
+    public Optional<Long> findMinIdOfMessagesReadyToBeSent() {
+        return Optional.ofNullable(springDataJpaDeferredMessageRepository.findMinIdOfMessagesReadyToBeSent());
+    }
+
+    @Override
+    public Optional<Long> findMaxId() {
+        return Optional.ofNullable(springDataJpaDeferredMessageRepository.findMaxId());
+    }
+
+    @Override
+    public Optional<Long> findMinId() {
+        return Optional.ofNullable(springDataJpaDeferredMessageRepository.findMinId());
+    }
+
+    @Override
+    public Optional<Long> findIdOfLastMessageCreatedBefore(ZonedDateTime createdBefore) {
+        return Optional.ofNullable(springDataJpaDeferredMessageRepository.findIdOfLastMessageCreatedBefore(createdBefore));
     }
 
     @Override
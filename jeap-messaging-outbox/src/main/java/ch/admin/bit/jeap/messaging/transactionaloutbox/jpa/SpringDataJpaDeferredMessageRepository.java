@@ -1,6 +1,7 @@
 package ch.admin.bit.jeap.messaging.transactionaloutbox.jpa;
 
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessage;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeliveryState;
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.SendFailureReason;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
@@ -12,6 +13,7 @@ import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -19,39 +21,198 @@ import java.util.Set;
 @Repository
 public interface SpringDataJpaDeferredMessageRepository extends JpaRepository<DeferredMessage, Long> {
 
-    String READY_TO_BE_SENT_CONDITION = "sent_immediately IS NULL and sent_scheduled IS NULL AND failed IS NULL AND " +
-            "(send_immediately = false OR (send_immediately = true AND CURRENT_TIMESTAMP > schedule_after)) " +
-            "OR resend = true";
+    // Only pending messages need to be looked at, which can be answered by the index on (delivery_state, id) without
+    // scanning the sent and failed messages. Messages backing off after a failed attempt are skipped until their next
+    // attempt.
+    String READY_TO_BE_SENT_CONDITION = "delivery_state = 'PENDING' AND " +
+            "(next_attempt_at IS NULL OR next_attempt_at <= CURRENT_TIMESTAMP) AND " +
+            "(send_immediately = false OR CURRENT_TIMESTAMP > schedule_after OR resend = true)";
 
+    // If the relay retries messages, the messages with the same topic and key inserted after a message backing off are
+    // skipped too, in order to keep the order per key. Answered by the index on the backing-off messages.
+    String READY_TO_BE_SENT_WITH_RETRIES_CONDITION = READY_TO_BE_SENT_CONDITION + " AND " +
+            "NOT EXISTS (SELECT 1 FROM deferred_message b WHERE b.delivery_state = 'PENDING' AND b.next_attempt_at > CURRENT_TIMESTAMP " +
+            "AND b.topic = deferred_message.topic AND b.\"key\" = deferred_message.\"key\" AND b.id < deferred_message.id)";
+
+    // Kafka topic names cannot contain '/', which makes the concatenation of cluster name and topic unambiguous.
+    String NOT_EXCLUDED_CONDITION = "CONCAT(COALESCE(cluster_name, ''), '/', topic) NOT IN (:excludedClusterTopics)";
+
+    String AFTER_ID_CONDITION = "id > :afterId";
+
+    String CLAIMABLE_CONDITION = "(claimed_until IS NULL OR claimed_until < CURRENT_TIMESTAMP OR claimed_by = :claimedBy)";
+
+    // Kafka topic names cannot contain '/', which makes the concatenation of topic and message type unambiguous.
+    String RETENTION_SCOPE_CONDITION = "(:topic IS NULL OR d.topic = :topic) AND (:messageType IS NULL OR d.messageTypeName = :messageType) AND " +
+            "d.topic NOT IN (:excludedTopics) AND CONCAT(d.topic, '/', d.messageTypeName) NOT IN (:excludedTopicMessageTypes)";
+
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE DeferredMessage m SET m.sentImmediately = :sentTime, m.deliveryState = :deliveryState WHERE m.id = :id")
+    int markSentImmediately(@Param("id") long id, @Param("sentTime") ZonedDateTime sentTime, @Param("deliveryState") DeliveryState deliveryState);
+
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE DeferredMessage m SET m.sentScheduled = :sentTime, m.failed = null, m.resend = false, m.deliveryState = :deliveryState WHERE m.id = :id")
+    int markSentScheduled(@Param("id") long id, @Param("sentTime") ZonedDateTime sentTime, @Param("deliveryState") DeliveryState deliveryState);
+
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE DeferredMessage m SET m.sentImmediately = :sentTime, m.deliveryState = :deliveryState WHERE m.id IN :ids")
+    int markSentImmediately(@Param("ids") Collection<Long> ids, @Param("sentTime") ZonedDateTime sentTime, @Param("deliveryState") DeliveryState deliveryState);
+
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE DeferredMessage m SET m.sentScheduled = :sentTime, m.failed = null, m.resend = false, m.deliveryState = :deliveryState WHERE m.id IN :ids")
+    int markSentScheduled(@Param("ids") Collection<Long> ids, @Param("sentTime") ZonedDateTime sentTime, @Param("deliveryState") DeliveryState deliveryState);
+
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("DELETE FROM DeferredMessage m WHERE m.id IN :ids")
+    int deleteMessages(@Param("ids") Collection<Long> ids);
+
+    // Waits for a concurrent archiving of the same messages to complete, the messages are then gone
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT id FROM deferred_message WHERE id IN (:ids) FOR UPDATE")
+    List<Long> lockIdsOfMessages(@Param("ids") Collection<Long> ids);
+
+    // Only the metadata is archived, the payload of a message is not needed anymore once it has been sent
     @Transactional
     @Modifying(flushAutomatically = true)
-    @Query("UPDATE DeferredMessage m SET m.sentImmediately = :sentTime WHERE m.id = :id")
-    int markSentImmediately(@Param("id") long id, @Param("sentTime") ZonedDateTime sentTime);
+    @Query(nativeQuery = true, value = "INSERT INTO deferred_message_sent " +
+            "(id, message_id, message_idempotence_id, message_type_name, message_type_version, cluster_name, topic, created, sent, sent_immediately, trace_id_string) " +
+            "SELECT d.id, d.message_id, d.message_idempotence_id, d.message_type_name, d.message_type_version, d.cluster_name, d.topic, d.created, :sentTime, :sentImmediately, d.trace_id_string " +
+            "FROM deferred_message d WHERE d.id IN (:ids) AND NOT EXISTS (SELECT 1 FROM deferred_message_sent s WHERE s.id = d.id)")
+    int archiveMessages(@Param("ids") Collection<Long> ids, @Param("sentTime") ZonedDateTime sentTime, @Param("sentImmediately") boolean sentImmediately);
+
+    @Transactional
+    @Modifying
+    @Query(nativeQuery = true, value = "DELETE FROM deferred_message_sent WHERE id IN " +
+            "(SELECT id FROM deferred_message_sent WHERE sent < :sentBefore LIMIT :maxMessages)")
+    int deleteArchivedMessagesSentBefore(@Param("sentBefore") ZonedDateTime sentBefore, @Param("maxMessages") int maxMessages);
 
     @Transactional
     @Modifying(flushAutomatically = true)
-    @Query("UPDATE DeferredMessage m SET m.sentScheduled = :sentTime, m.failed = null, m.resend = false WHERE m.id = :id")
-    int markSentScheduled(@Param("id") long id, @Param("sentTime") ZonedDateTime sentTime);
+    @Query("UPDATE DeferredMessage m SET m.failed = :failedTime, m.failReason = :failReason, m.resend = false, m.deliveryState = :deliveryState WHERE m.id = :id")
+    int markFailed(@Param("id") long id, @Param("failedTime") ZonedDateTime failedTime, @Param("failReason") SendFailureReason failReason,
+                   @Param("deliveryState") DeliveryState deliveryState);
 
     @Transactional
     @Modifying(flushAutomatically = true)
-    @Query("UPDATE DeferredMessage m SET m.failed = :failedTime, m.failReason = :failReason, m.resend = false WHERE m.id = :id")
-    int markFailed(@Param("id") long id, @Param("failedTime") ZonedDateTime failedTime, @Param("failReason") SendFailureReason failReason);
+    @Query("UPDATE DeferredMessage m SET m.failed = :failedTime, m.failReason = :failReason, m.resend = false, m.deliveryState = :deliveryState WHERE m.id IN :ids")
+    int markFailed(@Param("ids") Collection<Long> ids, @Param("failedTime") ZonedDateTime failedTime, @Param("failReason") SendFailureReason failReason,
+                   @Param("deliveryState") DeliveryState deliveryState);
 
     @Transactional
     @Modifying(flushAutomatically = true)
-    @Query("UPDATE DeferredMessage m SET m.resend = :resend WHERE m.id = :id")
-    int markForResend(@Param("id") long id, @Param("resend") boolean resend);
+    @Query("UPDATE DeferredMessage m SET m.attempts = :attempts, m.nextAttemptAt = :nextAttemptAt WHERE m.id = :id")
+    int scheduleNextAttempt(@Param("id") long id, @Param("attempts") int attempts, @Param("nextAttemptAt") ZonedDateTime nextAttemptAt);
+
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE DeferredMessage m SET m.resend = true, m.deliveryState = :pending WHERE m.id = :id")
+    int markForResend(@Param("id") long id, @Param("pending") DeliveryState pending);
+
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE DeferredMessage m SET m.resend = false, m.deliveryState = " +
+           "CASE WHEN m.failed IS NOT NULL THEN :failedState " +
+           "WHEN m.sentImmediately IS NOT NULL OR m.sentScheduled IS NOT NULL THEN :sentState " +
+           "ELSE :pendingState END WHERE m.id = :id")
+    int unmarkForResend(@Param("id") long id, @Param("failedState") DeliveryState failedState,
+                        @Param("sentState") DeliveryState sentState, @Param("pendingState") DeliveryState pendingState);
 
     @Transactional
     @Modifying(flushAutomatically = true)
     @Query("UPDATE DeferredMessage m SET m.scheduleAfter = :scheduleAfter WHERE m.id = :id")
     int setScheduleAfter(@Param("id") long id, @Param("scheduleAfter") ZonedDateTime scheduleAfter);
 
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE DeferredMessage m SET m.scheduleAfter = :scheduleAfter WHERE m.id IN :ids")
+    int setScheduleAfter(@Param("ids") Collection<Long> ids, @Param("scheduleAfter") ZonedDateTime scheduleAfter);
+
     @Transactional(readOnly = true)
     @Query(nativeQuery = true, value = "SELECT * FROM deferred_message WHERE " + READY_TO_BE_SENT_CONDITION + " order by id limit :numMessages")
     List<DeferredMessage> findMessagesReadyToBeSent(@Param("numMessages") int numMessages);
 
+    @Transactional(readOnly = true)
+    @Query(nativeQuery = true, value = "SELECT * FROM deferred_message WHERE " + READY_TO_BE_SENT_CONDITION + " AND " + NOT_EXCLUDED_CONDITION +
+                                       " order by id limit :numMessages")
+    List<DeferredMessage> findMessagesReadyToBeSent(@Param("numMessages") int numMessages,
+                                                    @Param("excludedClusterTopics") Collection<String> excludedClusterTopics);
+
+    @Transactional(readOnly = true)
+    @Query(nativeQuery = true, value = "SELECT * FROM deferred_message WHERE " + READY_TO_BE_SENT_CONDITION + " AND " + AFTER_ID_CONDITION +
+                                       " AND " + NOT_EXCLUDED_CONDITION + " order by id limit :numMessages")
+    List<DeferredMessage> findMessagesReadyToBeSent(@Param("numMessages") int numMessages, @Param("afterId") long afterId,
+                                                    @Param("excludedClusterTopics") Collection<String> excludedClusterTopics);
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT id FROM deferred_message WHERE (" + READY_TO_BE_SENT_CONDITION + ") AND " + CLAIMABLE_CONDITION +
+                                       " order by id limit :numMessages FOR UPDATE SKIP LOCKED")
+    List<Long> lockIdsOfMessagesReadyToBeClaimed(@Param("claimedBy") String claimedBy, @Param("numMessages") int numMessages);
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT id FROM deferred_message WHERE (" + READY_TO_BE_SENT_CONDITION + ") AND " + CLAIMABLE_CONDITION +
+                                       " AND " + NOT_EXCLUDED_CONDITION + " order by id limit :numMessages FOR UPDATE SKIP LOCKED")
+    List<Long> lockIdsOfMessagesReadyToBeClaimed(@Param("claimedBy") String claimedBy, @Param("numMessages") int numMessages,
+                                                 @Param("excludedClusterTopics") Collection<String> excludedClusterTopics);
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT id FROM deferred_message WHERE (" + READY_TO_BE_SENT_CONDITION + ") AND " + CLAIMABLE_CONDITION +
+                                       " AND " + AFTER_ID_CONDITION + " AND " + NOT_EXCLUDED_CONDITION + " order by id limit :numMessages FOR UPDATE SKIP LOCKED")
+    List<Long> lockIdsOfMessagesReadyToBeClaimed(@Param("claimedBy") String claimedBy, @Param("numMessages") int numMessages,
+                                                 @Param("afterId") long afterId,
+                                                 @Param("excludedClusterTopics") Collection<String> excludedClusterTopics);
+
+    @Transactional(readOnly = true)
+    @Query(nativeQuery = true, value = "SELECT * FROM deferred_message WHERE " + READY_TO_BE_SENT_WITH_RETRIES_CONDITION + " order by id limit :numMessages")
+    List<DeferredMessage> findMessagesReadyToBeSentWithRetries(@Param("numMessages") int numMessages);
+
+    @Transactional(readOnly = true)
+    @Query(nativeQuery = true, value = "SELECT * FROM deferred_message WHERE " + READY_TO_BE_SENT_WITH_RETRIES_CONDITION + " AND " + NOT_EXCLUDED_CONDITION +
+                                       " order by id limit :numMessages")
+    List<DeferredMessage> findMessagesReadyToBeSentWithRetries(@Param("numMessages") int numMessages,
+                                                               @Param("excludedClusterTopics") Collection<String> excludedClusterTopics);
+
+    @Transactional(readOnly = true)
+    @Query(nativeQuery = true, value = "SELECT * FROM deferred_message WHERE " + READY_TO_BE_SENT_WITH_RETRIES_CONDITION + " AND " + AFTER_ID_CONDITION +
+                                       " AND " + NOT_EXCLUDED_CONDITION + " order by id limit :numMessages")
+    List<DeferredMessage> findMessagesReadyToBeSentWithRetries(@Param("numMessages") int numMessages, @Param("afterId") long afterId,
+                                                               @Param("excludedClusterTopics") Collection<String> excludedClusterTopics);
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT id FROM deferred_message WHERE (" + READY_TO_BE_SENT_WITH_RETRIES_CONDITION + ") AND " + CLAIMABLE_CONDITION +
+                                       " order by id limit :numMessages FOR UPDATE SKIP LOCKED")
+    List<Long> lockIdsOfMessagesReadyToBeClaimedWithRetries(@Param("claimedBy") String claimedBy, @Param("numMessages") int numMessages);
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT id FROM deferred_message WHERE (" + READY_TO_BE_SENT_WITH_RETRIES_CONDITION + ") AND " + CLAIMABLE_CONDITION +
+                                       " AND " + NOT_EXCLUDED_CONDITION + " order by id limit :numMessages FOR UPDATE SKIP LOCKED")
+    List<Long> lockIdsOfMessagesReadyToBeClaimedWithRetries(@Param("claimedBy") String claimedBy, @Param("numMessages") int numMessages,
+                                                            @Param("excludedClusterTopics") Collection<String> excludedClusterTopics);
+
+    @Transactional
+    @Query(nativeQuery = true, value = "SELECT id FROM deferred_message WHERE (" + READY_TO_BE_SENT_WITH_RETRIES_CONDITION + ") AND " + CLAIMABLE_CONDITION +
+                                       " AND " + AFTER_ID_CONDITION + " AND " + NOT_EXCLUDED_CONDITION + " order by id limit :numMessages FOR UPDATE SKIP LOCKED")
+    List<Long> lockIdsOfMessagesReadyToBeClaimedWithRetries(@Param("claimedBy") String claimedBy, @Param("numMessages") int numMessages,
+                                                            @Param("afterId") long afterId,
+                                                            @Param("excludedClusterTopics") Collection<String> excludedClusterTopics);
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE DeferredMessage m SET m.claimedBy = :claimedBy, m.claimedUntil = :claimedUntil WHERE m.id IN :ids")
+    int claim(@Param("ids") Collection<Long> ids, @Param("claimedBy") String claimedBy, @Param("claimedUntil") ZonedDateTime claimedUntil);
+
+    // A claim taken over by another claimant is not renewed
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE DeferredMessage m SET m.claimedUntil = :claimedUntil WHERE m.id IN :ids AND m.claimedBy = :claimedBy")
+    int renewClaims(@Param("ids") Collection<Long> ids, @Param("claimedBy") String claimedBy, @Param("claimedUntil") ZonedDateTime claimedUntil);
+
+    @Transactional(readOnly = true)
+    List<DeferredMessage> findByIdInOrderByIdAsc(Collection<Long> ids);
+
     @Transactional(readOnly = true)
     @Query("select d.id FROM DeferredMessage d WHERE d.sentImmediately < :sentImmediatelyBefore OR d.sentScheduled < :sentScheduledBefore")
     Slice<Long> findSentImmediatelyBeforeOrSentScheduledBefore(@Param("sentImmediatelyBefore") ZonedDateTime sentImmediatelyBefore, @Param("sentScheduledBefore") ZonedDateTime sentScheduledBefore, Pageable pageable);
@@ -60,14 +221,72 @@ public interface SpringDataJpaDeferredMessageRepository extends JpaRepository<De
     @Query("select d.id FROM DeferredMessage d WHERE d.sentImmediately IS NULL AND d.sentScheduled IS NULL AND d.created < :dateTime")
     Slice<Long> findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(@Param("dateTime") ZonedDateTime dateTime, Pageable pageable);
 
+    @Transactional(readOnly = true)
+    @Query("select d.id FROM DeferredMessage d WHERE (d.sentImmediately < :dateTime OR d.sentScheduled < :dateTime) AND " + RETENTION_SCOPE_CONDITION)
+    Slice<Long> findSentBeforeInRetentionScope(@Param("dateTime") ZonedDateTime dateTime,
+                                               @Param("topic") String topic, @Param("messageType") String messageType,
+                                               @Param("excludedTopics") Collection<String> excludedTopics,
+                                               @Param("excludedTopicMessageTypes") Collection<String> excludedTopicMessageTypes,
+                                               Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select d.id FROM DeferredMessage d WHERE d.sentImmediately IS NULL AND d.sentScheduled IS NULL AND d.created < :dateTime AND " + RETENTION_SCOPE_CONDITION)
+    Slice<Long> findUnsentCreatedBeforeInRetentionScope(@Param("dateTime") ZonedDateTime dateTime,
+                                                        @Param("topic") String topic, @Param("messageType") String messageType,
+                                                        @Param("excludedTopics") Collection<String> excludedTopics,
+                                                        @Param("excludedTopicMessageTypes") Collection<String> excludedTopicMessageTypes,
+                                                        Pageable pageable);
+
     @Modifying
     @Query("DELETE FROM DeferredMessage d WHERE d.id in (:ids)")
     void deleteAllById(@Param("ids") Set<Long> ids);
 
+    @Modifying
+    @Query("DELETE FROM DeferredMessage d WHERE d.id >= :fromId AND d.id < :toId AND (d.sentImmediately < :sentBefore OR d.sentScheduled < :sentBefore)")
+    int deleteMessagesSentBeforeInIdRange(@Param("fromId") long fromId, @Param("toId") long toId, @Param("sentBefore") ZonedDateTime sentBefore);
+
+    @Modifying
+    @Query("DELETE FROM DeferredMessage d WHERE d.id >= :fromId AND d.id < :toId AND d.sentImmediately IS NULL AND d.sentScheduled IS NULL AND d.created < :createdBefore")
+    int deleteUnsentMessagesCreatedBeforeInIdRange(@Param("fromId") long fromId, @Param("toId") long toId, @Param("createdBefore") ZonedDateTime createdBefore);
+
+    @Modifying
+    @Query("DELETE FROM DeferredMessage d WHERE d.id >= :fromId AND d.id < :toId AND (d.sentImmediately < :sentBefore OR d.sentScheduled < :sentBefore) AND " + RETENTION_SCOPE_CONDITION)
+    int deleteMessagesSentBeforeInIdRangeInRetentionScope(@Param("fromId") long fromId, @Param("toId") long toId, @Param("sentBefore") ZonedDateTime sentBefore,
+                                                          @Param("topic") String topic, @Param("messageType") String messageType,
+                                                          @Param("excludedTopics") Collection<String> excludedTopics,
+                                                          @Param("excludedTopicMessageTypes") Collection<String> excludedTopicMessageTypes);
+
+    @Modifying
+    @Query("DELETE FROM DeferredMessage d WHERE d.id >= :fromId AND d.id < :toId AND d.sentImmediately IS NULL AND d.sentScheduled IS NULL AND d.created < :createdBefore AND " + RETENTION_SCOPE_CONDITION)
+    int deleteUnsentMessagesCreatedBeforeInIdRangeInRetentionScope(@Param("fromId") long fromId, @Param("toId") long toId, @Param("createdBefore") ZonedDateTime createdBefore,
+                                                                   @Param("topic") String topic, @Param("messageType") String messageType,
+                                                                   @Param("excludedTopics") Collection<String> excludedTopics,
+                                                                   @Param("excludedTopicMessageTypes") Collection<String> excludedTopicMessageTypes);
+
     @Transactional(readOnly = true)
     @Query(nativeQuery = true, value = "SELECT COUNT (*) FROM deferred_message WHERE " + READY_TO_BE_SENT_CONDITION)
     int countMessagesReadyToBeSent();
 
+    @Transactional(readOnly = true)
+    @Query(nativeQuery = true, value = "SELECT COUNT (*) FROM deferred_message WHERE " + READY_TO_BE_SENT_WITH_RETRIES_CONDITION)
+    int countMessagesReadyToBeSentWithRetries();
+
+    @Transactional(readOnly = true)
+    @Query(nativeQuery = true, value = "SELECT MIN(id) FROM deferred_message WHERE " + READY_TO_BE_SENT_CONDITION)
+    Long findMinIdOfMessagesReadyToBeSent();
+
+    @Transactional(readOnly = true)
+    @Query("SELECT MAX(d.id) FROM DeferredMessage d")
+    Long findMaxId();
+
+    @Transactional(readOnly = true)
+    @Query("SELECT MIN(d.id) FROM DeferredMessage d")
+    Long findMinId();
+
+    @Transactional(readOnly = true)
+    @Query(nativeQuery = true, value = "SELECT id FROM deferred_message WHERE created < :createdBefore ORDER BY created DESC LIMIT 1")
+    Long findIdOfLastMessageCreatedBefore(@Param("createdBefore") ZonedDateTime createdBefore);
+
     @Transactional(readOnly = true)
     int countByFailedIsNotNullAndResend(boolean resend);
 
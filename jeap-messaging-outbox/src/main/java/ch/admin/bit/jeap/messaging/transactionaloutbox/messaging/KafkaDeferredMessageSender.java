@@ -17,14 +17,20 @@ import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.Serializer;
 import org.springframework.kafka.KafkaException;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaOperations;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.MESSAGES_TRANSMIT_TIMER;
 import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.MESSAGE_DELIVERY_TYPE_IMMEDIATE;
@@ -51,6 +57,10 @@ import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetri
  * as Kafka does (according to the source code) not seem to do anything when cancel() is called on the send future. Setting the
  * timeouts in the Kafka producer also allows to take into account the producer blocking timeout 'max.block.ms' which would not
  * be accounted for by the timeout on the send future.
+ * <p>
+ * If the message relay publishes its batches in Kafka transactions, a third KafkaTemplate with the scheduled sending
+ * configuration is based on an idempotent transactional producer factory. A transactional producer cannot send outside
+ * of a transaction, i.e. the other two templates are still needed for immediate and non-transactional sending.
  */
 @Slf4j
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
@@ -58,12 +68,14 @@ class KafkaDeferredMessageSender implements DeferredMessageSender {
 
     private final KafkaTemplate<byte[], byte[]> kafkaTemplateImmediateSending;
     private final KafkaTemplate<byte[], byte[]> kafkaTemplateScheduledSending;
+    private final KafkaTemplate<byte[], byte[]> kafkaTemplateTransactionalSending; // null if relay transactions are disabled
     private final TransactionalOutboxConfiguration config;
     private final OutboxTracing outboxTracing;
     private final Optional<OutboxMetrics> outboxMetrics; // Collection of outbox metrics depends on a metrics setup being provided.
     private final Optional<SignatureService> signatureService;
     private final Optional<ObservationRegistry> observationRegistry; // Available when a Micrometer tracing bridge is on the classpath.
     private final String bootstrapServers;
+    private final TopicHealthCache topicHealthCache;
 
     KafkaDeferredMessageSender(ProducerFactory<byte[], byte[]> producerFactory,
                                TransactionalOutboxConfiguration config,
@@ -76,11 +88,16 @@ class KafkaDeferredMessageSender implements DeferredMessageSender {
         this.signatureService = signatureService;
         this.observationRegistry = observationRegistry;
         this.bootstrapServers = (String) producerFactory.getConfigurationProperties().get(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG);
+        // When batching, the producer gathers the messages handed to it within the batch window into one produce request
+        // per partition, bounded by the producer's batch.size.
+        final int immediateLingerMillis = config.isMessageSendImmediatelyBatchingEnabled() ?
+                Math.max(1, getIntMillis(config.getMessageSendImmediatelyBatchWindow())) : 0;
         kafkaTemplateImmediateSending = createKafkaTemplate(producerFactory, Map.of(
                 ProducerConfig.MAX_BLOCK_MS_CONFIG, config.getMessageSendImmediatelyMaxBlockTime().toMillis(),
                 ProducerConfig.REQUEST_TIMEOUT_MS_CONFIG, getIntMillis(config.getMessageSendImmediatelyTimeout()),
-                ProducerConfig.LINGER_MS_CONFIG, 0,
-                ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, getIntMillis(config.getMessageSendImmediatelyTimeout()))
+                ProducerConfig.LINGER_MS_CONFIG, immediateLingerMillis,
+                // Kafka requires the delivery timeout to be at least the linger time plus the request timeout
+                ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, getIntMillis(config.getMessageSendImmediatelyTimeout()) + immediateLingerMillis)
         );
         kafkaTemplateScheduledSending = createKafkaTemplate(producerFactory, Map.of(
                 ProducerConfig.MAX_BLOCK_MS_CONFIG, config.getMessageSendScheduledMaxBlockTime().toMillis(),
@@ -88,19 +105,52 @@ class KafkaDeferredMessageSender implements DeferredMessageSender {
                 ProducerConfig.LINGER_MS_CONFIG, 0,
                 ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, getIntMillis(config.getMessageSendScheduledTimeout()))
         );
+        kafkaTemplateTransactionalSending = config.isMessageRelayTransactionsEnabled() ?
+                createTransactionalKafkaTemplate(producerFactory, config) :
+                null;
         this.config = config;
+        this.topicHealthCache = new TopicHealthCache(config.getTopicHealthCacheTtl(), System::nanoTime);
     }
 
     private int getIntMillis(Duration duration) {
         return (int) duration.toMillis();
     }
 
+
+    private KafkaTemplate<byte[], byte[]> createTransactionalKafkaTemplate(ProducerFactory<byte[], byte[]> producerFactory, TransactionalOutboxConfiguration config) {
+        // Transactional ids must be unique per producer, the producer factory appends the index of the producer to the prefix.
+        // A stable instance id gives an instance the same ids after a restart, fencing the producers of its predecessor.
+        // Without one, the random suffix only keeps the instances from fencing each other.
+        final String instanceId = config.getMessageRelayTransactionInstanceId();
+        final String transactionIdPrefix = config.getMessageRelayTransactionIdPrefix() +
+                (instanceId != null && !instanceId.isBlank() ? instanceId : UUID.randomUUID()) + "-";
+        return createKafkaTemplate(producerFactory, Map.of(
+                ProducerConfig.MAX_BLOCK_MS_CONFIG, config.getMessageSendScheduledMaxBlockTime().toMillis(),
+                ProducerConfig.REQUEST_TIMEOUT_MS_CONFIG, getIntMillis(config.getMessageSendScheduledTimeout()),
+                ProducerConfig.LINGER_MS_CONFIG, 0,
+                ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, getIntMillis(config.getMessageSendScheduledTimeout()),
+                ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true,
+                ProducerConfig.ACKS_CONFIG, "all"),
+                transactionIdPrefix
+        );
+    }
+
     private KafkaTemplate<byte[], byte[]> createKafkaTemplate(ProducerFactory<byte[], byte[]> producerFactory, Map<String, Object> additionalConfig) {
+        return createKafkaTemplate(producerFactory, additionalConfig, null);
+    }
+
+    private KafkaTemplate<byte[], byte[]> createKafkaTemplate(ProducerFactory<byte[], byte[]> producerFactory, Map<String, Object> additionalConfig,
+                                                              String transactionIdPrefix) {
         var producerFactoryConfig = new HashMap<>(producerFactory.getConfigurationProperties());
         producerFactoryConfig.remove(ProducerConfig.INTERCEPTOR_CLASSES_CONFIG);
+        producerFactoryConfig.remove(ProducerConfig.TRANSACTIONAL_ID_CONFIG);
         producerFactoryConfig.putAll(additionalConfig);
-        KafkaTemplate<byte[], byte[]> kafkaTemplate = new KafkaTemplate<>(
-                new DefaultKafkaProducerFactory<>(producerFactoryConfig, this::byteArraySerializer, this::byteArraySerializer));
+        DefaultKafkaProducerFactory<byte[], byte[]> outboxProducerFactory =
+                new DefaultKafkaProducerFactory<>(producerFactoryConfig, this::byteArraySerializer, this::byteArraySerializer);
+        if (transactionIdPrefix != null) {
+            outboxProducerFactory.setTransactionIdPrefix(transactionIdPrefix);
+        }
+        KafkaTemplate<byte[], byte[]> kafkaTemplate = new KafkaTemplate<>(outboxProducerFactory);
 
         observationRegistry.ifPresent(registry -> {
             // If an observation registry is present we want to enable observation on the template
@@ -130,13 +180,110 @@ class KafkaDeferredMessageSender implements DeferredMessageSender {
         send(deferredMessage, config.getMessageSendScheduledTimeout(), kafkaTemplateScheduledSending);
     }
 
+    @Override
+    public List<DeferredMessageSendResult> sendAllAsScheduled(List<DeferredMessage> deferredMessages) {
+        log.debug("Handing {} messages to Kafka before awaiting their acknowledgements.", deferredMessages.size());
+        List<PendingSend> pendingSends = deferredMessages.stream()
+                .map(deferredMessage -> startSend(deferredMessage, kafkaTemplateScheduledSending))
+                .toList();
+        // All messages have been handed to the producer and are transmitted concurrently, i.e. the send timeout
+        // applies to the batch as a whole and not to each message one after the other.
+        final long awaitUntilNanos = System.nanoTime() +
+                TimeUnit.MILLISECONDS.toNanos(getSendFutureTimeoutMillis(config.getMessageSendScheduledTimeout()));
+        return pendingSends.stream()
+                .map(pendingSend -> awaitSend(pendingSend, awaitUntilNanos))
+                .toList();
+    }
+
+    @Override
+    public List<DeferredMessageSendResult> sendAllAsScheduledInTransaction(List<DeferredMessage> deferredMessages) {
+        if (kafkaTemplateTransactionalSending == null) {
+            throw new IllegalStateException("Kafka transactions are not enabled for the message relay.");
+        }
+        // A message to a topic known to be unhealthy would abort the transaction, it fails without being part of it.
+        List<DeferredMessageSendResult> results = new ArrayList<>(deferredMessages.size());
+        List<DeferredMessage> transactionMessages = new ArrayList<>(deferredMessages.size());
+        for (DeferredMessage deferredMessage : deferredMessages) {
+            topicHealthCache.getKnownFailure(deferredMessage).ifPresentOrElse(
+                    knownFailure -> results.add(DeferredMessageSendResult.failure(deferredMessage, knownFailure)),
+                    () -> transactionMessages.add(deferredMessage));
+        }
+        if (!transactionMessages.isEmpty()) {
+            results.addAll(sendInTransaction(transactionMessages));
+        }
+        return results;
+    }
+
+    private List<DeferredMessageSendResult> sendInTransaction(List<DeferredMessage> deferredMessages) {
+        log.debug("Sending {} messages in a Kafka transaction.", deferredMessages.size());
+        final AtomicReference<DeferredMessageSendResult> failedSend = new AtomicReference<>();
+        try {
+            kafkaTemplateTransactionalSending.executeInTransaction(operations -> {
+                List<PendingSend> pendingSends = deferredMessages.stream()
+                        .map(deferredMessage -> startSend(deferredMessage, operations))
+                        .toList();
+                final long awaitUntilNanos = System.nanoTime() +
+                        TimeUnit.MILLISECONDS.toNanos(getSendFutureTimeoutMillis(config.getMessageSendScheduledTimeout()));
+                for (PendingSend pendingSend : pendingSends) {
+                    DeferredMessageSendResult result = awaitSend(pendingSend, awaitUntilNanos);
+                    if (!result.isSuccess()) {
+                        // Abort the transaction, none of its messages will be visible to read_committed consumers
+                        failedSend.set(result);
+                        throw result.getFailure();
+                    }
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            DeferredMessageSendResult failedMessageSend = failedSend.get();
+            if (failedMessageSend != null) {
+                // Only the failed message is implicated, i.e. recorded as failed or retried later
+                log.warn("Aborted the Kafka transaction of {} messages because of {}, leaving the other messages to be sent again.",
+                        deferredMessages.size(), DeferredMessageLogArgument.from(failedMessageSend.getDeferredMessage()));
+                return List.of(failedMessageSend);
+            }
+            // No message is implicated, report the failure of the cluster once and leave all messages to be sent again
+            log.error("Kafka transaction of {} messages failed.", deferredMessages.size(), e);
+            final DeferredMessage firstMessage = deferredMessages.getFirst();
+            return List.of(DeferredMessageSendResult.failure(firstMessage, DeferredMessageSendException.transactionAborted(firstMessage, e)));
+        }
+        log.debug("Committed the Kafka transaction of {} messages.", deferredMessages.size());
+        return deferredMessages.stream()
+                .map(DeferredMessageSendResult::success)
+                .toList();
+    }
+
+    private DeferredMessageSendResult awaitSend(PendingSend pendingSend, long awaitUntilNanos) {
+        final long remainingMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(awaitUntilNanos - System.nanoTime()));
+        try {
+            completeSend(pendingSend, remainingMillis);
+            return DeferredMessageSendResult.success(pendingSend.deferredMessage());
+        } catch (DeferredMessageSendException e) {
+            return DeferredMessageSendResult.failure(pendingSend.deferredMessage(), e);
+        }
+    }
+
     private void send(DeferredMessage deferredMessage, Duration sendTimeout, KafkaTemplate<byte[], byte[]> kafkaTemplate) {
+        final long sendFutureTimeoutMillis = getSendFutureTimeoutMillis(sendTimeout);
+        log.debug("Sending message {} to Kafka with a timeout of {} millis.", DeferredMessageLogArgument.from(deferredMessage), sendFutureTimeoutMillis);
+        completeSend(startSend(deferredMessage, kafkaTemplate), sendFutureTimeoutMillis);
+    }
+
+    private static long getSendFutureTimeoutMillis(Duration sendTimeout) {
+        // "+ 500" -> grant the Kafka producer some time to raise its own expected specific timeout exception during the send future execution.
+        return sendTimeout.toMillis() + 500;
+    }
+
+    private PendingSend startSend(DeferredMessage deferredMessage, KafkaOperations<byte[], byte[]> kafkaOperations) {
         final byte[] key = deferredMessage.getKey();
         final byte[] message = deferredMessage.getMessage();
         final String topic = deferredMessage.getTopic();
-        // "+ 500" -> grant the Kafka producer some time to raise its own expected specific timeout exception during the send future execution.
-        final long sendFutureTimeoutMillis = sendTimeout.toMillis() + 500;
-        DeferredMessageLogArgument deferredMessageLogArgument = DeferredMessageLogArgument.from(deferredMessage);
+
+        Optional<DeferredMessageSendException> knownFailure = topicHealthCache.getKnownFailure(deferredMessage);
+        if (knownFailure.isPresent()) {
+            log.debug("Not sending {} to the unhealthy topic '{}'.", DeferredMessageLogArgument.from(deferredMessage), topic);
+            return new PendingSend(deferredMessage, null, knownFailure.get());
+        }
 
         // The original trace context was stored with the deferred message. We need to activate it here again
         // so Spring Kafka's producer-side Observation adds the send span to the original trace.
@@ -145,21 +292,36 @@ class KafkaDeferredMessageSender implements DeferredMessageSender {
             injectSignatureHeadersIfNeeded(producerRecord, message, key);
 
             try {
-                log.debug("Sending message {} to Kafka with a timeout of {} millis.", deferredMessageLogArgument, sendFutureTimeoutMillis);
-                kafkaTemplate.send(producerRecord).get(sendFutureTimeoutMillis, TimeUnit.MILLISECONDS);
-
-                outboxMetrics.ifPresent(metrics ->
-                        metrics.countMessagingSend(bootstrapServers, topic, deferredMessage.getMessageTypeName(), deferredMessage.getMessageTypeVersion()));
-
-                log.debug("Successfully sent {}.", deferredMessageLogArgument);
-            } catch (InterruptedException ie) {
-                log.error("Failed sending {}.", deferredMessageLogArgument);
-                Thread.currentThread().interrupt();
-                convertException(deferredMessage, ie);
+                return new PendingSend(deferredMessage, kafkaOperations.send(producerRecord), null);
             } catch (Exception e) {
-                log.error("Failed sending {}.", deferredMessageLogArgument);
-                convertException(deferredMessage, e);
+                return new PendingSend(deferredMessage, null, e);
+            }
+        }
+    }
+
+    private void completeSend(PendingSend pendingSend, long sendFutureTimeoutMillis) {
+        final DeferredMessage deferredMessage = pendingSend.deferredMessage();
+        DeferredMessageLogArgument deferredMessageLogArgument = DeferredMessageLogArgument.from(deferredMessage);
+        try {
+            if (pendingSend.sendException() != null) {
+                throw pendingSend.sendException();
             }
+            pendingSend.sendFuture().get(sendFutureTimeoutMillis, TimeUnit.MILLISECONDS);
+
+            outboxMetrics.ifPresent(metrics ->
+                    metrics.countMessagingSend(bootstrapServers, deferredMessage.getTopic(), deferredMessage.getMessageTypeName(), deferredMessage.getMessageTypeVersion()));
+
+            log.debug("Successfully sent {}.", deferredMessageLogArgument);
+        } catch (DeferredMessageSendException e) {
+            // Already classified, e.g. a known failure of an unhealthy topic
+            throw e;
+        } catch (InterruptedException ie) {
+            log.error("Failed sending {}.", deferredMessageLogArgument);
+            Thread.currentThread().interrupt();
+            convertException(deferredMessage, ie);
+        } catch (Exception e) {
+            log.error("Failed sending {}.", deferredMessageLogArgument);
+            convertException(deferredMessage, e);
         }
     }
 
@@ -174,18 +336,30 @@ class KafkaDeferredMessageSender implements DeferredMessageSender {
     }
 
     private void convertException(DeferredMessage deferredMessage, Exception e) {
+        DeferredMessageSendException deferredMessageSendException = toDeferredMessageSendException(deferredMessage, e);
+        topicHealthCache.recordFailure(deferredMessage, deferredMessageSendException);
+        throw deferredMessageSendException;
+    }
+
+    private static DeferredMessageSendException toDeferredMessageSendException(DeferredMessage deferredMessage, Exception e) {
         if (e instanceof KafkaException) {
             Throwable mostSpecificCause = ((KafkaException) e).getMostSpecificCause();
             if (mostSpecificCause instanceof InvalidTopicException) {
-                throw DeferredMessageSendException.invalidTopicException(deferredMessage, e);
+                return DeferredMessageSendException.invalidTopicException(deferredMessage, e);
             } else if (mostSpecificCause instanceof TopicAuthorizationException) {
-                throw DeferredMessageSendException.topicAuthorizationException(deferredMessage, e);
+                return DeferredMessageSendException.topicAuthorizationException(deferredMessage, e);
             } else if (mostSpecificCause instanceof RecordTooLargeException) {
-                throw DeferredMessageSendException.messageTooLargeException(deferredMessage, e);
+                return DeferredMessageSendException.messageTooLargeException(deferredMessage, e);
             }
         }
 
-        throw DeferredMessageSendException.generalSendException(deferredMessage, e);
+        return DeferredMessageSendException.generalSendException(deferredMessage, e);
+    }
+
+    /**
+     * A message that has been handed to the producer, or the exception raised while doing so.
+     */
+    private record PendingSend(DeferredMessage deferredMessage, CompletableFuture<?> sendFuture, Exception sendException) {
     }
 
 }
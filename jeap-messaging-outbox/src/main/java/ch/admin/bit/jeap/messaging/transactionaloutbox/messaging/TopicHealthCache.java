@@ -0,0 +1,75 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.messaging;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessage;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessageSendException;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.SendFailureReason;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the topics of a cluster that messages cannot be sent to because the topic is invalid or the producer is not
+ * authorized on it. Messages to such a topic fail fast without blocking the producer for up to 'max.block.ms' to find
+ * out again. A topic is validated again by sending a message once the configured time to live has elapsed.
+ */
+@Slf4j
+class TopicHealthCache {
+
+    private record UnhealthyTopic(Exception sendException, SendFailureReason reason, long expiresAtNanos) {
+    }
+
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final Map<String, UnhealthyTopic> unhealthyTopics = new ConcurrentHashMap<>();
+
+    TopicHealthCache(Duration ttl, LongSupplier nanoClock) {
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    private boolean isEnabled() {
+        return ttlNanos > 0;
+    }
+
+    /**
+     * @return The failure of the given message if its topic is known to be unhealthy, empty otherwise.
+     */
+    Optional<DeferredMessageSendException> getKnownFailure(DeferredMessage deferredMessage) {
+        if (!isEnabled() || unhealthyTopics.isEmpty()) {
+            return Optional.empty();
+        }
+        UnhealthyTopic unhealthyTopic = unhealthyTopics.get(deferredMessage.getTopic());
+        if (unhealthyTopic == null) {
+            return Optional.empty();
+        }
+        if (nanoClock.getAsLong() - unhealthyTopic.expiresAtNanos() >= 0) {
+            unhealthyTopics.remove(deferredMessage.getTopic(), unhealthyTopic);
+            return Optional.empty();
+        }
+        return Optional.of(unhealthyTopic.reason() == SendFailureReason.INVALID_TOPIC ?
+                DeferredMessageSendException.invalidTopicException(deferredMessage, unhealthyTopic.sendException()) :
+                DeferredMessageSendException.topicAuthorizationException(deferredMessage, unhealthyTopic.sendException()));
+    }
+
+    /**
+     * Remember the topic of the given message as unhealthy if the given failure is caused by the topic.
+     */
+    void recordFailure(DeferredMessage deferredMessage, DeferredMessageSendException failure) {
+        SendFailureReason reason = failure.getReason();
+        if (!isEnabled() || (reason != SendFailureReason.INVALID_TOPIC && reason != SendFailureReason.UNAUTHORIZED_ON_TOPIC)) {
+            return;
+        }
+        Exception sendException = failure.getCause() instanceof Exception cause ? cause : failure;
+        UnhealthyTopic previous = unhealthyTopics.put(deferredMessage.getTopic(),
+                new UnhealthyTopic(sendException, reason, nanoClock.getAsLong() + ttlNanos));
+        if (previous == null) {
+            log.warn("Topic '{}' is {}, failing messages to it without sending them for the next {}.",
+                    deferredMessage.getTopic(), reason, Duration.ofNanos(ttlNanos));
+        }
+    }
+
+}
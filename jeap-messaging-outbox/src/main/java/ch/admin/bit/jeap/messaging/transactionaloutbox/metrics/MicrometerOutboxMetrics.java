@@ -5,17 +5,25 @@ import ch.admin.bit.jeap.messaging.kafka.signature.publisher.SignaturePublisherP
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessageRepository;
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.FailedMessageRepository;
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.TransactionalOutboxConfiguration;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import jakarta.annotation.PostConstruct;
-import lombok.RequiredArgsConstructor;
 import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
 
-@RequiredArgsConstructor
 public class MicrometerOutboxMetrics implements OutboxMetrics {
 
     private final MeterRegistry meterRegistry;
@@ -24,6 +32,7 @@ public class MicrometerOutboxMetrics implements OutboxMetrics {
     private final KafkaMessagingMetrics kafkaMessagingMetrics;
     private final SignaturePublisherProperties signaturePublisherProperties;
     private final String applicationName;
+    private final OutboxLagEstimator lagEstimator; // null if the lag is counted exactly on every update
 
     private int messagesReadyToBeSentCount = -1;
     private int messagesFailedWithoutResendCount = -1;
@@ -35,6 +44,21 @@ public class MicrometerOutboxMetrics implements OutboxMetrics {
     private Counter messagesPostScheduledDeliveryRolledBackCounter;
     private Counter messagesPostScheduledDeliveryUnknownTxStateCounter;
 
+    public MicrometerOutboxMetrics(MeterRegistry meterRegistry, DeferredMessageRepository deferredMessageRepository,
+                                   FailedMessageRepository failedMessageRepository, KafkaMessagingMetrics kafkaMessagingMetrics,
+                                   SignaturePublisherProperties signaturePublisherProperties, String applicationName,
+                                   TransactionalOutboxConfiguration config) {
+        this.meterRegistry = meterRegistry;
+        this.deferredMessageRepository = deferredMessageRepository;
+        this.failedMessageRepository = failedMessageRepository;
+        this.kafkaMessagingMetrics = kafkaMessagingMetrics;
+        this.signaturePublisherProperties = signaturePublisherProperties;
+        this.applicationName = applicationName;
+        this.lagEstimator = config.isMetricsLagEstimationEnabled() ?
+                new OutboxLagEstimator(deferredMessageRepository, config.getMetricsLagReconciliationInterval(), Clock.systemUTC()) :
+                null;
+    }
+
     @PostConstruct
     void initialize() {
         updateGauges();
@@ -103,9 +127,19 @@ public class MicrometerOutboxMetrics implements OutboxMetrics {
 
     @Override
     public void updateGauges() {
+        if (lagEstimator != null && !lagEstimator.isReconciliationDue()) {
+            OptionalInt estimate = lagEstimator.estimateMessagesReadyToBeSent();
+            if (estimate.isPresent()) {
+                messagesReadyToBeSentCount = estimate.getAsInt();
+                return;
+            }
+        }
         messagesReadyToBeSentCount = deferredMessageRepository.countMessagesReadyToBeSent();
         messagesFailedWithoutResendCount = failedMessageRepository.countFailedMessages(false);
         messagesFailedWithResendCount = failedMessageRepository.countFailedMessages(true);
+        if (lagEstimator != null) {
+            lagEstimator.reconcile(messagesReadyToBeSentCount);
+        }
     }
 
     @Override
@@ -113,6 +147,67 @@ public class MicrometerOutboxMetrics implements OutboxMetrics {
         kafkaMessagingMetrics.incrementSend(bootstrapServers, applicationName, topic, messageType, messageTypeVersion, signaturePublisherProperties.isSigningEnabled());
     }
 
+    @Override
+    public void recordRelayLaneSend(int lane, int numMessages, Duration duration) {
+        final String laneTagValue = String.valueOf(lane);
+        Timer.builder(RELAY_LANE_SEND_TIMER)
+                .tag(RELAY_LANE_TAG, laneTagValue)
+                .description("Sending of the messages assigned to a message relay lane.")
+                .register(meterRegistry)
+                .record(duration);
+        Counter.builder(RELAY_LANE_MESSAGES_COUNTER)
+                .tag(RELAY_LANE_TAG, laneTagValue)
+                .description("Messages a message relay lane attempted to send.")
+                .register(meterRegistry)
+                .increment(numMessages);
+    }
+
+    @Override
+    public void monitorExecutor(ExecutorService executorService, String executorName) {
+        new ExecutorServiceMetrics(executorService, executorName, Tags.empty()).bindTo(meterRegistry);
+    }
+
+    @Override
+    public void countAfterCommitSendRejected(int numMessages) {
+        Counter.builder(AFTER_COMMIT_SEND_REJECTED_COUNTER)
+                .description("Messages left to the message relay because the after commit send executor was saturated.")
+                .register(meterRegistry)
+                .increment(numMessages);
+    }
+
+    @Override
+    public void monitorRelayBatchSize(IntSupplier batchSize) {
+        Gauge.builder(RELAY_BATCH_SIZE_GAUGE, batchSize::getAsInt)
+                .description("Number of messages the message relay currently fetches per batch.")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void recordRelayStage(String stage, Duration duration) {
+        Timer.builder(RELAY_STAGE_TIMER)
+                .tag(RELAY_STAGE_TAG, stage)
+                .description("Stages of relaying a batch of messages: fetching it, waiting for it to be fetched and sending it.")
+                .register(meterRegistry)
+                .record(duration);
+    }
+
+    @Override
+    public void countHouseKeepingDeleted(String kind, int numMessages) {
+        Counter.builder(HOUSE_KEEPING_DELETED_COUNTER)
+                .tag(HOUSE_KEEPING_KIND_TAG, kind)
+                .description("Messages deleted by the continuous outbox housekeeping.")
+                .register(meterRegistry)
+                .increment(numMessages);
+    }
+
+    @Override
+    public void monitorHouseKeepingBacklog(String kind, LongSupplier backlogIds) {
+        Gauge.builder(HOUSE_KEEPING_BACKLOG_GAUGE, backlogIds::getAsLong)
+                .tag(HOUSE_KEEPING_KIND_TAG, kind)
+                .description("Ids the continuous outbox housekeeping still has to walk through to catch up with the retention duration.")
+                .register(meterRegistry);
+    }
+
     void incrementMessagesPostImmediateDeliveryCommittedCount(int amount) {
         messagesPostImmediateDeliveryCommittedCounter.increment(amount);
     }
@@ -0,0 +1,84 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.metrics;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessageRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * Estimates the number of messages ready to be sent without counting them. The estimate is derived from the id range
+ * spanned by the messages ready to be sent (lowest id of a message ready to be sent up to the highest id), which two
+ * index lookups can provide, and the share of ids within that range that belonged to messages ready to be sent when the
+ * messages were last counted exactly. The exact count is repeated every reconciliation interval to correct the estimate.
+ * Messages backing off or failed do not widen the id range, as they are not ready to be sent.
+ * <p>
+ * The density only holds for id ranges similar to the one it was calibrated with. If the id range has grown far beyond
+ * it, e.g. because a message became ready to be sent again after backing off for long, no estimate is given and the
+ * messages have to be counted exactly. Small ranges are calibrated as if they spanned at least
+ * {@link #MIN_CALIBRATED_ID_RANGE} ids, so that an outbox that is idle at the exact count is not counted exactly on
+ * every update as soon as a few messages arrive.
+ */
+@Slf4j
+class OutboxLagEstimator {
+
+    private final DeferredMessageRepository deferredMessageRepository;
+    private final Duration reconciliationInterval;
+    private final Clock clock;
+
+    // Max factor by which the id range may grow beyond the range at the last exact count to still estimate
+    static final int MAX_ID_RANGE_GROWTH = 10;
+    static final long MIN_CALIBRATED_ID_RANGE = 1_000;
+
+    private Instant nextReconciliation = Instant.MIN;
+    private double readyToBeSentDensity = 1.0;
+    private long calibratedIdRange = MIN_CALIBRATED_ID_RANGE;
+
+    OutboxLagEstimator(DeferredMessageRepository deferredMessageRepository, Duration reconciliationInterval, Clock clock) {
+        this.deferredMessageRepository = deferredMessageRepository;
+        this.reconciliationInterval = reconciliationInterval;
+        this.clock = clock;
+    }
+
+    boolean isReconciliationDue() {
+        return !clock.instant().isBefore(nextReconciliation);
+    }
+
+    /**
+     * Calibrate the estimation with the given exact number of messages ready to be sent.
+     */
+    void reconcile(int exactMessagesReadyToBeSentCount) {
+        long readyIdRange = getReadyIdRange();
+        readyToBeSentDensity = readyIdRange > 0 ? Math.min(1.0, exactMessagesReadyToBeSentCount / (double) readyIdRange) : 1.0;
+        calibratedIdRange = Math.max(MIN_CALIBRATED_ID_RANGE, readyIdRange);
+        nextReconciliation = clock.instant().plus(reconciliationInterval);
+        log.debug("Reconciled outbox lag estimation with exact count {} over id range {}.", exactMessagesReadyToBeSentCount, readyIdRange);
+    }
+
+    /**
+     * @return The estimated number of messages ready to be sent, or empty if the id range of the messages ready to be
+     * sent has grown too far beyond the range of the last exact count for the estimate to be reliable.
+     */
+    OptionalInt estimateMessagesReadyToBeSent() {
+        long readyIdRange = getReadyIdRange();
+        if (readyIdRange > calibratedIdRange * MAX_ID_RANGE_GROWTH) {
+            log.debug("Id range {} exceeds the range {} of the last exact count, not estimating the outbox lag.",
+                    readyIdRange, calibratedIdRange);
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of((int) Math.min(Integer.MAX_VALUE, Math.round(readyToBeSentDensity * readyIdRange)));
+    }
+
+    private long getReadyIdRange() {
+        Optional<Long> minReadyId = deferredMessageRepository.findMinIdOfMessagesReadyToBeSent();
+        if (minReadyId.isEmpty()) {
+            return 0;
+        }
+        long maxId = deferredMessageRepository.findMaxId().orElse(minReadyId.get());
+        return Math.max(0, maxId - minReadyId.get() + 1);
+    }
+
+}
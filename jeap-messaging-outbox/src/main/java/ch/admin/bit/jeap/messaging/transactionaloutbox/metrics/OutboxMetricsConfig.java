@@ -5,6 +5,7 @@ import ch.admin.bit.jeap.messaging.kafka.signature.publisher.SignaturePublisherP
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessageRepository;
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.FailedMessageRepository;
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.TransactionalOutboxConfiguration;
 import io.micrometer.core.aop.TimedAspect;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
@@ -24,8 +25,10 @@ public class OutboxMetricsConfig {
 
     @Bean
     OutboxMetrics outboxMetrics(MeterRegistry meterRegistry, DeferredMessageRepository deferredMessageRepository, FailedMessageRepository failedMessageRepository,
-                                KafkaMessagingMetrics kafkaMessagingMetrics, SignaturePublisherProperties signaturePublisherProperties) {
-        return new MicrometerOutboxMetrics(meterRegistry, deferredMessageRepository, failedMessageRepository, kafkaMessagingMetrics, signaturePublisherProperties, applicationName);
+                                KafkaMessagingMetrics kafkaMessagingMetrics, SignaturePublisherProperties signaturePublisherProperties,
+                                TransactionalOutboxConfiguration config) {
+        return new MicrometerOutboxMetrics(meterRegistry, deferredMessageRepository, failedMessageRepository, kafkaMessagingMetrics,
+                signaturePublisherProperties, applicationName, config);
     }
 
     @Bean
@@ -1,7 +1,27 @@
 package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
 
+import java.util.Collection;
+
 public interface AfterCommitMessageSender {
 
     void sendImmediatelyAfterTransactionCommit(DeferredMessage deferredMessage);
 
+    void sendImmediatelyAfterTransactionCommit(Collection<DeferredMessage> deferredMessages);
+
+    /**
+     * Insert the given new messages into the outbox with one batch right before the current transaction commits instead of
+     * right away, if write-behind is enabled (see {@link TransactionalOutboxConfiguration#isWriteBehindEnabled()}). The
+     * messages to be sent immediately are sent after the commit.
+     *
+     * @return <code>true</code> if the messages will be inserted before the commit, <code>false</code> if the caller has to
+     * insert the messages itself.
+     */
+    boolean insertBeforeTransactionCommit(Collection<DeferredMessage> deferredMessages);
+
+    /**
+     * Wake up the message relay after the current transaction has been committed, i.e. once the scheduled messages put
+     * into the outbox by the transaction are visible to the relay.
+     */
+    void wakeUpMessageRelayAfterTransactionCommit();
+
 }
@@ -0,0 +1,15 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+/**
+ * The Kafka cluster and topic a deferred message is sent to.
+ *
+ * @param clusterName The name of the cluster as stored with the message, <code>null</code> for the default cluster.
+ * @param topic       The name of the topic.
+ */
+public record ClusterTopic(String clusterName, String topic) {
+
+    public static ClusterTopic of(DeferredMessage deferredMessage) {
+        return new ClusterTopic(deferredMessage.getClusterName(), deferredMessage.getTopic());
+    }
+
+}
@@ -4,6 +4,8 @@ import jakarta.persistence.*;
 import lombok.*;
 
 import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collection;
 
 import static lombok.AccessLevel.PRIVATE;
 import static lombok.AccessLevel.PROTECTED;
@@ -74,6 +76,24 @@ public class DeferredMessage {
     @Column(name = "resend")
     private boolean resend;
 
+    @Enumerated(EnumType.STRING)
+    @Column(name = "delivery_state")
+    private DeliveryState deliveryState;
+
+    @Column(name = "claimed_by")
+    private String claimedBy;
+
+    @Column(name = "claimed_until")
+    private ZonedDateTime claimedUntil;
+
+    // Number of attempts to send the message that failed for a reason not caused by the message
+    @Column(name = "attempts")
+    private int attempts;
+
+    // If set, the message relay does not try to send the message again before this time
+    @Column(name = "next_attempt_at")
+    private ZonedDateTime nextAttemptAt;
+
     @Embedded
     private OutboxTraceContext traceContext;
 
@@ -83,7 +103,28 @@ public class DeferredMessage {
                                                         @NonNull String messageTypeName, String messageTypeVersion,
                                                         boolean sendImmediately, OutboxTraceContext traceContext) {
         return new DeferredMessage(null, message, key, clusterName, topic, messageId, messageIdempotenceId, messageTypeName, messageTypeVersion,
-                ZonedDateTime.now(), sendImmediately, null, null, null, null, null, false, traceContext);
+                ZonedDateTime.now(), sendImmediately, null, null, null, null, null, false, DeliveryState.PENDING, null, null, 0, null, traceContext);
+    }
+
+    /**
+     * Set the earliest time the message relay may send this message if it is to be sent immediately, before the message
+     * is inserted into the outbox. Messages already in the outbox are updated with
+     * {@link DeferredMessageRepository#setScheduleAfter(Collection, ZonedDateTime)} instead.
+     */
+    public void scheduleAfterBeforeInsert(ZonedDateTime scheduleAfter) {
+        if (id != null) {
+            throw new IllegalStateException("Deferred message " + id + " has already been inserted.");
+        }
+        this.scheduleAfter = scheduleAfter;
+    }
+
+    /**
+     * @return The lane out of the given number of lanes that sends the given message. Messages with the same topic and key
+     * always get the same lane, messages without a key get a lane by their topic only.
+     */
+    public static int getLane(DeferredMessage message, int numLanes) {
+        int hash = 31 * message.getTopic().hashCode() + Arrays.hashCode(message.getKey());
+        return Math.floorMod(hash, numLanes);
     }
 
     @Override
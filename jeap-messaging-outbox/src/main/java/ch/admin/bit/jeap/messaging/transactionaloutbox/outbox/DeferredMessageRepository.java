@@ -4,7 +4,9 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 public interface DeferredMessageRepository {
@@ -13,28 +15,218 @@ public interface DeferredMessageRepository {
 
     DeferredMessage save(DeferredMessage deferredMessage);
 
+    /**
+     * Save all given messages at once, allowing them to be inserted as a batch.
+     *
+     * @return The saved messages, in the order of the given messages.
+     */
+    List<DeferredMessage> saveAll(List<DeferredMessage> deferredMessages);
+
     void deleteById(long id);
 
     void markSentImmediately(long id, ZonedDateTime sentTime);
 
+    /**
+     * Mark all messages with the given ids as sent immediately with as few statements as possible.
+     */
+    void markSentImmediately(Collection<Long> ids, ZonedDateTime sentTime);
+
     void markSentScheduled(long id, ZonedDateTime sentTime);
 
+    /**
+     * Mark all messages with the given ids as sent scheduled with as few statements as possible.
+     */
+    void markSentScheduled(Collection<Long> ids, ZonedDateTime sentTime);
+
+    /**
+     * Delete all sent messages with the given ids with as few statements as possible (see
+     * {@link SentMessageRetentionMode#DELETE}). Ids of messages already deleted are ignored, as a message can be sent
+     * and recorded by both the relay and the after-commit sender.
+     */
+    void deleteSentMessages(Collection<Long> ids);
+
+    /**
+     * Move all sent messages with the given ids to the archive of sent messages with as few statements as possible (see
+     * {@link SentMessageRetentionMode#ARCHIVE}). Ids of messages already archived are ignored, as a message can be sent
+     * and recorded by both the relay and the after-commit sender.
+     */
+    void archiveSentMessages(Collection<Long> ids, ZonedDateTime sentTime, boolean sentImmediately);
+
+    /**
+     * Delete at most the given number of archived messages sent before the given time.
+     *
+     * @return The number of archived messages deleted.
+     */
+    int deleteArchivedMessagesSentBefore(ZonedDateTime sentBefore, int maxMessages);
+
     void markFailed(long id, ZonedDateTime failedTime, SendFailureReason failReason);
 
+    /**
+     * Mark all messages with the given ids as failed for the given reason with as few statements as possible.
+     */
+    void markFailed(Collection<Long> ids, ZonedDateTime failedTime, SendFailureReason failReason);
+
+    /**
+     * Record a failed attempt to send the message with the given id. The message is not ready to be sent again before
+     * the given time.
+     */
+    void scheduleNextAttempt(long id, int attempts, ZonedDateTime nextAttemptAt);
+
     void markForResend(long id, boolean resend);
 
     void setScheduleAfter(long id, ZonedDateTime scheduleAfter);
 
+    /**
+     * Set the earliest time the message relay may send the messages with the given ids with as few statements as possible.
+     */
+    void setScheduleAfter(Collection<Long> ids, ZonedDateTime scheduleAfter);
+
     List<DeferredMessage> findMessagesReadyToBeSent(int numMessages);
 
+    /**
+     * Find at most numMessages messages ready to be sent, skipping the messages sent to the given clusters and topics.
+     */
+    List<DeferredMessage> findMessagesReadyToBeSent(int numMessages, Collection<ClusterTopic> excludedClusterTopics);
+
+    /**
+     * Find messages as {@link #findMessagesReadyToBeSent(int, Collection)}, skipping the messages with an id lower than
+     * or equal to afterId, e.g. because they are still being sent.
+     */
+    List<DeferredMessage> findMessagesReadyToBeSent(int numMessages, long afterId, Collection<ClusterTopic> excludedClusterTopics);
+
+    /**
+     * Claim at most numMessages messages ready to be sent for the given claimant until the given point in time. Messages
+     * claimed by another claimant are skipped until their claim expires, messages already claimed by the given claimant
+     * can be claimed again.
+     *
+     * @return The claimed messages, ordered by id.
+     */
+    List<DeferredMessage> claimMessagesReadyToBeSent(String claimedBy, ZonedDateTime claimedUntil, int numMessages);
+
+    /**
+     * Claim messages as {@link #claimMessagesReadyToBeSent(String, ZonedDateTime, int)}, skipping the messages sent to
+     * the given clusters and topics.
+     */
+    List<DeferredMessage> claimMessagesReadyToBeSent(String claimedBy, ZonedDateTime claimedUntil, int numMessages,
+                                                     Collection<ClusterTopic> excludedClusterTopics);
+
+    /**
+     * Claim messages as {@link #claimMessagesReadyToBeSent(String, ZonedDateTime, int, Collection)}, skipping the
+     * messages with an id lower than or equal to afterId, e.g. because they are still being sent.
+     */
+    List<DeferredMessage> claimMessagesReadyToBeSent(String claimedBy, ZonedDateTime claimedUntil, int numMessages, long afterId,
+                                                     Collection<ClusterTopic> excludedClusterTopics);
+
+    /**
+     * Extend the claims of the messages with the given ids that are still claimed by the given claimant until the given
+     * point in time, e.g. before sending a prefetched batch.
+     *
+     * @return The number of claims renewed. Lower than the number of ids if another claimant took over some messages.
+     */
+    int renewClaims(String claimedBy, Collection<Long> ids, ZonedDateTime claimedUntil);
+
     Slice<Long> findSentImmediatelyBeforeOrSentScheduledBefore(ZonedDateTime timestamp, Pageable pageable);
 
     Slice<Long> findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(ZonedDateTime timestamp, Pageable pageable);
 
+    /**
+     * Same as {@link #findSentImmediatelyBeforeOrSentScheduledBefore(ZonedDateTime, Pageable)}, but only finds the messages
+     * in the given retention scope.
+     */
+    Slice<Long> findSentImmediatelyBeforeOrSentScheduledBefore(ZonedDateTime timestamp, RetentionScope scope, Pageable pageable);
+
+    /**
+     * Same as {@link #findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(ZonedDateTime, Pageable)}, but only
+     * finds the messages in the given retention scope.
+     */
+    Slice<Long> findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(ZonedDateTime timestamp, RetentionScope scope, Pageable pageable);
+
     void deleteAllById(Set<Long> ids);
 
+    /**
+     * Delete the messages with an id in the given range that have been sent before the given time.
+     *
+     * @param fromId Start of the id range (inclusive).
+     * @param toId   End of the id range (exclusive).
+     * @return The number of messages deleted.
+     */
+    int deleteMessagesSentBeforeInIdRange(long fromId, long toId, ZonedDateTime sentBefore);
+
+    /**
+     * Delete the messages with an id in the given range that have not been sent and have been created before the given time.
+     *
+     * @param fromId Start of the id range (inclusive).
+     * @param toId   End of the id range (exclusive).
+     * @return The number of messages deleted.
+     */
+    int deleteUnsentMessagesCreatedBeforeInIdRange(long fromId, long toId, ZonedDateTime createdBefore);
+
+    /**
+     * Same as {@link #deleteMessagesSentBeforeInIdRange(long, long, ZonedDateTime)}, but only deletes the messages in the
+     * given retention scope.
+     */
+    int deleteMessagesSentBeforeInIdRange(long fromId, long toId, ZonedDateTime sentBefore, RetentionScope scope);
+
+    /**
+     * Same as {@link #deleteUnsentMessagesCreatedBeforeInIdRange(long, long, ZonedDateTime)}, but only deletes the
+     * messages in the given retention scope.
+     */
+    int deleteUnsentMessagesCreatedBeforeInIdRange(long fromId, long toId, ZonedDateTime createdBefore, RetentionScope scope);
+
+    /**
+     * @return The names of the partitions of the deferred message table, empty if the table is not partitioned.
+     */
+    List<String> findPartitionNames();
+
+    /**
+     * Create a partition of the deferred message table for the messages created in the given time range, if it does
+     * not exist yet. Messages of the time range in the default partition are moved to the new partition.
+     *
+     * @param partitionName The name of the partition.
+     * @param from          Start of the time range (inclusive).
+     * @param to            End of the time range (exclusive).
+     */
+    void createPartition(String partitionName, ZonedDateTime from, ZonedDateTime to);
+
+    /**
+     * Detach and drop the given partition of the deferred message table. The messages of the partition not sent yet
+     * (pending or failed) are moved to the default partition before.
+     *
+     * @return The number of messages kept.
+     */
+    int dropPartitionKeepingUnsentMessages(String partitionName);
+
+    /**
+     * Delete at most the given number of messages in the default partition of the deferred message table sent before
+     * the given time, e.g. the messages kept when their partition was dropped and sent later on.
+     *
+     * @return The number of messages deleted.
+     */
+    int deleteMessagesSentBeforeInDefaultPartition(ZonedDateTime sentBefore, int maxMessages);
+
     int countMessagesReadyToBeSent();
 
+    /**
+     * @return The lowest id of all messages ready to be sent, empty if there is no such message.
+     */
+    Optional<Long> findMinIdOfMessagesReadyToBeSent();
+
+    /**
+     * @return The highest id of all messages in the outbox, empty if the outbox is empty.
+     */
+    Optional<Long> findMaxId();
+
+    /**
+     * @return The lowest id of all messages in the outbox, empty if the outbox is empty.
+     */
+    Optional<Long> findMinId();
+
+    /**
+     * @return The id of the last message created before the given time, empty if there is no such message. As ids are
+     * allocated before the insert is committed, messages created before the given time may have a slightly higher id.
+     */
+    Optional<Long> findIdOfLastMessageCreatedBefore(ZonedDateTime createdBefore);
+
     List<DeferredMessage> findAll();
 
 }
@@ -37,6 +37,11 @@ public class DeferredMessageSendException extends RuntimeException {
         return new DeferredMessageSendException(message, e, SendFailureReason.GENERAL);
     }
 
+    public static DeferredMessageSendException transactionAborted(DeferredMessage dm, Exception e) {
+        final String message = String.format("Kafka transaction sending message to topic '%s' aborted for %s.", dm.getTopic(), DeferredMessageLogArgument.from(dm));
+        return new DeferredMessageSendException(message, e, SendFailureReason.TRANSACTION_ABORTED);
+    }
+
     public static DeferredMessageSendException unknownCluster(DeferredMessage dm, String clusterName) {
         final String message = String.format("Sending message to cluster '%s' failed because no cluster with this name is configured: %s",
                 clusterName, DeferredMessageLogArgument.from(dm));
@@ -5,6 +5,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Component
@@ -23,4 +27,27 @@ public class DeferredMessageSendExceptionHandler {
         }
     }
 
+    /**
+     * Handle the failures of several messages at once, marking the messages that cannot be sent as failed with as few
+     * statements as possible. Many messages fail for the same reason e.g. when their topic is unhealthy, therefore only
+     * the first failure per reason is logged with its stack trace.
+     */
+    public void handleAll(Map<DeferredMessage, DeferredMessageSendException> failures) {
+        Map<SendFailureReason, List<Long>> failedIdsByReason = new EnumMap<>(SendFailureReason.class);
+        failures.forEach((deferredMessage, e) -> {
+            if (!e.getReason().causedByMessage) {
+                throw e;
+            }
+            List<Long> failedIds = failedIdsByReason.computeIfAbsent(e.getReason(), _ -> new ArrayList<>());
+            if (failedIds.isEmpty()) {
+                log.error("Deferred message has an error and cannot be sent. Marking {} as failed.", DeferredMessageLogArgument.from(deferredMessage), e);
+            } else {
+                log.error("Deferred message has an error and cannot be sent. Marking {} as failed: {}", DeferredMessageLogArgument.from(deferredMessage), e.getMessage());
+            }
+            failedIds.add(deferredMessage.getId());
+        });
+        final ZonedDateTime failedTime = ZonedDateTime.now();
+        failedIdsByReason.forEach((reason, failedIds) -> deferredMessageRepository.markFailed(failedIds, failedTime, reason));
+    }
+
 }
@@ -0,0 +1,33 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Outcome of sending a single deferred message as part of a batch of messages.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class DeferredMessageSendResult {
+
+    public static DeferredMessageSendResult success(DeferredMessage deferredMessage) {
+        return new DeferredMessageSendResult(deferredMessage, null);
+    }
+
+    public static DeferredMessageSendResult failure(DeferredMessage deferredMessage, DeferredMessageSendException failure) {
+        return new DeferredMessageSendResult(deferredMessage, failure);
+    }
+
+    DeferredMessage deferredMessage;
+
+    /**
+     * The reason the message could not be sent, <code>null</code> if the message has been sent successfully.
+     */
+    DeferredMessageSendException failure;
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+}
@@ -1,10 +1,35 @@
 package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
 
 
+import java.util.List;
+
 public interface DeferredMessageSender {
 
     void sendAsImmediate(DeferredMessage deferredMessage);
 
     void sendAsScheduled(DeferredMessage deferredMessage);
 
+    /**
+     * Send the given messages as scheduled without waiting for a message to be acknowledged by Kafka before handing the
+     * next message to the producer. The acknowledgements of all messages are awaited together.
+     *
+     * @param deferredMessages The messages to send, in the order they should be handed to the producer.
+     * @return The send result of every given message, in the order of the given messages.
+     */
+    List<DeferredMessageSendResult> sendAllAsScheduled(List<DeferredMessage> deferredMessages);
+
+    /**
+     * Send the given messages as scheduled within one Kafka transaction, see
+     * {@link TransactionalOutboxConfiguration#isMessageRelayTransactionsEnabled()}. The messages are handed to the producer
+     * like {@link #sendAllAsScheduled(List)} does, and the transaction is committed once all of them have been acknowledged.
+     * If a message fails, the transaction is aborted and only the failure of this message is returned, i.e. the other
+     * messages are left to be sent again. If the transaction fails without a message failing, e.g. because it cannot be
+     * committed, a single failure with the reason {@link SendFailureReason#TRANSACTION_ABORTED} is returned for the first
+     * message, and all messages are left to be sent again.
+     *
+     * @param deferredMessages The messages to send, in the order they should be handed to the producer.
+     * @return The send results of the given messages, except for the messages left to be sent again.
+     */
+    List<DeferredMessageSendResult> sendAllAsScheduledInTransaction(List<DeferredMessage> deferredMessages);
+
 }
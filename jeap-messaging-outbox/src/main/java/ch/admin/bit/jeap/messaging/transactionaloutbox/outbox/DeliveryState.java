@@ -0,0 +1,24 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+/**
+ * The delivery state of a deferred message. Kept up to date by the repository when a message is marked as sent,
+ * failed or for resend, so that the messages still to be sent can be found by their state alone.
+ */
+public enum DeliveryState {
+
+    /**
+     * The message has not been sent yet or has been marked for resend.
+     */
+    PENDING,
+
+    /**
+     * The message has been sent immediately or by the message relay.
+     */
+    SENT,
+
+    /**
+     * Sending the message failed for a reason caused by the message and it has not been marked for resend.
+     */
+    FAILED
+
+}
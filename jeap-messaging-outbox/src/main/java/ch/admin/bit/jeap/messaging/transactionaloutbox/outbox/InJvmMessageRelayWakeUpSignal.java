@@ -0,0 +1,44 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wake-up signal for the message relay of this outbox instance. Signals received while the relay is not waiting are
+ * coalesced into one pending signal that ends the next wait immediately.
+ */
+public class InJvmMessageRelayWakeUpSignal implements MessageRelayWakeUpSignal {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition signalled = lock.newCondition();
+    private boolean signalPending;
+
+    @Override
+    public void signal() {
+        lock.lock();
+        try {
+            signalPending = true;
+            signalled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean await(Duration timeout) throws InterruptedException {
+        long remainingNanos = timeout.toNanos();
+        lock.lock();
+        try {
+            while (!signalPending && remainingNanos > 0) {
+                remainingNanos = signalled.awaitNanos(remainingNanos);
+            }
+            boolean received = signalPending;
+            signalPending = false;
+            return received;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -5,62 +5,308 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRelayPrefetcher.FROM_START;
+import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.RELAY_STAGE_SEND;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
+@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
 public class MessageRelay {
 
     private final DeferredMessageSenderProvider deferredMessageSenderProvider;
     private final DeferredMessageSendExceptionHandler exceptionHandler;
     private final DeferredMessageRepository deferredMessageRepository;
     private final TransactionalOutboxConfiguration config;
+    private final MessageRelayLanes messageRelayLanes;
+    private final MessageRelayBatchSizeController batchSizeController;
+    private final MessageRelayRetryBackoff retryBackoff;
+    private final SendCircuitBreaker sendCircuitBreaker;
+    private final MessageRelayPrefetcher prefetcher;
+    private final Optional<OutboxMetrics> outboxMetrics;
+    // Identifies the messages claimed by this relay if messages are claimed (see TransactionalOutboxConfiguration.isMessageRelayClaimingEnabled())
+    private final String relayId = "relay-" + UUID.randomUUID();
 
-    public void relay() {
+    /**
+     * Relay the messages ready to be sent, batch after batch, until there are no more such messages, sending a batch failed
+     * or the continuous relay timeout has elapsed.
+     *
+     * @return <code>true</code> if messages ready to be sent have been found, <code>false</code> if the outbox was idle.
+     */
+    public boolean relay() {
         log.debug("Starting to relay deferred messages.");
         final ZonedDateTime stopRelayingAt = ZonedDateTime.now().plus(config.getContinuousRelayTimeout());
         log.debug("Will stop relaying after {}.", stopRelayingAt);
 
+        boolean foundMessages = false;
         boolean continueRelaying = true;
-        while (continueRelaying && ZonedDateTime.now().isBefore(stopRelayingAt)) {
-            log.debug("Fetching at most {} deferred messages ready to be sent.", config.getMessageRelayBatchSize());
-            List<DeferredMessage> messages = deferredMessageRepository.findMessagesReadyToBeSent(config.getMessageRelayBatchSize());
+        try (MessageRelayPrefetcher.Batches batches = prefetcher.start(this::fetchMessagesReadyToBeSent)) {
+            while (continueRelaying && ZonedDateTime.now().isBefore(stopRelayingAt)) {
+                List<DeferredMessage> messages = batches.next();
 
-            if (messages.isEmpty()) {
-                log.debug("There are no deferred messages ready to be sent.");
-                continueRelaying = false;
-            } else {
-                log.debug("Fetched a batch of {} deferred messages to send.", messages.size());
-                try {
-                    sendMessages(messages);
-                } catch (Exception e) {
-                    log.error("Unable to send the complete batch of fetched deferred messages.", e);
+                if (messages.isEmpty()) {
+                    log.debug("There are no deferred messages ready to be sent.");
                     continueRelaying = false;
+                } else {
+                    log.debug("Fetched a batch of {} deferred messages to send.", messages.size());
+                    foundMessages = true;
+                    if (isRenewingClaimsBeforeSending() && !renewClaims(messages)) {
+                        // Fetch the messages still claimed by this relay again, skipping the ones taken over
+                        batches.restart();
+                        continue;
+                    }
+                    try {
+                        final long startNanos = System.nanoTime();
+                        boolean completed = sendMessages(messages);
+                        final Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+                        outboxMetrics.ifPresent(metrics -> metrics.recordRelayStage(RELAY_STAGE_SEND, duration));
+                        batchSizeController.batchSent(messages.size(), duration);
+                        if (!completed) {
+                            // The messages left pending must be fetched again before the messages prefetched after them.
+                            batches.restart();
+                        }
+                    } catch (Exception e) {
+                        log.error("Unable to send the complete batch of fetched deferred messages.", e);
+                        batchSizeController.batchFailed();
+                        continueRelaying = false;
+                    }
                 }
             }
         }
 
         log.debug("Ending relaying of deferred messages.");
+        return foundMessages;
     }
 
-    private void sendMessages(List<DeferredMessage> messages) {
+    private List<DeferredMessage> fetchMessagesReadyToBeSent(long afterId) {
+        final int numMessages = batchSizeController.getBatchSize();
+        log.debug("Fetching at most {} deferred messages ready to be sent.", numMessages);
+        // Skip the messages of clusters and topics that cannot be sent to at the moment, in order to not block the others.
+        Set<ClusterTopic> openCircuits = sendCircuitBreaker.getOpenCircuits();
+        if (config.isMessageRelayClaimingEnabled()) {
+            ZonedDateTime claimedUntil = ZonedDateTime.now().plus(config.getMessageRelayClaimDuration());
+            return afterId == FROM_START ?
+                    deferredMessageRepository.claimMessagesReadyToBeSent(relayId, claimedUntil, numMessages, openCircuits) :
+                    deferredMessageRepository.claimMessagesReadyToBeSent(relayId, claimedUntil, numMessages, afterId, openCircuits);
+        }
+        return afterId == FROM_START ?
+                deferredMessageRepository.findMessagesReadyToBeSent(numMessages, openCircuits) :
+                deferredMessageRepository.findMessagesReadyToBeSent(numMessages, afterId, openCircuits);
+    }
 
+    /**
+     * @return <code>true</code> if every message of the batch has either been sent or marked as failed.
+     */
+    private boolean sendMessages(List<DeferredMessage> messages) {
         log.debug("Starting to send {} deferred messages.", messages.size());
-        for (DeferredMessage message : messages) {
-            sendMessage(message);
-        }
+        List<DeferredMessageSendResult> results = messageRelayLanes.isParallel() ?
+                messageRelayLanes.send(messages, this::sendLaneMessages) :
+                sendLaneMessages(messages);
+        recordSendResults(results);
         log.debug("Ending sending deferred messages.");
+        return results.size() == messages.size() && results.stream().noneMatch(MessageRelay::isGeneralFailure);
     }
 
-    private void sendMessage(DeferredMessage message) {
+    private List<DeferredMessageSendResult> sendLaneMessages(List<DeferredMessage> messages) {
+        if (config.isMessageRelayTransactionsEnabled()) {
+            // The messages are marked as sent after the Kafka transaction per cluster has been committed
+            return sendMessagesPipelined(messages, DeferredMessageSender::sendAllAsScheduledInTransaction);
+        }
+        return config.isMessageRelayPipeliningEnabled() ?
+                sendMessagesPipelined(messages, DeferredMessageSender::sendAllAsScheduled) :
+                sendMessagesSequentially(messages);
+    }
+
+    private List<DeferredMessageSendResult> sendMessagesSequentially(List<DeferredMessage> messages) {
+        List<DeferredMessageSendResult> results = new ArrayList<>(messages.size());
+        Set<ClusterTopic> failedClusterTopics = new HashSet<>();
+        final long claimRenewalIntervalNanos = config.isMessageRelayClaimingEnabled() ?
+                config.getMessageRelayClaimDuration().toNanos() / 2 : Long.MAX_VALUE;
+        long claimRenewedNanos = System.nanoTime();
+        for (int i = 0; i < messages.size(); i++) {
+            DeferredMessage message = messages.get(i);
+            if (System.nanoTime() - claimRenewedNanos > claimRenewalIntervalNanos) {
+                // The claim duration is capped, sending a large batch one message after the other can take longer
+                if (!renewClaims(messages.subList(i, messages.size()))) {
+                    break;
+                }
+                claimRenewedNanos = System.nanoTime();
+            }
+            if (failedClusterTopics.contains(ClusterTopic.of(message)) || !sendCircuitBreaker.tryAcquirePermission(message)) {
+                continue;
+            }
+            DeferredMessageSendResult result = sendMessage(message);
+            results.add(result);
+            if (isGeneralFailure(result)) {
+                if (!isContinuingAfterGeneralFailure()) {
+                    // Do not send the remaining messages in order to not send them before this one
+                    break;
+                }
+                // Do not send the remaining messages of the cluster and topic in order to not send them before this one
+                failedClusterTopics.add(ClusterTopic.of(message));
+            }
+        }
+        return results;
+    }
+
+    private DeferredMessageSendResult sendMessage(DeferredMessage message) {
         try {
             DeferredMessageSender deferredMessageSender = deferredMessageSenderProvider.getDeferredMessageSenderForCluster(message);
             deferredMessageSender.sendAsScheduled(message);
-            deferredMessageRepository.markSentScheduled(message.getId(), ZonedDateTime.now());
+            return DeferredMessageSendResult.success(message);
         } catch (DeferredMessageSendException e) {
-            exceptionHandler.handle(message, e);
+            return DeferredMessageSendResult.failure(message, e);
+        } catch (RuntimeException e) {
+            return DeferredMessageSendResult.failure(message, DeferredMessageSendException.generalSendException(message, e));
+        }
+    }
+
+    private List<DeferredMessageSendResult> sendMessagesPipelined(List<DeferredMessage> messages,
+                                                                  BiFunction<DeferredMessageSender, List<DeferredMessage>, List<DeferredMessageSendResult>> sendAll) {
+        // The messages of a batch can be destined to different clusters, each with its own sender.
+        Map<DeferredMessageSender, List<DeferredMessage>> messagesBySender = new LinkedHashMap<>();
+        for (DeferredMessage message : messages) {
+            if (!sendCircuitBreaker.tryAcquirePermission(message)) {
+                continue;
+            }
+            DeferredMessageSender deferredMessageSender = deferredMessageSenderProvider.getDeferredMessageSenderForCluster(message);
+            messagesBySender.computeIfAbsent(deferredMessageSender, _ -> new ArrayList<>()).add(message);
+        }
+
+        List<DeferredMessageSendResult> results = new ArrayList<>(messages.size());
+        messagesBySender.forEach((deferredMessageSender, senderMessages) ->
+                results.addAll(withoutSuccessesAfterGeneralFailure(sendAll.apply(deferredMessageSender, senderMessages))));
+        return results;
+    }
+
+    /**
+     * A message acknowledged after an earlier message with the same topic and key failed for a general reason is left
+     * pending, i.e. it is sent again after the earlier message and therefore ends up being delivered after it.
+     */
+    private static List<DeferredMessageSendResult> withoutSuccessesAfterGeneralFailure(List<DeferredMessageSendResult> results) {
+        Set<TopicKey> failedTopicKeys = new HashSet<>();
+        List<DeferredMessageSendResult> keptResults = new ArrayList<>(results.size());
+        for (DeferredMessageSendResult result : results) {
+            DeferredMessage message = result.getDeferredMessage();
+            if (message.getKey() == null) {
+                // Messages without a key are not ordered
+                keptResults.add(result);
+            } else if (isGeneralFailure(result)) {
+                failedTopicKeys.add(TopicKey.of(message));
+                keptResults.add(result);
+            } else if (!failedTopicKeys.contains(TopicKey.of(message))) {
+                keptResults.add(result);
+            } else {
+                log.debug("Leaving {} pending to be sent again after an earlier message with the same key failed.",
+                        DeferredMessageLogArgument.from(message));
+            }
         }
+        return keptResults;
+    }
+
+    private record TopicKey(String topic, ByteBuffer key) {
+
+        static TopicKey of(DeferredMessage message) {
+            return new TopicKey(message.getTopic(), ByteBuffer.wrap(message.getKey()));
+        }
+    }
+
+    private boolean isRenewingClaimsBeforeSending() {
+        // Without prefetching, a batch is sent right after it has been claimed
+        return config.isMessageRelayClaimingEnabled() && config.getMessageRelayPrefetchDepth() > 0;
+    }
+
+    /**
+     * @return <code>true</code> if this relay still holds the claims of all given messages.
+     */
+    private boolean renewClaims(List<DeferredMessage> messages) {
+        List<Long> ids = messages.stream().map(DeferredMessage::getId).toList();
+        ZonedDateTime claimedUntil = ZonedDateTime.now().plus(config.getMessageRelayClaimDuration());
+        int numRenewed = deferredMessageRepository.renewClaims(relayId, ids, claimedUntil);
+        if (numRenewed < ids.size()) {
+            log.warn("{} of {} messages claimed by this relay have been claimed by another relay after the claim expired.",
+                    ids.size() - numRenewed, ids.size());
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isContinuingAfterGeneralFailure() {
+        return config.isMessageRelayRetryEnabled() || config.isSendCircuitBreakerEnabled();
+    }
+
+    private void recordSent(List<Long> sentMessageIds) {
+        final SentMessageRetentionMode retentionMode = config.getSentMessageRetentionMode();
+        if (retentionMode == SentMessageRetentionMode.DELETE) {
+            deferredMessageRepository.deleteSentMessages(sentMessageIds);
+        } else if (retentionMode == SentMessageRetentionMode.ARCHIVE) {
+            deferredMessageRepository.archiveSentMessages(sentMessageIds, ZonedDateTime.now(), false);
+        } else {
+            deferredMessageRepository.markSentScheduled(sentMessageIds, ZonedDateTime.now());
+        }
+    }
+
+    private static boolean isGeneralFailure(DeferredMessageSendResult result) {
+        return !result.isSuccess() && !result.getFailure().getReason().causedByMessage;
+    }
+
+    private void recordSendResults(List<DeferredMessageSendResult> results) {
+        List<Long> sentMessageIds = results.stream()
+                .filter(DeferredMessageSendResult::isSuccess)
+                .map(result -> result.getDeferredMessage().getId())
+                .toList();
+        if (!sentMessageIds.isEmpty()) {
+            recordSent(sentMessageIds);
+        }
+
+        DeferredMessageSendException generalFailure = null;
+        Map<DeferredMessage, DeferredMessageSendException> messageFailures = new LinkedHashMap<>();
+        for (DeferredMessageSendResult result : results) {
+            DeferredMessage message = result.getDeferredMessage();
+            if (result.isSuccess()) {
+                sendCircuitBreaker.recordSuccess(message);
+                continue;
+            }
+            if (!isGeneralFailure(result)) {
+                messageFailures.put(message, result.getFailure());
+                continue;
+            }
+            sendCircuitBreaker.recordFailure(message);
+            // An aborted transaction does not implicate its messages, they are sent again without backing off
+            if (config.isMessageRelayRetryEnabled() && result.getFailure().getReason() != SendFailureReason.TRANSACTION_ABORTED) {
+                scheduleNextAttempt(message, result.getFailure());
+            }
+            if (generalFailure == null) {
+                generalFailure = result.getFailure();
+            }
+        }
+        if (!messageFailures.isEmpty()) {
+            exceptionHandler.handleAll(messageFailures);
+        }
+        // Abort relaying, but only after having recorded the outcome of every message sent. When retrying or isolating
+        // failing clusters and topics, keep relaying the other messages as long as some messages can be sent.
+        if (generalFailure != null && (!isContinuingAfterGeneralFailure() || sentMessageIds.isEmpty())) {
+            throw generalFailure;
+        }
+    }
+
+    private void scheduleNextAttempt(DeferredMessage message, DeferredMessageSendException failure) {
+        final int attempts = message.getAttempts() + 1;
+        final Duration delay = retryBackoff.getDelay(attempts);
+        log.warn("Sending {} failed on attempt {}, retrying in {}: {}", DeferredMessageLogArgument.from(message), attempts, delay, failure.getMessage());
+        deferredMessageRepository.scheduleNextAttempt(message.getId(), attempts, ZonedDateTime.now().plus(delay));
     }
 }
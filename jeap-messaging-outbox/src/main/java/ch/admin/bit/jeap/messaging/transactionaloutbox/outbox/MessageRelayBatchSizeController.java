@@ -0,0 +1,72 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Controls the number of messages the message relay fetches per batch. If adaptive batch sizing is enabled, the batch
+ * size is adapted additive increase / multiplicative decrease (AIMD) style within the configured bounds: it grows by the
+ * minimum batch size after every full batch sent within the target batch duration, and it is halved after a batch
+ * that took longer than the target duration or could not be sent completely (e.g. because of a timeout). Otherwise the
+ * batch size is the fixed configured batch size.
+ */
+@Slf4j
+@Component
+@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+class MessageRelayBatchSizeController {
+
+    private final boolean adaptive;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final Duration targetBatchDuration;
+    private volatile int batchSize;
+
+    MessageRelayBatchSizeController(TransactionalOutboxConfiguration config, Optional<OutboxMetrics> outboxMetrics) {
+        this.adaptive = config.isMessageRelayAdaptiveBatchSizeEnabled();
+        this.maxBatchSize = config.getMessageRelayBatchSizeLimit();
+        this.minBatchSize = adaptive ? Math.clamp(config.getMessageRelayMinBatchSize(), 1, maxBatchSize) : maxBatchSize;
+        this.targetBatchDuration = config.getMessageRelayTargetBatchDuration();
+        this.batchSize = Math.clamp(config.getMessageRelayBatchSize(), minBatchSize, maxBatchSize);
+        outboxMetrics.ifPresent(metrics -> metrics.monitorRelayBatchSize(this::getBatchSize));
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Adapt the batch size to a batch of messages that has been sent.
+     *
+     * @param numMessages The number of messages of the batch.
+     * @param duration    The time it took to send the batch and record the outcome of its messages.
+     */
+    void batchSent(int numMessages, Duration duration) {
+        if (!adaptive) {
+            return;
+        }
+        if (duration.compareTo(targetBatchDuration) > 0) {
+            decrease();
+        } else if (numMessages >= batchSize) {
+            // Only a full batch indicates that more messages are waiting to be sent.
+            batchSize = Math.min(maxBatchSize, batchSize + minBatchSize);
+        }
+    }
+
+    /**
+     * Adapt the batch size to a batch of messages that could not be sent completely.
+     */
+    void batchFailed() {
+        if (adaptive) {
+            decrease();
+        }
+    }
+
+    private void decrease() {
+        batchSize = Math.max(minBatchSize, batchSize / 2);
+        log.debug("Decreased message relay batch size to {}.", batchSize);
+    }
+
+}
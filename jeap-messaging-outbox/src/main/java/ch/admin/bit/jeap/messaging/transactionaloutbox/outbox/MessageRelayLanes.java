@@ -0,0 +1,113 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Distributes the messages of a relay batch to a configured number of lanes that send their messages in parallel. All
+ * messages with the same topic and key are assigned to the same lane and are sent in the order of the batch, i.e. the
+ * order of the messages per key is kept while messages with different keys or topics are sent concurrently.
+ */
+@Slf4j
+@Component
+@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+class MessageRelayLanes {
+
+    private final int numLanes;
+    private final ExecutorService executorService;
+    private final Optional<OutboxMetrics> outboxMetrics;
+
+    MessageRelayLanes(TransactionalOutboxConfiguration config, Optional<OutboxMetrics> outboxMetrics) {
+        this.numLanes = Math.max(1, config.getMessageRelayWorkerCount());
+        this.outboxMetrics = outboxMetrics;
+        this.executorService = numLanes > 1 ?
+                Executors.newFixedThreadPool(numLanes, new OutboxThreadFactory(config, "outbox-relay-lane-")) :
+                null;
+    }
+
+    boolean isParallel() {
+        return numLanes > 1;
+    }
+
+    /**
+     * Send the given messages in parallel lanes using the given lane sender.
+     *
+     * @param messages   The messages to send.
+     * @param laneSender Sends the messages of one lane in the given order. Is expected to not send the remaining messages
+     *                   of a lane (of the message's cluster and topic if retrying or the circuit breaker is enabled) after a message failed for a reason not
+     *                   caused by the message itself.
+     * @return The results of all messages sent by the lanes.
+     */
+    List<DeferredMessageSendResult> send(List<DeferredMessage> messages, Function<List<DeferredMessage>, List<DeferredMessageSendResult>> laneSender) {
+        List<List<DeferredMessage>> messagesByLane = assignToLanes(messages);
+
+        List<Future<List<DeferredMessageSendResult>>> laneResults = new ArrayList<>(numLanes);
+        for (int lane = 0; lane < numLanes; lane++) {
+            final int laneIndex = lane;
+            List<DeferredMessage> laneMessages = messagesByLane.get(lane);
+            laneResults.add(laneMessages.isEmpty() ? null :
+                    executorService.submit(() -> sendLaneMessages(laneIndex, laneMessages, laneSender)));
+        }
+
+        List<DeferredMessageSendResult> results = new ArrayList<>(messages.size());
+        for (int lane = 0; lane < numLanes; lane++) {
+            if (laneResults.get(lane) != null) {
+                results.addAll(awaitLaneResults(lane, laneResults.get(lane)));
+            }
+        }
+        return results;
+    }
+
+    private List<List<DeferredMessage>> assignToLanes(List<DeferredMessage> messages) {
+        List<List<DeferredMessage>> messagesByLane = new ArrayList<>(numLanes);
+        for (int lane = 0; lane < numLanes; lane++) {
+            messagesByLane.add(new ArrayList<>());
+        }
+        messages.forEach(message -> messagesByLane.get(getLane(message)).add(message));
+        return messagesByLane;
+    }
+
+    int getLane(DeferredMessage message) {
+        return DeferredMessage.getLane(message, numLanes);
+    }
+
+    private List<DeferredMessageSendResult> sendLaneMessages(int lane, List<DeferredMessage> laneMessages,
+                                                             Function<List<DeferredMessage>, List<DeferredMessageSendResult>> laneSender) {
+        log.debug("Sending {} deferred messages in relay lane {}.", laneMessages.size(), lane);
+        final long startNanos = System.nanoTime();
+        List<DeferredMessageSendResult> results = laneSender.apply(laneMessages);
+        final Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        outboxMetrics.ifPresent(metrics -> metrics.recordRelayLaneSend(lane, results.size(), duration));
+        return results;
+    }
+
+    private List<DeferredMessageSendResult> awaitLaneResults(int lane, Future<List<DeferredMessageSendResult>> laneResult) {
+        try {
+            return laneResult.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw TransactionalOutboxException.relayLaneFailed(lane, e);
+        } catch (ExecutionException e) {
+            throw TransactionalOutboxException.relayLaneFailed(lane, e.getCause());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+}
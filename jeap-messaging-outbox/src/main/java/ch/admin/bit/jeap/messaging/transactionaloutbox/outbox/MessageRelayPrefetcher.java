@@ -0,0 +1,171 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.RELAY_STAGE_AWAIT_FETCH;
+import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.RELAY_STAGE_FETCH;
+
+/**
+ * Fetches the next batches of messages to relay on a dedicated thread while the message relay is still sending the
+ * current batch (see {@link TransactionalOutboxConfiguration#getMessageRelayPrefetchDepth()}). Every prefetched batch
+ * only contains messages with a higher id than the batches fetched before it, i.e. no message still being sent is
+ * fetched again. With a prefetch depth of 0 the batches are fetched on the relaying thread when they are needed.
+ */
+@Slf4j
+@Component
+@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+class MessageRelayPrefetcher {
+
+    /**
+     * Fetches a batch of messages ready to be sent.
+     */
+    interface BatchFetcher {
+
+        /**
+         * @param afterId Only fetch messages with a higher id, {@link #FROM_START} to fetch from the first message ready to be sent.
+         */
+        List<DeferredMessage> fetch(long afterId);
+    }
+
+    static final long FROM_START = Long.MIN_VALUE;
+
+    private final int depth;
+    private final ExecutorService executorService;
+    private final Optional<OutboxMetrics> outboxMetrics;
+
+    MessageRelayPrefetcher(TransactionalOutboxConfiguration config, Optional<OutboxMetrics> outboxMetrics) {
+        this.depth = Math.max(0, config.getMessageRelayPrefetchDepth());
+        this.outboxMetrics = outboxMetrics;
+        this.executorService = depth > 0 ?
+                Executors.newSingleThreadExecutor(new OutboxThreadFactory(config, "outbox-relay-prefetch-")) :
+                null;
+    }
+
+    /**
+     * Start fetching the batches of one run of the message relay. The batches must be closed at the end of the run in
+     * order to drop the batches prefetched but not needed anymore.
+     */
+    Batches start(BatchFetcher batchFetcher) {
+        return new Batches(batchFetcher);
+    }
+
+    private record PrefetchedBatch(long afterId, List<DeferredMessage> messages) {
+    }
+
+    /**
+     * The batches fetched during one run of the message relay. Not thread-safe, must be used by the relaying thread only.
+     */
+    class Batches implements AutoCloseable {
+
+        private final BatchFetcher batchFetcher;
+        private final Deque<Future<PrefetchedBatch>> prefetchedBatches = new ArrayDeque<>();
+        // Id of the last message fetched by the current chain of prefetched batches, only updated on the prefetch thread
+        private AtomicLong lastFetchedId = new AtomicLong(FROM_START);
+
+        private Batches(BatchFetcher batchFetcher) {
+            this.batchFetcher = batchFetcher;
+        }
+
+        /**
+         * @return The next batch of messages to send, empty if there are no more messages ready to be sent. The batches
+         * following it are being prefetched while it is sent.
+         */
+        List<DeferredMessage> next() {
+            if (depth == 0) {
+                return timed(RELAY_STAGE_FETCH, () -> batchFetcher.fetch(FROM_START));
+            }
+            if (prefetchedBatches.isEmpty()) {
+                prefetch();
+            }
+            PrefetchedBatch batch = await(prefetchedBatches.removeFirst());
+            if (batch.messages().isEmpty() && batch.afterId() != FROM_START) {
+                // Messages with a lower id might have become ready to be sent in the meantime, e.g. after a relay
+                // delay or backoff elapsed, or their transaction has been committed after a transaction with a higher id.
+                restart();
+                prefetch();
+                batch = await(prefetchedBatches.removeFirst());
+            }
+            if (!batch.messages().isEmpty()) {
+                while (prefetchedBatches.size() < depth) {
+                    prefetch();
+                }
+            }
+            return batch.messages();
+        }
+
+        /**
+         * Drop the prefetched batches and fetch the next batch from the first message ready to be sent, e.g. because not
+         * all messages of the current batch have been sent and must be sent before the prefetched messages.
+         */
+        void restart() {
+            prefetchedBatches.forEach(prefetchedBatch -> prefetchedBatch.cancel(false));
+            prefetchedBatches.clear();
+            lastFetchedId = new AtomicLong(FROM_START);
+        }
+
+        @Override
+        public void close() {
+            restart();
+        }
+
+        private void prefetch() {
+            final AtomicLong chainLastFetchedId = lastFetchedId;
+            prefetchedBatches.addLast(executorService.submit(() -> {
+                // Prefetches are executed one after the other, each one continuing after the batch fetched before it.
+                final long afterId = chainLastFetchedId.get();
+                List<DeferredMessage> messages = timed(RELAY_STAGE_FETCH, () -> batchFetcher.fetch(afterId));
+                if (!messages.isEmpty()) {
+                    chainLastFetchedId.set(messages.getLast().getId());
+                }
+                log.debug("Prefetched {} deferred messages after id {}.", messages.size(), afterId);
+                return new PrefetchedBatch(afterId, messages);
+            }));
+        }
+
+        private PrefetchedBatch await(Future<PrefetchedBatch> prefetchedBatch) {
+            return timed(RELAY_STAGE_AWAIT_FETCH, () -> {
+                try {
+                    return prefetchedBatch.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw TransactionalOutboxException.relayPrefetchFailed(e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException runtimeException) {
+                        throw runtimeException;
+                    }
+                    throw TransactionalOutboxException.relayPrefetchFailed(e.getCause());
+                }
+            });
+        }
+    }
+
+    private <T> T timed(String stage, Supplier<T> supplier) {
+        final long startNanos = System.nanoTime();
+        T result = supplier.get();
+        final Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        outboxMetrics.ifPresent(metrics -> metrics.recordRelayStage(stage, duration));
+        return result;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes the delay before the next attempt to send a message that failed for a reason not caused by the message: the
+ * initial delay doubled with every further attempt up to the maximum delay. Half of the delay is random (equal jitter),
+ * which spreads the next attempts of messages that failed at the same time, e.g. because the broker was unavailable.
+ */
+@Component
+class MessageRelayRetryBackoff {
+
+    // 2^20 times the initial delay exceeds any sensible maximum delay
+    private static final int MAX_DOUBLINGS = 20;
+
+    private final Duration initialDelay;
+    private final Duration maxDelay;
+
+    MessageRelayRetryBackoff(TransactionalOutboxConfiguration config) {
+        this.initialDelay = config.getMessageRelayRetryInitialDelay();
+        this.maxDelay = config.getMessageRelayRetryMaxDelay();
+    }
+
+    /**
+     * @param attempts The number of failed attempts so far, at least 1.
+     * @return The delay before the next attempt.
+     */
+    Duration getDelay(int attempts) {
+        Duration delay = initialDelay.multipliedBy(1L << Math.clamp(attempts - 1, 0, MAX_DOUBLINGS));
+        if (delay.compareTo(maxDelay) > 0) {
+            delay = maxDelay;
+        }
+        long halfDelayMillis = delay.toMillis() / 2;
+        return Duration.ofMillis(halfDelayMillis + ThreadLocalRandom.current().nextLong(halfDelayMillis + 1));
+    }
+
+}
@@ -0,0 +1,29 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import java.time.Duration;
+
+/**
+ * Wakes up the message relay when messages may have become ready to be sent, allowing the relay to wait for new work
+ * instead of polling the outbox with a fixed delay (see {@link TransactionalOutboxConfiguration#isMessageRelayWakeUpEnabled()}).
+ * The outbox provides an in-JVM implementation ({@link InJvmMessageRelayWakeUpSignal}) that only wakes up the relay of the
+ * outbox instance that put the messages into the outbox. Provide a bean of this type to replace it, e.g. with an
+ * implementation based on database notifications that wakes up the relays of all outbox instances.
+ */
+public interface MessageRelayWakeUpSignal {
+
+    /**
+     * Signal that messages may have become ready to be sent. Must not block the caller.
+     */
+    void signal();
+
+    /**
+     * Wait until a signal is received or the given timeout has elapsed. A signal received since the last wait ended
+     * ends the wait immediately.
+     *
+     * @param timeout Maximum duration to wait for a signal.
+     * @return <code>true</code> if a signal has been received, <code>false</code> if the timeout has elapsed.
+     * @throws InterruptedException if the waiting thread has been interrupted.
+     */
+    boolean await(Duration timeout) throws InterruptedException;
+
+}
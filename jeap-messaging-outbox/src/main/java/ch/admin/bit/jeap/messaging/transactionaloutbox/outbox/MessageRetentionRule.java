@@ -0,0 +1,33 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * Retention durations of the messages sent to a topic, optionally only of the messages of a message type sent to the
+ * topic (see {@link TransactionalOutboxConfiguration#getMessageRetentionRules()}). A duration not set falls back to
+ * the duration of the rule for the whole topic if there is one, and to the default retention duration otherwise.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessageRetentionRule {
+
+    /**
+     * The topic the rule applies to, required.
+     */
+    private String topic;
+
+    /**
+     * The message type the rule applies to, <code>null</code> if the rule applies to all messages sent to the topic.
+     */
+    private String messageType;
+
+    private Duration sentMessageRetentionDuration;
+
+    private Duration unsentMessageRetentionDuration;
+
+}
@@ -4,11 +4,13 @@ import ch.admin.bit.jeap.messaging.kafka.properties.KafkaProperties;
 import ch.admin.bit.jeap.messaging.transactionaloutbox.spring.DeferredMessageSenderProvider;
 import ch.admin.bit.jeap.messaging.transactionaloutbox.spring.OutboxBeanRegistrar;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Import;
 
+import java.time.Clock;
 import java.util.Map;
 
 @EnableConfigurationProperties
@@ -25,4 +27,15 @@ public class OutboxConfig {
         String defaultProducerClusterName = kafkaProperties.getDefaultProducerClusterName();
         return new DeferredMessageSenderProvider(defaultClusterName, defaultProducerClusterName, deferredMessageSendersByBeanName);
     }
+
+    @Bean
+    SendCircuitBreaker sendCircuitBreaker(TransactionalOutboxConfiguration config) {
+        return new SendCircuitBreaker(config, Clock.systemUTC());
+    }
+
+    @ConditionalOnMissingBean
+    @Bean
+    MessageRelayWakeUpSignal messageRelayWakeUpSignal() {
+        return new InJvmMessageRelayWakeUpSignal();
+    }
 }
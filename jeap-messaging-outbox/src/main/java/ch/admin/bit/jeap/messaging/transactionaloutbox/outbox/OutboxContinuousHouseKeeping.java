@@ -0,0 +1,145 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.HOUSE_KEEPING_KIND_SENT;
+import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.HOUSE_KEEPING_KIND_UNSENT;
+
+/**
+ * Deletes the old messages continuously in small slices (see
+ * {@link TransactionalOutboxConfiguration#isHouseKeepingContinuousEnabled()}). Every kind of old messages is deleted by
+ * walking through the ids in ascending order, each slice continuing where the previous slice stopped. A slice deletes
+ * id ranges until it has deleted its budget of messages or has caught up with the messages that are not old enough yet.
+ * The walk only moves forward, i.e. the messages passed before they became deletable (e.g. failed messages sent later
+ * on) are left to the run scheduled by {@link TransactionalOutboxConfiguration#getHouseKeepingSchedule()}. With
+ * retention rules (see {@link TransactionalOutboxConfiguration#getMessageRetentionRules()}), every retention policy has
+ * its own walks.
+ */
+@Slf4j
+@Component
+@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+public class OutboxContinuousHouseKeeping {
+
+    private final DeferredMessageRepository deferredMessageRepository;
+    private final TransactionalOutboxConfiguration config;
+    private final TransactionTemplate transactionTemplate;
+    private final Optional<OutboxMetrics> outboxMetrics;
+    private final List<IdRangeWalk> sentWalks;
+    private final List<IdRangeWalk> unsentWalks;
+
+    public OutboxContinuousHouseKeeping(DeferredMessageRepository deferredMessageRepository, TransactionalOutboxConfiguration config,
+                                        TransactionTemplate transactionTemplate, Optional<OutboxMetrics> outboxMetrics) {
+        this.deferredMessageRepository = deferredMessageRepository;
+        this.config = config;
+        this.transactionTemplate = transactionTemplate;
+        this.outboxMetrics = outboxMetrics;
+        List<RetentionPolicy> retentionPolicies = RetentionPolicy.of(config);
+        this.sentWalks = retentionPolicies.stream()
+                .map(policy -> new IdRangeWalk(HOUSE_KEEPING_KIND_SENT, policy.scope(), policy.sentMessageRetentionDuration()))
+                .toList();
+        this.unsentWalks = retentionPolicies.stream()
+                .map(policy -> new IdRangeWalk(HOUSE_KEEPING_KIND_UNSENT, policy.scope(), policy.unsentMessageRetentionDuration()))
+                .toList();
+        if (config.isHouseKeepingContinuousEnabled()) {
+            outboxMetrics.ifPresent(metrics -> {
+                metrics.monitorHouseKeepingBacklog(HOUSE_KEEPING_KIND_SENT, () -> getBacklogIds(sentWalks));
+                metrics.monitorHouseKeepingBacklog(HOUSE_KEEPING_KIND_UNSENT, () -> getBacklogIds(unsentWalks));
+            });
+        }
+    }
+
+    public void deleteOldMessagesSlice() {
+        final ZonedDateTime now = ZonedDateTime.now();
+        long budget = getSliceBudget();
+        if (!config.isHouseKeepingPartitioningEnabled()) {
+            // Otherwise the sent messages are removed by dropping their partitions, see OutboxPartitionHouseKeeping
+            for (IdRangeWalk sentWalk : sentWalks) {
+                final ZonedDateTime sentBefore = now.minus(sentWalk.retentionDuration);
+                final RetentionScope scope = sentWalk.scope;
+                budget -= sentWalk.deleteSlice(sentBefore, budget, (fromId, toId) -> scope.isAll() ?
+                        deferredMessageRepository.deleteMessagesSentBeforeInIdRange(fromId, toId, sentBefore) :
+                        deferredMessageRepository.deleteMessagesSentBeforeInIdRange(fromId, toId, sentBefore, scope));
+            }
+        }
+        for (IdRangeWalk unsentWalk : unsentWalks) {
+            final ZonedDateTime unsentBefore = now.minus(unsentWalk.retentionDuration);
+            final RetentionScope scope = unsentWalk.scope;
+            budget -= unsentWalk.deleteSlice(unsentBefore, budget, (fromId, toId) -> scope.isAll() ?
+                    deferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(fromId, toId, unsentBefore) :
+                    deferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(fromId, toId, unsentBefore, scope));
+        }
+    }
+
+    long getSliceBudget() {
+        return Math.max(1, config.getHouseKeepingContinuousMaxDeletesPerSecond() * config.getHouseKeepingContinuousInterval().toMillis() / 1000);
+    }
+
+    private static long getBacklogIds(List<IdRangeWalk> walks) {
+        return walks.stream().mapToLong(walk -> walk.backlogIds).sum();
+    }
+
+    /**
+     * The walk through the ids of one kind of old messages in a retention scope.
+     */
+    private class IdRangeWalk {
+
+        private final String kind;
+        private final RetentionScope scope;
+        private final Duration retentionDuration;
+        private long nextId = Long.MIN_VALUE;
+        private long chunkSize;
+        private volatile long backlogIds;
+
+        private IdRangeWalk(String kind, RetentionScope scope, Duration retentionDuration) {
+            this.kind = kind;
+            this.scope = scope;
+            this.retentionDuration = retentionDuration;
+            this.chunkSize = Math.max(1, config.getHouseKeepingPageSize());
+        }
+
+        /**
+         * @return The number of messages deleted, at most the given budget as an id range never contains more messages
+         * than ids.
+         */
+        private int deleteSlice(ZonedDateTime createdBefore, long budget, OutboxHouseKeeping.IdRangeDelete idRangeDelete) {
+            Optional<Long> minId = deferredMessageRepository.findMinId();
+            Optional<Long> lastId = deferredMessageRepository.findIdOfLastMessageCreatedBefore(createdBefore);
+            if (minId.isEmpty() || lastId.isEmpty()) {
+                backlogIds = 0;
+                return 0;
+            }
+            // Skip the ids deleted in the meantime, e.g. by the scheduled run
+            nextId = Math.max(nextId, minId.get());
+            final long endId = lastId.get() + 1;
+            int numDeleted = 0;
+            int numRanges = 0;
+            while (nextId < endId && numDeleted < budget && numRanges < config.getHouseKeepingMaxPages()) {
+                final long fromId = nextId;
+                final long toId = Math.min(endId, fromId + Math.min(chunkSize, budget - numDeleted));
+                final long startNanos = System.nanoTime();
+                Integer numRangeDeleted = transactionTemplate.execute(_ -> idRangeDelete.delete(fromId, toId));
+                final Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+                numDeleted += Objects.requireNonNullElse(numRangeDeleted, 0);
+                chunkSize = OutboxHouseKeeping.adaptChunkSize(config, chunkSize, duration);
+                nextId = toId;
+                numRanges++;
+            }
+            backlogIds = Math.max(0, endId - nextId);
+            if (numDeleted > 0) {
+                final int numDeletedInSlice = numDeleted;
+                outboxMetrics.ifPresent(metrics -> metrics.countHouseKeepingDeleted(kind, numDeletedInSlice));
+            }
+            log.debug("Housekeeping: deleted {} {} messages {} in {} id ranges up to id {}, {} ids behind", numDeleted, kind, scope, numRanges, nextId, backlogIds);
+            return numDeleted;
+        }
+    }
+
+}
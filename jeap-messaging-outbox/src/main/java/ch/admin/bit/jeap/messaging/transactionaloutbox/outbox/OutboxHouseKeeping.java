@@ -6,7 +6,11 @@ import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Supplier;
 
@@ -29,23 +33,123 @@ public class OutboxHouseKeeping {
     public void deleteOldMessages() {
         log.info("Housekeeping: deleting old messages with page size {} and max pages {}", config.getHouseKeepingPageSize(), config.getHouseKeepingMaxPages());
         ZonedDateTime now = ZonedDateTime.now();
-        deleteMessagesSentBefore(now.minus(config.getSentMessageRetentionDuration()));
-        deleteUnsentMessagesCreatedBefore(now.minus(config.getUnsentMessageRetentionDuration()));
+        List<RetentionPolicy> retentionPolicies = RetentionPolicy.of(config);
+        if (!config.isHouseKeepingPartitioningEnabled()) {
+            retentionPolicies.forEach(policy ->
+                    deleteMessagesSentBefore(now.minus(policy.sentMessageRetentionDuration()), policy.scope()));
+        } else {
+            // The sent messages are removed by dropping their partitions (see OutboxPartitionHouseKeeping), apart from
+            // the messages kept in the default partition when their partition was dropped and sent later on
+            deleteMessagesSentBeforeInDefaultPartition(now.minus(config.getSentMessageRetentionDuration()));
+        }
+        if (config.getSentMessageRetentionMode() == SentMessageRetentionMode.ARCHIVE) {
+            deleteArchivedMessagesSentBefore(now.minus(config.getSentMessageRetentionDuration()));
+        }
+        retentionPolicies.forEach(policy ->
+                deleteUnsentMessagesCreatedBefore(now.minus(policy.unsentMessageRetentionDuration()), policy.scope()));
         log.info("Housekeeping: deleted sent messages and unsent messages done");
     }
 
-    private void deleteMessagesSentBefore(ZonedDateTime olderThan) {
-        log.info("Housekeeping: deleting messages sent before {}", olderThan);
-        executeInTransactionPerPage(() -> deleteMessagesSentBeforeInPage(olderThan));
+    private void deleteMessagesSentBefore(ZonedDateTime olderThan, RetentionScope scope) {
+        log.info("Housekeeping: deleting messages {} sent before {}", scope, olderThan);
+        if (config.isHouseKeepingIdRangeDeletesEnabled()) {
+            // A message sent before the given time has also been created before it
+            deleteInIdRanges("sent", olderThan, (fromId, toId) -> scope.isAll() ?
+                    deferredMessageRepository.deleteMessagesSentBeforeInIdRange(fromId, toId, olderThan) :
+                    deferredMessageRepository.deleteMessagesSentBeforeInIdRange(fromId, toId, olderThan, scope));
+        } else {
+            executeInTransactionPerPage(() -> deleteMessagesSentBeforeInPage(olderThan, scope));
+        }
+    }
+
+    private void deleteMessagesSentBeforeInDefaultPartition(ZonedDateTime olderThan) {
+        log.info("Housekeeping: deleting messages in the default partition sent before {}", olderThan);
+        final int pageSize = config.getHouseKeepingPageSize();
+        executeInTransactionPerPage(() -> {
+            int numDeleted = deferredMessageRepository.deleteMessagesSentBeforeInDefaultPartition(olderThan, pageSize);
+            log.info("Housekeeping: deleted {} sent messages in the default partition", numDeleted);
+            return numDeleted == pageSize;
+        });
+    }
+
+    private void deleteArchivedMessagesSentBefore(ZonedDateTime olderThan) {
+        log.info("Housekeeping: deleting archived messages sent before {}", olderThan);
+        final int pageSize = config.getHouseKeepingPageSize();
+        executeInTransactionPerPage(() -> {
+            int numDeleted = deferredMessageRepository.deleteArchivedMessagesSentBefore(olderThan, pageSize);
+            log.info("Housekeeping: deleted {} archived messages", numDeleted);
+            return numDeleted == pageSize;
+        });
+    }
+
+    private void deleteUnsentMessagesCreatedBefore(ZonedDateTime olderThan, RetentionScope scope) {
+        log.info("Housekeeping: deleting unsent messages {} created before {}", scope, olderThan);
+        if (config.isHouseKeepingIdRangeDeletesEnabled()) {
+            deleteInIdRanges("unsent", olderThan, (fromId, toId) -> scope.isAll() ?
+                    deferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(fromId, toId, olderThan) :
+                    deferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(fromId, toId, olderThan, scope));
+        } else {
+            executeInTransactionPerPage(() -> deleteUnsentMessagesCreatedBeforeInPage(olderThan, scope));
+        }
     }
 
-    private void deleteUnsentMessagesCreatedBefore(ZonedDateTime olderThan) {
-        log.info("Housekeeping: deleting unsent messages created before {}", olderThan);
-        executeInTransactionPerPage(() -> deleteUnsentMessagesCreatedBeforeInPage(olderThan));
+    /**
+     * Deletes the messages in an id range, returning the number of messages deleted.
+     */
+    @FunctionalInterface
+    interface IdRangeDelete {
+        int delete(long fromId, long toId);
+    }
+
+    /**
+     * Ids are allocated in ascending order, i.e. the messages created before the given time are found from the lowest id
+     * up to about the id of the last message created before that time. Each id range is deleted in its own transaction
+     * without loading the ids first, and the width of the ranges is adapted to the target duration per transaction.
+     */
+    private void deleteInIdRanges(String kind, ZonedDateTime createdBefore, IdRangeDelete idRangeDelete) {
+        Optional<Long> minId = deferredMessageRepository.findMinId();
+        Optional<Long> lastId = deferredMessageRepository.findIdOfLastMessageCreatedBefore(createdBefore);
+        if (minId.isEmpty() || lastId.isEmpty()) {
+            log.info("Housekeeping: deleted 0 {} messages", kind);
+            return;
+        }
+        final long endId = lastId.get() + 1;
+        long fromId = minId.get();
+        long chunkSize = Math.max(1, config.getHouseKeepingPageSize());
+        long numDeleted = 0;
+        int numChunks = 0;
+        while (fromId < endId && numChunks < config.getHouseKeepingMaxPages()) {
+            final long chunkFromId = fromId;
+            final long chunkToId = Math.min(endId, fromId + chunkSize);
+            final long startNanos = System.nanoTime();
+            Integer numChunkDeleted = transactionTemplate.execute(_ -> idRangeDelete.delete(chunkFromId, chunkToId));
+            final Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+            numDeleted += Objects.requireNonNullElse(numChunkDeleted, 0);
+            chunkSize = adaptChunkSize(config, chunkSize, duration);
+            fromId = chunkToId;
+            numChunks++;
+        }
+        log.info("Housekeeping: deleted {} {} messages in {} id ranges up to id {}", numDeleted, kind, numChunks, fromId);
+    }
+
+    /**
+     * @return The width of the next id range, halved if deleting the last range took longer than the target duration and
+     * doubled up to the max chunk size if it took less than half of it.
+     */
+    static long adaptChunkSize(TransactionalOutboxConfiguration config, long chunkSize, Duration duration) {
+        final Duration targetDuration = config.getHouseKeepingTargetChunkDuration();
+        if (duration.compareTo(targetDuration) > 0) {
+            return Math.max(1, chunkSize / 2);
+        } else if (duration.multipliedBy(2).compareTo(targetDuration) < 0) {
+            return Math.min(Math.max(1, config.getHouseKeepingMaxChunkSize()), chunkSize * 2);
+        }
+        return chunkSize;
     }
 
-    private boolean deleteMessagesSentBeforeInPage(ZonedDateTime olderThan) {
-        final Slice<Long> resultPage = deferredMessageRepository.findSentImmediatelyBeforeOrSentScheduledBefore(olderThan, pageable);
+    private boolean deleteMessagesSentBeforeInPage(ZonedDateTime olderThan, RetentionScope scope) {
+        final Slice<Long> resultPage = scope.isAll() ?
+                deferredMessageRepository.findSentImmediatelyBeforeOrSentScheduledBefore(olderThan, pageable) :
+                deferredMessageRepository.findSentImmediatelyBeforeOrSentScheduledBefore(olderThan, scope, pageable);
         final Set<Long> messageIds = resultPage.toSet();
         if (!messageIds.isEmpty()) {
             deferredMessageRepository.deleteAllById(messageIds);
@@ -54,8 +158,10 @@ public class OutboxHouseKeeping {
         return resultPage.hasNext();
     }
 
-    private boolean deleteUnsentMessagesCreatedBeforeInPage(ZonedDateTime olderThan) {
-        final Slice<Long> resultPage = deferredMessageRepository.findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(olderThan, pageable);
+    private boolean deleteUnsentMessagesCreatedBeforeInPage(ZonedDateTime olderThan, RetentionScope scope) {
+        final Slice<Long> resultPage = scope.isAll() ?
+                deferredMessageRepository.findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(olderThan, pageable) :
+                deferredMessageRepository.findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(olderThan, scope, pageable);
         final Set<Long> messageIds = resultPage.toSet();
         if (!messageIds.isEmpty()) {
             deferredMessageRepository.deleteAllById(messageIds);
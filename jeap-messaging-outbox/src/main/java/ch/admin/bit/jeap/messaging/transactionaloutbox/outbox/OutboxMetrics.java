@@ -1,5 +1,10 @@
 package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
 
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
 public interface OutboxMetrics {
 
     String MESSAGES_READY_TO_BE_SENT_COUNTER = "outbox_messages_ready_to_be_sent_count";
@@ -17,6 +22,21 @@ public interface OutboxMetrics {
     String MESSAGE_RESEND_STATUS_RESEND_ENABLED = "resend_enabled";
     String MESSAGE_RESEND_STATUS_RESEND_DISABLED = "resend_disabled";
     String MESSAGES_READY_TO_BE_SENT_TIMER = "outbox_messages_ready_to_be_sent_query";
+    String RELAY_LANE_SEND_TIMER = "outbox_relay_lane_send";
+    String RELAY_LANE_MESSAGES_COUNTER = "outbox_relay_lane_messages_total";
+    String RELAY_LANE_TAG = "lane";
+    String AFTER_COMMIT_SEND_REJECTED_COUNTER = "outbox_after_commit_send_rejected_total";
+    String RELAY_BATCH_SIZE_GAUGE = "outbox_relay_batch_size";
+    String RELAY_STAGE_TIMER = "outbox_relay_stage";
+    String RELAY_STAGE_TAG = "stage";
+    String RELAY_STAGE_FETCH = "fetch";
+    String RELAY_STAGE_AWAIT_FETCH = "await_fetch";
+    String RELAY_STAGE_SEND = "send";
+    String HOUSE_KEEPING_DELETED_COUNTER = "outbox_house_keeping_deleted_total";
+    String HOUSE_KEEPING_BACKLOG_GAUGE = "outbox_house_keeping_backlog_ids";
+    String HOUSE_KEEPING_KIND_TAG = "kind";
+    String HOUSE_KEEPING_KIND_SENT = "sent";
+    String HOUSE_KEEPING_KIND_UNSENT = "unsent";
 
     /**
      * Count a send operation on the transactional outbox and tag it with dimensions 'delivery_type' and 'tx_status'.
@@ -41,4 +61,60 @@ public interface OutboxMetrics {
      * @param messageTypeVersion the version of the type of the message
      */
     void countMessagingSend(String bootstrapServers, String topic, String messageType, String messageTypeVersion);
+
+    /**
+     * Record the sending of the messages assigned to a message relay lane and tag it with dimension 'lane'.
+     *
+     * @param lane        the index of the relay lane
+     * @param numMessages the number of messages the lane attempted to send
+     * @param duration    the time it took the lane to send the messages
+     */
+    void recordRelayLaneSend(int lane, int numMessages, Duration duration);
+
+    /**
+     * Monitor the given executor used by the outbox, e.g. its queue size and active threads.
+     *
+     * @param executorService the executor to monitor
+     * @param executorName    the name identifying the executor
+     */
+    void monitorExecutor(ExecutorService executorService, String executorName);
+
+    /**
+     * Count messages that could not be handed to the after commit send executor because it was saturated.
+     *
+     * @param numMessages the number of messages left to the message relay
+     */
+    void countAfterCommitSendRejected(int numMessages);
+
+    /**
+     * Monitor the number of messages the message relay currently fetches per batch.
+     *
+     * @param batchSize supplies the current batch size
+     */
+    void monitorRelayBatchSize(IntSupplier batchSize);
+
+    /**
+     * Record a stage of relaying a batch of messages and tag it with dimension 'stage'.
+     *
+     * @param stage    the stage, i.e. {@link #RELAY_STAGE_FETCH}, {@link #RELAY_STAGE_AWAIT_FETCH} or {@link #RELAY_STAGE_SEND}
+     * @param duration the time the stage took
+     */
+    void recordRelayStage(String stage, Duration duration);
+
+    /**
+     * Count messages deleted by the continuous housekeeping and tag them with dimension 'kind'.
+     *
+     * @param kind        the kind of messages, i.e. {@link #HOUSE_KEEPING_KIND_SENT} or {@link #HOUSE_KEEPING_KIND_UNSENT}
+     * @param numMessages the number of messages deleted
+     */
+    void countHouseKeepingDeleted(String kind, int numMessages);
+
+    /**
+     * Monitor the range of ids the continuous housekeeping still has to walk through to catch up with the retention
+     * duration of a kind of messages, i.e. an upper bound of the number of messages due for deletion.
+     *
+     * @param kind       the kind of messages, i.e. {@link #HOUSE_KEEPING_KIND_SENT} or {@link #HOUSE_KEEPING_KIND_UNSENT}
+     * @param backlogIds supplies the number of ids still to walk through
+     */
+    void monitorHouseKeepingBacklog(String kind, LongSupplier backlogIds);
 }
@@ -0,0 +1,105 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Maintains the partitions of a deferred message table partitioned by range on the created timestamp (see
+ * {@link TransactionalOutboxConfiguration#isHouseKeepingPartitioningEnabled()}). Creates the upcoming partitions ahead
+ * of time and drops the partitions whose messages have all been created before the sent message retention duration,
+ * keeping the messages not sent yet. Dropping a partition replaces deleting its sent messages one by one.
+ */
+@Slf4j
+@Component
+public class OutboxPartitionHouseKeeping {
+
+    static final String PARTITION_NAME_PREFIX = "deferred_message_p";
+    private static final DateTimeFormatter PARTITION_NAME_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmm").withZone(ZoneOffset.UTC);
+
+    private final DeferredMessageRepository deferredMessageRepository;
+    private final TransactionalOutboxConfiguration config;
+    private final TransactionTemplate transactionTemplate;
+    private final long intervalSeconds;
+
+    public OutboxPartitionHouseKeeping(DeferredMessageRepository deferredMessageRepository, TransactionalOutboxConfiguration config, TransactionTemplate transactionTemplate) {
+        this.deferredMessageRepository = deferredMessageRepository;
+        this.config = config;
+        this.transactionTemplate = transactionTemplate;
+        this.intervalSeconds = config.getHouseKeepingPartitionInterval().toSeconds();
+    }
+
+    public void maintainPartitions() {
+        if (intervalSeconds < Duration.ofMinutes(1).toSeconds()) {
+            throw new IllegalStateException("The deferred message partition interval must be at least one minute, but is " +
+                    config.getHouseKeepingPartitionInterval());
+        }
+        final Instant now = Instant.now();
+        createUpcomingPartitions(now);
+        dropExpiredPartitions(now);
+    }
+
+    private void createUpcomingPartitions(Instant now) {
+        Set<String> existingPartitions = new HashSet<>(deferredMessageRepository.findPartitionNames());
+        final Instant currentPartitionStart = getPartitionStart(now);
+        for (int i = 0; i <= config.getHouseKeepingPartitionsAhead(); i++) {
+            final Instant from = currentPartitionStart.plusSeconds(i * intervalSeconds);
+            final String partitionName = getPartitionName(from);
+            if (!existingPartitions.contains(partitionName)) {
+                log.info("Housekeeping: creating partition {} for messages created from {}", partitionName, from);
+                try {
+                    transactionTemplate.executeWithoutResult(_ -> deferredMessageRepository.createPartition(partitionName,
+                            from.atZone(ZoneOffset.UTC), from.plusSeconds(intervalSeconds).atZone(ZoneOffset.UTC)));
+                } catch (RuntimeException e) {
+                    // Still create the other partitions, the failed one is retried by the next run
+                    log.error("Housekeeping: failed to create partition {}", partitionName, e);
+                }
+            }
+        }
+    }
+
+    private void dropExpiredPartitions(Instant now) {
+        final Instant expiredBefore = now.minus(config.getSentMessageRetentionDuration());
+        for (String partitionName : deferredMessageRepository.findPartitionNames()) {
+            Optional<Instant> partitionStart = parsePartitionStart(partitionName);
+            if (partitionStart.isPresent() && !partitionStart.get().plusSeconds(intervalSeconds).isAfter(expiredBefore)) {
+                Integer numKeptMessages = transactionTemplate.execute(_ -> deferredMessageRepository.dropPartitionKeepingUnsentMessages(partitionName));
+                log.info("Housekeeping: dropped partition {}, kept {} messages not sent yet", partitionName, numKeptMessages);
+            }
+        }
+    }
+
+    Instant getPartitionStart(Instant instant) {
+        return Instant.ofEpochSecond(Math.floorDiv(instant.getEpochSecond(), intervalSeconds) * intervalSeconds);
+    }
+
+    static String getPartitionName(Instant partitionStart) {
+        return PARTITION_NAME_PREFIX + PARTITION_NAME_TIME_FORMAT.format(partitionStart);
+    }
+
+    /**
+     * @return The start of the partition with the given name, empty if the partition is not managed by the housekeeping
+     * (e.g. the default partition).
+     */
+    static Optional<Instant> parsePartitionStart(String partitionName) {
+        if (!partitionName.startsWith(PARTITION_NAME_PREFIX)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(ZonedDateTime.parse(partitionName.substring(PARTITION_NAME_PREFIX.length()), PARTITION_NAME_TIME_FORMAT).toInstant());
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+
+}
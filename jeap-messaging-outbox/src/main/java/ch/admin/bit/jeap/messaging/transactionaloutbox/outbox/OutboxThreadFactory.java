@@ -0,0 +1,27 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads of the executors of the outbox, either virtual threads or platform threads depending on
+ * {@link TransactionalOutboxConfiguration#isVirtualThreadsEnabled()}. The thread names start with the given prefix in
+ * both cases.
+ */
+public class OutboxThreadFactory implements ThreadFactory {
+
+    private final ThreadFactory threadFactory;
+
+    public OutboxThreadFactory(TransactionalOutboxConfiguration config, String threadNamePrefix) {
+        this.threadFactory = config.isVirtualThreadsEnabled() ?
+                Thread.ofVirtual().name(threadNamePrefix, 1).factory() :
+                new CustomizableThreadFactory(threadNamePrefix);
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        return threadFactory.newThread(runnable);
+    }
+
+}
@@ -0,0 +1,82 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.RetentionScope.TopicMessageType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The retention durations of the messages in a scope. The policies derived from the retention rules cover every message
+ * exactly once: a message is covered by the rule for its topic and message type if there is one, else by the rule for
+ * its topic if there is one, and else by the default retention durations.
+ * <p>
+ * With housekeeping partitioning enabled, the sent messages are dropped with their partition after the default sent
+ * retention duration. A rule keeping sent messages longer than that cannot be honoured and is rejected.
+ */
+record RetentionPolicy(RetentionScope scope, Duration sentMessageRetentionDuration, Duration unsentMessageRetentionDuration) {
+
+    static List<RetentionPolicy> of(TransactionalOutboxConfiguration config) {
+        final Duration defaultSentRetention = config.getSentMessageRetentionDuration();
+        final Duration defaultUnsentRetention = config.getUnsentMessageRetentionDuration();
+        List<MessageRetentionRule> rules = Objects.requireNonNullElse(config.getMessageRetentionRules(), List.of());
+        if (rules.isEmpty()) {
+            return List.of(new RetentionPolicy(RetentionScope.ALL, defaultSentRetention, defaultUnsentRetention));
+        }
+
+        Map<String, MessageRetentionRule> topicRules = new LinkedHashMap<>();
+        Map<TopicMessageType, MessageRetentionRule> messageTypeRules = new LinkedHashMap<>();
+        for (MessageRetentionRule rule : rules) {
+            if (rule.getTopic() == null || rule.getTopic().isBlank()) {
+                throw new IllegalStateException("The topic of a message retention rule is required: " + rule);
+            }
+            MessageRetentionRule duplicate = rule.getMessageType() == null ?
+                    topicRules.put(rule.getTopic(), rule) :
+                    messageTypeRules.put(new TopicMessageType(rule.getTopic(), rule.getMessageType()), rule);
+            if (duplicate != null) {
+                throw new IllegalStateException("More than one message retention rule for " + rule);
+            }
+        }
+
+        List<RetentionPolicy> policies = new ArrayList<>();
+        policies.add(new RetentionPolicy(
+                new RetentionScope(null, null, Set.copyOf(topicRules.keySet()), Set.copyOf(messageTypeRules.keySet())),
+                defaultSentRetention, defaultUnsentRetention));
+        topicRules.forEach((topic, rule) -> {
+            Set<TopicMessageType> excludedMessageTypes = messageTypeRules.keySet().stream()
+                    .filter(topicMessageType -> topicMessageType.topic().equals(topic))
+                    .collect(Collectors.toUnmodifiableSet());
+            policies.add(new RetentionPolicy(new RetentionScope(topic, null, Set.of(), excludedMessageTypes),
+                    Objects.requireNonNullElse(rule.getSentMessageRetentionDuration(), defaultSentRetention),
+                    Objects.requireNonNullElse(rule.getUnsentMessageRetentionDuration(), defaultUnsentRetention)));
+        });
+        messageTypeRules.forEach((topicMessageType, rule) -> {
+            MessageRetentionRule topicRule = topicRules.get(topicMessageType.topic());
+            Duration sentRetention = topicRule != null && topicRule.getSentMessageRetentionDuration() != null ?
+                    topicRule.getSentMessageRetentionDuration() : defaultSentRetention;
+            Duration unsentRetention = topicRule != null && topicRule.getUnsentMessageRetentionDuration() != null ?
+                    topicRule.getUnsentMessageRetentionDuration() : defaultUnsentRetention;
+            policies.add(new RetentionPolicy(
+                    new RetentionScope(topicMessageType.topic(), topicMessageType.messageType(), Set.of(), Set.of()),
+                    Objects.requireNonNullElse(rule.getSentMessageRetentionDuration(), sentRetention),
+                    Objects.requireNonNullElse(rule.getUnsentMessageRetentionDuration(), unsentRetention)));
+        });
+        if (config.isHouseKeepingPartitioningEnabled()) {
+            policies.stream()
+                    .filter(policy -> policy.sentMessageRetentionDuration().compareTo(defaultSentRetention) > 0)
+                    .findFirst()
+                    .ifPresent(policy -> {
+                        throw new IllegalStateException("Sent messages of " + policy.scope() + " cannot be kept for " +
+                                policy.sentMessageRetentionDuration() + " with housekeeping partitioning enabled, as their " +
+                                "partitions are dropped after the default sent message retention duration " + defaultSentRetention);
+                    });
+        }
+        return List.copyOf(policies);
+    }
+
+}
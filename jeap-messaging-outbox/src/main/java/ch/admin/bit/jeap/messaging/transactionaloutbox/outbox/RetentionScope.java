@@ -0,0 +1,40 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import java.util.Set;
+
+/**
+ * The messages a retention policy applies to: the messages sent to a topic, optionally only those of a message type,
+ * without the messages covered by more specific retention rules.
+ *
+ * @param topic                     The topic, <code>null</code> for all topics.
+ * @param messageType               The message type, <code>null</code> for all message types.
+ * @param excludedTopics            Topics whose messages are excluded.
+ * @param excludedTopicMessageTypes Message types sent to a topic whose messages are excluded.
+ */
+public record RetentionScope(String topic, String messageType, Set<String> excludedTopics,
+                             Set<TopicMessageType> excludedTopicMessageTypes) {
+
+    /**
+     * All messages, i.e. no retention rules are configured.
+     */
+    public static final RetentionScope ALL = new RetentionScope(null, null, Set.of(), Set.of());
+
+    /**
+     * A message type sent to a topic.
+     */
+    public record TopicMessageType(String topic, String messageType) {
+    }
+
+    public boolean isAll() {
+        return topic == null && messageType == null && excludedTopics.isEmpty() && excludedTopicMessageTypes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        if (topic == null) {
+            return isAll() ? "of all topics" : "of the topics without retention rule";
+        }
+        return messageType == null ? "of topic " + topic : "of type " + messageType + " of topic " + topic;
+    }
+
+}
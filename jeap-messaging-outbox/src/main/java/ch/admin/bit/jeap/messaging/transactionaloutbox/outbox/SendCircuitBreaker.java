@@ -0,0 +1,112 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Circuit breaker per Kafka cluster and topic, isolating a cluster or topic that cannot be sent to from all others. The
+ * circuit of a cluster and topic opens after a configured number of consecutive sends failed for a reason not caused by
+ * the message. While open, the message relay does not fetch the messages of the cluster and topic and the after commit
+ * sender leaves them to the relay. Once the open duration has elapsed, a single message is let through as a probe:
+ * if it is sent successfully the circuit closes, if not the circuit stays open for another open duration.
+ */
+@Slf4j
+public class SendCircuitBreaker {
+
+    private record Circuit(int consecutiveFailures, Instant openUntil) {
+
+        boolean isOpen() {
+            return openUntil != null;
+        }
+    }
+
+    private final boolean enabled;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Clock clock;
+    private final ConcurrentMap<ClusterTopic, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public SendCircuitBreaker(TransactionalOutboxConfiguration config, Clock clock) {
+        this.enabled = config.isSendCircuitBreakerEnabled();
+        this.failureThreshold = Math.max(1, config.getSendCircuitBreakerFailureThreshold());
+        this.openDuration = config.getSendCircuitBreakerOpenDuration();
+        this.clock = clock;
+    }
+
+    /**
+     * @return <code>true</code> if the given message may be sent, i.e. if the circuit of its cluster and topic is closed
+     * or if the message is let through as a probe for an open circuit.
+     */
+    public boolean tryAcquirePermission(DeferredMessage deferredMessage) {
+        if (!enabled) {
+            return true;
+        }
+        AtomicBoolean permitted = new AtomicBoolean(true);
+        circuits.computeIfPresent(ClusterTopic.of(deferredMessage), (clusterTopic, circuit) -> {
+            if (!circuit.isOpen()) {
+                return circuit;
+            }
+            Instant now = clock.instant();
+            if (now.isBefore(circuit.openUntil())) {
+                permitted.set(false);
+                return circuit;
+            }
+            // Let this message probe the cluster and topic, hold back all others until the outcome of the probe is known.
+            log.info("Probing circuit of {} with {}.", clusterTopic, DeferredMessageLogArgument.from(deferredMessage));
+            return new Circuit(circuit.consecutiveFailures(), now.plus(openDuration));
+        });
+        return permitted.get();
+    }
+
+    public void recordSuccess(DeferredMessage deferredMessage) {
+        if (enabled && !circuits.isEmpty()) {
+            Circuit circuit = circuits.remove(ClusterTopic.of(deferredMessage));
+            if (circuit != null && circuit.isOpen()) {
+                log.info("Closed circuit of {}.", ClusterTopic.of(deferredMessage));
+            }
+        }
+    }
+
+    /**
+     * Record a send of the given message that failed for a reason not caused by the message.
+     */
+    public void recordFailure(DeferredMessage deferredMessage) {
+        if (!enabled) {
+            return;
+        }
+        circuits.compute(ClusterTopic.of(deferredMessage), (clusterTopic, circuit) -> {
+            int consecutiveFailures = circuit == null ? 1 : circuit.consecutiveFailures() + 1;
+            if (consecutiveFailures < failureThreshold) {
+                return new Circuit(consecutiveFailures, null);
+            }
+            if (circuit == null || !circuit.isOpen()) {
+                log.warn("Opened circuit of {} after {} consecutive failures, retrying in {}.", clusterTopic, consecutiveFailures, openDuration);
+            }
+            return new Circuit(consecutiveFailures, clock.instant().plus(openDuration));
+        });
+    }
+
+    /**
+     * @return The clusters and topics whose circuit is open and not ready to be probed.
+     */
+    public Set<ClusterTopic> getOpenCircuits() {
+        if (circuits.isEmpty()) {
+            return Set.of();
+        }
+        Instant now = clock.instant();
+        return circuits.entrySet().stream()
+                .filter(entry -> entry.getValue().isOpen() && now.isBefore(entry.getValue().openUntil()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+}
@@ -5,7 +5,9 @@ public enum SendFailureReason {
     INVALID_TOPIC("invalid topic", true),
     UNAUTHORIZED_ON_TOPIC("unauthorized on topic", true),
     MESSAGE_TOO_LARGE("message too large", true),
-    GENERAL("general", false);
+    GENERAL("general", false),
+    // The Kafka transaction of the message relay failed without any of its messages failing
+    TRANSACTION_ABORTED("transaction aborted", false);
 
     public final String reason;
     public final boolean causedByMessage;
@@ -0,0 +1,26 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+/**
+ * What happens to a deferred message once it has been sent successfully.
+ */
+public enum SentMessageRetentionMode {
+
+    /**
+     * The message is marked as sent and kept in the deferred message table until the housekeeping deletes it after the
+     * sent message retention duration.
+     */
+    RETAIN,
+
+    /**
+     * The message is deleted from the deferred message table as soon as it has been sent.
+     */
+    DELETE,
+
+    /**
+     * The message is moved from the deferred message table to the archive table deferred_message_sent as soon as it has
+     * been sent. The archive only keeps the message metadata without the payload, and the housekeeping deletes it after
+     * the sent message retention duration.
+     */
+    ARCHIVE
+
+}
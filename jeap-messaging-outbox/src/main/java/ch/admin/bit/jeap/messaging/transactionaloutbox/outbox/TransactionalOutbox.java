@@ -11,8 +11,13 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static net.logstash.logback.argument.StructuredArguments.kv;
 
@@ -46,6 +51,8 @@ import static net.logstash.logback.argument.StructuredArguments.kv;
 @RequiredArgsConstructor
 public class TransactionalOutbox {
 
+    private static final int PARALLEL_SERIALIZATION_MIN_MESSAGES = 100;
+
     private final String clusterName;
     private final MessageSerializer serializer;
     private final DeferredMessageRepository deferredMessageRepository;
@@ -108,6 +115,58 @@ public class TransactionalOutbox {
         sendMessage(message, key, topic, false);
     }
 
+    /**
+     * Send the given messages to the given topic. Sending will happen immediately after the surrounding transaction got committed.
+     * Unlike calling {@link #sendMessage(Message, String)} for every message, the publisher contract is validated only once
+     * per message type and all messages are persisted at once.
+     *
+     * @param messages The messages
+     * @param topic    The topic
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void sendMessages(Collection<? extends Message> messages, String topic) {
+        sendMessages(messages, _ -> null, topic, true);
+    }
+
+    /**
+     * Send the given messages to the given topic. Sending will happen some time later when the scheduled message relay process
+     * will pick the messages up and send them. Unlike calling {@link #sendMessageScheduled(Message, String)} for every message,
+     * the publisher contract is validated only once per message type and all messages are persisted at once.
+     *
+     * @param messages The messages
+     * @param topic    The topic
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void sendMessagesScheduled(Collection<? extends Message> messages, String topic) {
+        sendMessages(messages, _ -> null, topic, false);
+    }
+
+    /**
+     * Send the given messages with the keys provided by the given key function to the given topic. Sending will happen
+     * immediately after the surrounding transaction got committed.
+     *
+     * @param messages    The messages
+     * @param keyFunction Provides the key of a message
+     * @param topic       The topic
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public <M extends Message> void sendMessages(Collection<M> messages, Function<? super M, ?> keyFunction, String topic) {
+        sendMessages(messages, keyFunction, topic, true);
+    }
+
+    /**
+     * Send the given messages with the keys provided by the given key function to the given topic. Sending will happen
+     * some time later when the scheduled message relay process will pick the messages up and send them.
+     *
+     * @param messages    The messages
+     * @param keyFunction Provides the key of a message
+     * @param topic       The topic
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public <M extends Message> void sendMessagesScheduled(Collection<M> messages, Function<? super M, ?> keyFunction, String topic) {
+        sendMessages(messages, keyFunction, topic, false);
+    }
+
     /**
      * Count the number of messages having state 'failed'.
      *
@@ -164,15 +223,70 @@ public class TransactionalOutbox {
      */
     public void resendMessageScheduled(long id) {
         deferredMessageRepository.markForResend(id, true);
+        afterCommitMessageSender.wakeUpMessageRelayAfterTransactionCommit();
     }
 
     private void sendMessage(Message message, Object key, String topic, boolean sendImmediately) {
         ensurePublisherContract(message, topic);
+        DeferredMessage newDeferredMessage = createDeferredMessage(message, key, topic, sendImmediately, outboxTracing.retrieveCurrentTraceContext());
+        if (afterCommitMessageSender.insertBeforeTransactionCommit(List.of(newDeferredMessage))) {
+            log.debug("Buffered deferred message {} to be persisted before commit.", kv("messageId", newDeferredMessage.getMessageId()));
+            wakeUpMessageRelayIfScheduled(sendImmediately);
+        } else {
+            DeferredMessage persistedDeferredMessage = deferredMessageRepository.save(newDeferredMessage);
+            log.debug("Persisted {}.", DeferredMessageLogArgument.from(persistedDeferredMessage));
+            if (sendImmediately) {
+                afterCommitMessageSender.sendImmediatelyAfterTransactionCommit(persistedDeferredMessage);
+            } else {
+                afterCommitMessageSender.wakeUpMessageRelayAfterTransactionCommit();
+            }
+        }
+        outboxMetrics.ifPresent(metrics -> metrics.countTransactionalSend(sendImmediately));
+        invokeOnSendCallbacks(message, topic);
+    }
+
+    private <M extends Message> void sendMessages(Collection<M> messages, Function<? super M, ?> keyFunction, String topic, boolean sendImmediately) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        ensurePublisherContracts(messages, topic);
+        final OutboxTraceContext traceContext = outboxTracing.retrieveCurrentTraceContext();
+        // Serialization is CPU bound and independent per message, it pays off to parallelize it for larger batches only.
+        Stream<M> messageStream = messages.size() >= PARALLEL_SERIALIZATION_MIN_MESSAGES ? messages.parallelStream() : messages.stream();
+        List<DeferredMessage> newDeferredMessages = messageStream
+                .map(message -> createDeferredMessage(message, keyFunction.apply(message), topic, sendImmediately, traceContext))
+                .toList();
+        if (afterCommitMessageSender.insertBeforeTransactionCommit(newDeferredMessages)) {
+            log.debug("Buffered {} deferred messages for topic {} to be persisted before commit.", newDeferredMessages.size(), topic);
+            wakeUpMessageRelayIfScheduled(sendImmediately);
+        } else {
+            List<DeferredMessage> persistedDeferredMessages = deferredMessageRepository.saveAll(newDeferredMessages);
+            log.debug("Persisted {} deferred messages for topic {}.", persistedDeferredMessages.size(), topic);
+            if (sendImmediately) {
+                afterCommitMessageSender.sendImmediatelyAfterTransactionCommit(persistedDeferredMessages);
+            } else {
+                afterCommitMessageSender.wakeUpMessageRelayAfterTransactionCommit();
+            }
+        }
+        messages.forEach(message -> {
+            outboxMetrics.ifPresent(metrics -> metrics.countTransactionalSend(sendImmediately));
+            invokeOnSendCallbacks(message, topic);
+        });
+    }
+
+    private void wakeUpMessageRelayIfScheduled(boolean sendImmediately) {
+        // Buffered messages to be sent immediately are sent after the commit by the after commit message sender.
+        if (!sendImmediately) {
+            afterCommitMessageSender.wakeUpMessageRelayAfterTransactionCommit();
+        }
+    }
+
+    private DeferredMessage createDeferredMessage(Message message, Object key, String topic, boolean sendImmediately, OutboxTraceContext traceContext) {
         byte[] serializedMessage = serializer.serializeMessage(message, topic);
         byte[] serializedKey = Optional.ofNullable(key)
                 .map(nonNullKey -> serializer.serializeKey(nonNullKey, topic))
                 .orElse(null);
-        DeferredMessage newDeferredMessage = DeferredMessage.builder()
+        return DeferredMessage.builder()
                 .message(serializedMessage)
                 .key(serializedKey)
                 .clusterName(clusterName)
@@ -182,15 +296,14 @@ public class TransactionalOutbox {
                 .messageTypeName(message.getType().getName())
                 .messageTypeVersion(MessageVersionAccessor.getGeneratedVersion(message.getClass()))
                 .sendImmediately(sendImmediately)
-                .traceContext(outboxTracing.retrieveCurrentTraceContext())
+                .traceContext(traceContext)
                 .build();
-        DeferredMessage persistedDeferredMessage = deferredMessageRepository.save(newDeferredMessage);
-        log.debug("Persisted {}.", DeferredMessageLogArgument.from(persistedDeferredMessage));
-        if (sendImmediately) {
-            afterCommitMessageSender.sendImmediatelyAfterTransactionCommit(persistedDeferredMessage);
-        }
-        outboxMetrics.ifPresent(metrics -> metrics.countTransactionalSend(sendImmediately));
-        invokeOnSendCallbacks(message, topic);
+    }
+
+    private void ensurePublisherContracts(Collection<? extends Message> messages, String topic) {
+        Map<String, Message> messagesByTypeName = new LinkedHashMap<>();
+        messages.forEach(message -> messagesByTypeName.putIfAbsent(message.getType().getName(), message));
+        messagesByTypeName.values().forEach(message -> ensurePublisherContract(message, topic));
     }
 
     private void invokeOnSendCallbacks(Message msg, String topic) {
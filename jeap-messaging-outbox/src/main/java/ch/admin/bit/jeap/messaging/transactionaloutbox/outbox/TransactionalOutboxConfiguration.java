@@ -1,6 +1,7 @@
 package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
 
 import java.time.Duration;
+import java.util.List;
 
 public interface TransactionalOutboxConfiguration {
 
@@ -26,6 +27,186 @@ public interface TransactionalOutboxConfiguration {
      */
     int getMessageRelayBatchSize();
 
+    /**
+     * If enabled, the message relay adapts the number of messages it fetches per batch, starting at
+     * {@link #getMessageRelayBatchSize()}: the batch size grows by {@link #getMessageRelayMinBatchSize()} after every full
+     * batch sent within {@link #getMessageRelayTargetBatchDuration()} and is halved after a batch that took longer or
+     * failed, bounded by the minimum and maximum batch size. Default is false.
+     */
+    boolean isMessageRelayAdaptiveBatchSizeEnabled();
+
+    /**
+     * Lower bound of the batch size if adaptive batch sizing is enabled. Also the step by which the batch size grows.
+     */
+    int getMessageRelayMinBatchSize();
+
+    /**
+     * Upper bound of the batch size if adaptive batch sizing is enabled.
+     */
+    int getMessageRelayMaxBatchSize();
+
+    /**
+     * Maximum duration for sending a batch of messages for the batch size to grow if adaptive batch sizing is enabled.
+     */
+    Duration getMessageRelayTargetBatchDuration();
+
+    /**
+     * If enabled, a message that could not be sent for a reason not caused by the message (e.g. a timeout) is retried with
+     * an exponential backoff instead of stopping the message relay: the relay skips the message until its next attempt
+     * and keeps sending the other messages. The relay does not send the remaining messages of a batch with the same topic
+     * as the failed message, and does not fetch the messages with the same topic and key inserted after the failed message
+     * until it has been retried, keeping the order per key. The relay only stops if no message of a batch could be sent.
+     * Default is false.
+     */
+    boolean isMessageRelayRetryEnabled();
+
+    /**
+     * Delay before the second attempt to send a message if retrying is enabled. The delay doubles with every further
+     * attempt, with a random jitter of up to half the delay.
+     */
+    Duration getMessageRelayRetryInitialDelay();
+
+    /**
+     * Upper bound of the delay between two attempts to send a message if retrying is enabled.
+     */
+    Duration getMessageRelayRetryMaxDelay();
+
+    /**
+     * Largest number of messages the message relay may fetch per batch.
+     */
+    default int getMessageRelayBatchSizeLimit() {
+        return isMessageRelayAdaptiveBatchSizeEnabled() ?
+                Math.max(1, Math.max(getMessageRelayMinBatchSize(), getMessageRelayMaxBatchSize())) :
+                getMessageRelayBatchSize();
+    }
+
+    /**
+     * If enabled, the message relay hands a whole batch of messages to the Kafka producer before awaiting the acknowledgements
+     * of the messages together, instead of waiting for the acknowledgement of each message before sending the next one.
+     * This allows the relay to catch up on a backlog of messages at producer speed rather than at the speed of one broker
+     * round trip per message. If a message fails for a general reason, the later messages of the batch with the same topic
+     * and key are not marked as sent even if Kafka acknowledged them. They are sent again after the failed message, i.e.
+     * consumers may receive them twice but finally in order. Default is false.
+     */
+    boolean isMessageRelayPipeliningEnabled();
+
+    /**
+     * If enabled, the message relay publishes the messages of a batch for a cluster within one Kafka transaction using an
+     * idempotent transactional producer, and marks them as sent only after the transaction has been committed. A batch
+     * failing is aborted as a whole, i.e. consumers reading with isolation level read_committed never see the messages of
+     * a failed batch that are relayed again later. Implies pipelining. Messages sent immediately after commit are not
+     * sent transactionally. Default is false.
+     */
+    boolean isMessageRelayTransactionsEnabled();
+
+    /**
+     * Prefix of the Kafka transactional ids of the message relay's transactional producers. The instance id (see
+     * {@link #getMessageRelayTransactionInstanceId()}) and the index of the producer are appended. Default is
+     * "jeap-outbox-relay-".
+     */
+    String getMessageRelayTransactionIdPrefix();
+
+    /**
+     * Id of this instance within the Kafka transactional ids of the message relay, e.g. the name of the pod of a
+     * stateful set. Must be unique among the running instances and stable across restarts of an instance. The producers
+     * of a restarted instance then get the transactional ids of its predecessor, i.e. the broker aborts the open
+     * transactions of the predecessor and fences it if it is still alive (a zombie). If not set, a random id is used
+     * per start: instances never fence each other, but a zombie is not fenced either and its open transactions are
+     * only aborted after the transaction timeout. Default is not set.
+     */
+    String getMessageRelayTransactionInstanceId();
+
+    /**
+     * Number of lanes in which the message relay sends the messages of a batch in parallel. The messages are assigned to
+     * the lanes by their topic and key, i.e. messages with the same topic and key are always sent by the same lane in the
+     * order they were put into the outbox. Default is 1, i.e. all messages are sent one after the other.
+     */
+    int getMessageRelayWorkerCount();
+
+    /**
+     * Number of batches the message relay fetches ahead while it is still sending the current batch, in order to not
+     * leave the database idle while sending and Kafka idle while fetching. A prefetched batch only contains messages
+     * with a higher id than the batches before it. Default is 0, i.e. the relay fetches the next batch after having
+     * sent the current one.
+     */
+    int getMessageRelayPrefetchDepth();
+
+    /**
+     * If enabled, the message relay runs on every outbox instance at the same time instead of only on the instance holding
+     * the relay lock. Every relay claims its own disjoint batches of messages (using a claim on the messages and
+     * 'FOR UPDATE SKIP LOCKED' to skip messages being claimed concurrently), i.e. relay throughput scales with the number of
+     * outbox instances. A claim expires after {@link #getMessageRelayClaimDuration()}, after which a different instance may
+     * take over the messages of an instance that stopped relaying. Default is false.
+     * <p>
+     * <b>Messages are no longer delivered in order, not even the messages of the same key.</b> Batches claimed by
+     * different instances are sent concurrently, so a later message of a key claimed by one instance may be sent before an
+     * earlier message of the same key claimed by another instance. Do not enable claiming if consumers rely on the order
+     * of the messages per key.
+     */
+    boolean isMessageRelayClaimingEnabled();
+
+    /**
+     * Max duration for which a relay claims messages at once. A relay sending for longer renews the claims of the messages
+     * it has not sent yet, i.e. a relay that stopped relaying holds its messages for at most this duration. Default is
+     * two minutes.
+     */
+    Duration getMessageRelayMaxClaimDuration();
+
+    /**
+     * Duration for which a relay claims the messages of a batch. Equals the duration it is expected to take at most to send
+     * a batch of messages, including a safety factor of 1.5, but at most {@link #getMessageRelayMaxClaimDuration()}. The
+     * messages of a pipelined batch are sent within a single send timeout, the messages of a sequential batch one after the
+     * other. The relay renews the claims of a batch before sending it, i.e. prefetching batches does not extend the claim.
+     */
+    default Duration getMessageRelayClaimDuration() {
+        final boolean pipelined = isMessageRelayPipeliningEnabled() || isMessageRelayTransactionsEnabled();
+        final long numSends = pipelined ? 1L : Math.max(1, getMessageRelayBatchSizeLimit());
+        final Duration claimDuration = getMaxDurationSendScheduled().multipliedBy(numSends * 3L).dividedBy(2L);
+        return claimDuration.compareTo(getMessageRelayMaxClaimDuration()) > 0 ? getMessageRelayMaxClaimDuration() : claimDuration;
+    }
+
+    /**
+     * If enabled, the message relay and the after commit sender track the sends per Kafka cluster and topic. After
+     * {@link #getSendCircuitBreakerFailureThreshold()} consecutive sends to a cluster and topic failed for a reason not
+     * caused by the message, its circuit opens: its messages are not sent for {@link #getSendCircuitBreakerOpenDuration()}
+     * while the messages of all other clusters and topics keep being sent. Then a single message probes whether the
+     * cluster and topic can be sent to again. Default is false.
+     */
+    boolean isSendCircuitBreakerEnabled();
+
+    /**
+     * Number of consecutive failed sends to a cluster and topic after which its circuit opens.
+     */
+    int getSendCircuitBreakerFailureThreshold();
+
+    /**
+     * Duration for which the circuit of a cluster and topic stays open before it is probed again.
+     */
+    Duration getSendCircuitBreakerOpenDuration();
+
+    /**
+     * Once sending to a topic failed because the topic is invalid or the producer is not authorized on it, messages to
+     * the topic fail the same way without being sent for this duration, i.e. without blocking the producer for up to
+     * 'max.block.ms' per message. The topic is validated again by the first message sent after this duration.
+     * Default is zero, i.e. every message is sent.
+     */
+    Duration getTopicHealthCacheTtl();
+
+    /**
+     * If enabled, the message relay does not poll for messages with the fixed {@link #getPollDelay()} but waits for a
+     * {@link MessageRelayWakeUpSignal}, which is sent whenever messages may have become ready to be sent (e.g. when a
+     * transaction that put scheduled messages into the outbox has been committed). While the relay finds no messages it
+     * backs off, doubling its wait from {@link #getPollDelay()} up to {@link #getMessageRelayMaxIdleDelay()}. Default is false.
+     */
+    boolean isMessageRelayWakeUpEnabled();
+
+    /**
+     * Maximum duration the message relay waits for a wake-up signal before polling for messages anyway if relay wake-up is
+     * enabled. Bounds the delay of messages no signal has been received for, e.g. messages put into the outbox by a
+     * different outbox instance when using the in-JVM wake-up signal.
+     */
+    Duration getMessageRelayMaxIdleDelay();
+
     /**
      * Maximum duration to wait on Kafka to finish sending a message when sending is immediately after the transaction commit.
      * This timeout should not be too big in order to not delay the thread that put the messages into the outbox too much
@@ -54,11 +235,67 @@ public interface TransactionalOutboxConfiguration {
      */
     Duration getMessageSendScheduledMaxBlockTime();
 
+    /**
+     * If enabled, messages to be sent immediately are sent after the transaction commit by a dedicated executor instead of
+     * by the thread that committed the transaction, i.e. the committing thread does not wait on Kafka. The messages of a
+     * topic and key are always sent by the same executor thread, so they keep their commit order across transactions. If
+     * the executor's queue is full, or if the messages waited in it for longer than
+     * {@link #getMaxDurationSendImmediately()}, the messages are left to the message relay. Default is false.
+     */
+    boolean isAfterCommitSendAsyncEnabled();
+
+    /**
+     * If enabled, the messages put into the outbox by a transaction are buffered and inserted with one batch right before
+     * the transaction commits, with the time after which the relay may send them already set. Otherwise every message is
+     * inserted right away and the messages to be sent immediately are updated again before the commit. The buffered
+     * messages are not visible to queries of the transaction before the commit. Default is false.
+     */
+    boolean isWriteBehindEnabled();
+
+    /**
+     * If enabled, the Kafka producer sending immediately lingers for {@link #getMessageSendImmediatelyBatchWindow()}
+     * ({@code linger.ms}), i.e. the messages sent by concurrently committing transactions are transmitted with fewer and
+     * larger produce requests. A batch is sent before the window has elapsed once it reaches the producer's
+     * {@code batch.size}. Each send still completes once its message has been acknowledged. Adds up to the batch window
+     * to the latency of an immediate send. Default is false.
+     */
+    boolean isMessageSendImmediatelyBatchingEnabled();
+
+    /**
+     * Maximum time to wait for further immediate sends after the first send of a batch if immediate sends are batched,
+     * used as the {@code linger.ms} of the producer. Default is 2 milliseconds, sensible values are in the range of a
+     * few milliseconds.
+     */
+    Duration getMessageSendImmediatelyBatchWindow();
+
+    /**
+     * If enabled, the executors of the outbox run their tasks on virtual threads instead of platform threads, i.e. the
+     * relay lanes, the relay prefetching, the woken up message relay and the asynchronous sending after the transaction
+     * commit. Blocking on the database or on Kafka then does not occupy a platform thread. The number of concurrent sends
+     * stays the same: the after commit send executor still runs {@link #getAfterCommitSendThreadCount()} sends
+     * concurrently in order to keep the messages of a key in commit order. Default is false.
+     */
+    boolean isVirtualThreadsEnabled();
+
+    /**
+     * Number of threads of the executor sending messages after the transaction commit if asynchronous sending is enabled.
+     * Each thread sends the messages of its share of the topics and keys.
+     */
+    int getAfterCommitSendThreadCount();
+
+    /**
+     * Maximum number of committed transactions whose messages wait to be sent by the executor if asynchronous sending is
+     * enabled, split evenly among the executor threads. Messages of transactions committed while the queue of their
+     * thread is full are left to the message relay.
+     */
+    int getAfterCommitSendQueueCapacity();
+
     /**
      * Expected maximum duration for sending a message when sending is immediately after the transaction commit.
      */
     default Duration getMaxDurationSendImmediately() {
-        return getMessageSendImmediatelyMaxBlockTime().plus(getMessageSendImmediatelyTimeout());
+        final Duration maxDuration = getMessageSendImmediatelyMaxBlockTime().plus(getMessageSendImmediatelyTimeout());
+        return isMessageSendImmediatelyBatchingEnabled() ? maxDuration.plus(getMessageSendImmediatelyBatchWindow()) : maxDuration;
     }
 
     /**
@@ -83,16 +320,44 @@ public interface TransactionalOutboxConfiguration {
      */
     Duration getSentMessageRetentionDuration();
 
+    /**
+     * What happens to a message once it has been sent: it is retained in the outbox (default), deleted or moved to the
+     * archive of sent messages. With delete or archive, the outbox table only holds the messages not sent yet and the
+     * failed messages. Archived messages are kept for {@link #getSentMessageRetentionDuration()}.
+     */
+    SentMessageRetentionMode getSentMessageRetentionMode();
+
     /**
      * Duration for which not yet successfully sent messages are kept in the outbox before they get deleted by the house keeping.
      */
     Duration getUnsentMessageRetentionDuration();
 
+    /**
+     * Retention rules overriding {@link #getSentMessageRetentionDuration()} and {@link #getUnsentMessageRetentionDuration()}
+     * for the messages sent to a topic, or for the messages of a message type sent to a topic. The most specific rule
+     * applies to a message, the default durations apply to the messages without a rule. The housekeeping deletes the old
+     * messages of every rule separately. Default is no rules.
+     */
+    List<MessageRetentionRule> getMessageRetentionRules();
+
     /**
      * Interval between metrics updates.
      */
     Duration getMetricsUpdateInterval();
 
+    /**
+     * If enabled, the metrics updates estimate the number of messages ready to be sent from the id range of the messages
+     * ready to be sent (two index lookups) instead of counting them. The messages are counted exactly every
+     * {@link #getMetricsLagReconciliationInterval()} to correct the estimate, and whenever the id range has grown far
+     * beyond the range of the last exact count. Default is false.
+     */
+    boolean isMetricsLagEstimationEnabled();
+
+    /**
+     * Interval between exact counts of the messages ready to be sent and the failed messages if lag estimation is enabled.
+     */
+    Duration getMetricsLagReconciliationInterval();
+
 
     /**
      * Size for the housekeeping queries [pages]. Default is 500
@@ -105,5 +370,63 @@ public interface TransactionalOutboxConfiguration {
      */
     int getHouseKeepingMaxPages();
 
+    /**
+     * If enabled, the housekeeping deletes the old messages by consecutive ranges of ids with one bulk delete per range,
+     * instead of loading the ids of a page of old messages and deleting them by id. The width of the id ranges is adapted
+     * to {@link #getHouseKeepingTargetChunkDuration()}, starting at {@link #getHouseKeepingPageSize()}, and at most
+     * {@link #getHouseKeepingMaxPages()} ranges are deleted per kind and run. Default is false.
+     */
+    boolean isHouseKeepingIdRangeDeletesEnabled();
+
+    /**
+     * Target duration of the transaction deleting one id range if id range deletes are enabled. The id range is doubled
+     * after a faster delete and halved after a slower delete. Default is 500 milliseconds.
+     */
+    Duration getHouseKeepingTargetChunkDuration();
+
+    /**
+     * Maximum width of an id range deleted in one transaction if id range deletes are enabled. Default is 100000.
+     */
+    int getHouseKeepingMaxChunkSize();
+
+    /**
+     * If enabled, the old messages are additionally deleted continuously in small slices every
+     * {@link #getHouseKeepingContinuousInterval()}, limited to {@link #getHouseKeepingContinuousMaxDeletesPerSecond()}.
+     * Each slice continues the id range walk of the previous slice, i.e. the table is kept near its steady-state size
+     * instead of deleting the messages of a whole day in the run scheduled by {@link #getHouseKeepingSchedule()}.
+     * Default is false.
+     */
+    boolean isHouseKeepingContinuousEnabled();
+
+    /**
+     * Delay between two slices of the continuous housekeeping. Default is 10 seconds.
+     */
+    Duration getHouseKeepingContinuousInterval();
+
+    /**
+     * Budget of messages the continuous housekeeping deletes per second on average, i.e. one slice deletes at most the
+     * budget times {@link #getHouseKeepingContinuousInterval()} messages. Default is 500.
+     */
+    int getHouseKeepingContinuousMaxDeletesPerSecond();
+
+    /**
+     * If enabled, the deferred message table is expected to be partitioned by range on the created timestamp (PostgreSQL
+     * only, see the database documentation). The housekeeping then creates the upcoming partitions ahead of time and drops
+     * the partitions whose messages are all older than {@link #getSentMessageRetentionDuration()} instead of deleting
+     * the sent messages one by one. The messages of a dropped partition not sent yet are kept. Default is false.
+     */
+    boolean isHouseKeepingPartitioningEnabled();
+
+    /**
+     * Time range covered by a partition of the deferred message table if partitioning is enabled, e.g. one day or one
+     * hour. Partitions start at multiples of the interval since the epoch (UTC). Default is one day.
+     */
+    Duration getHouseKeepingPartitionInterval();
+
+    /**
+     * Number of partitions created ahead of the current partition if partitioning is enabled. Default is 3.
+     */
+    int getHouseKeepingPartitionsAhead();
+
 }
 
@@ -48,4 +48,18 @@ public class TransactionalOutboxException extends RuntimeException {
         return new TransactionalOutboxException(errorMessage);
     }
 
+    public static TransactionalOutboxException deferredMessagesNotFoundInOutbox(int numMessagesNotFound, int numMessages) {
+        String errorMessage = String.format("%d of %d deferred messages are not stored in the outbox.", numMessagesNotFound, numMessages);
+        return new TransactionalOutboxException(errorMessage);
+    }
+
+    public static TransactionalOutboxException relayLaneFailed(int lane, Throwable cause) {
+        String errorMessage = String.format("Sending the messages of message relay lane %d failed.", lane);
+        return new TransactionalOutboxException(errorMessage, cause);
+    }
+
+    public static TransactionalOutboxException relayPrefetchFailed(Throwable cause) {
+        return new TransactionalOutboxException("Prefetching the next batch of messages to relay failed.", cause);
+    }
+
 }
@@ -0,0 +1,27 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.scheduling;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRelay;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Schedules the message relay without a lock if the relays claim the messages they send. All outbox instances then
+ * relay messages in parallel, each one sending the messages it claimed.
+ */
+@Component
+@ConditionalOnProperty(name = "jeap.messaging.transactional-outbox.message-relay-claiming-enabled", havingValue = "true")
+@ConditionalOnProperty(name = "jeap.messaging.transactional-outbox.message-relay-wake-up-enabled", havingValue = "false", matchIfMissing = true)
+@RequiredArgsConstructor
+public class ClaimingMessageRelayScheduler {
+
+    private final MessageRelay messageRelay;
+
+    @SuppressWarnings("SpringElInspection")
+    @Scheduled(fixedDelayString = "#{@txOutboxConfigProps.pollDelay}")
+    void scheduleOutboxMessageRelay() {
+        messageRelay.relay();
+    }
+
+}
@@ -0,0 +1,37 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.scheduling;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRelay;
+import lombok.RequiredArgsConstructor;
+import net.javacrumbs.shedlock.core.LockAssert;
+import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the message relay holding the same lock as the {@link MessageRelayScheduler} for the
+ * {@link WakeUpMessageRelayScheduler}, i.e. only one outbox instance relays messages at a time.
+ */
+@Component
+@ConditionalOnProperty(name = "jeap.messaging.transactional-outbox.message-relay-wake-up-enabled", havingValue = "true")
+@ConditionalOnProperty(name = "jeap.messaging.transactional-outbox.message-relay-claiming-enabled", havingValue = "false", matchIfMissing = true)
+@RequiredArgsConstructor
+public class LockedMessageRelay {
+
+    private final MessageRelay messageRelay;
+
+    /**
+     * @return Whether messages ready to be sent have been found, or <code>null</code> if the lock is held by a different
+     * relay execution and this relay has therefore been skipped.
+     */
+    @SuppressWarnings("SpringElInspection")
+    @SchedulerLock(name = "outbox-message-relay-tasks",
+            // See MessageRelayScheduler for the reasoning behind the lock lifespans.
+            lockAtLeastFor = "#{@txOutboxConfigProps.pollDelay.dividedBy(2L)}",
+            lockAtMostFor = "#{@txOutboxConfigProps.continuousRelayTimeout.plus(" +
+                            "@txOutboxConfigProps.maxDurationSendScheduled.multipliedBy(@txOutboxConfigProps.messageRelayBatchSizeLimit * 3L).dividedBy(2L))}")
+    public Boolean relay() {
+        LockAssert.assertLocked();
+        return messageRelay.relay();
+    }
+
+}
@@ -0,0 +1,35 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.scheduling;
+
+import java.time.Duration;
+
+/**
+ * Computes the time the message relay waits for a wake-up signal before its next run: the minimum delay after a run that
+ * found messages, doubled after every run that found none up to the maximum delay.
+ */
+class MessageRelayIdleBackoff {
+
+    private final Duration minDelay;
+    private final Duration maxDelay;
+    private Duration delay;
+
+    MessageRelayIdleBackoff(Duration minDelay, Duration maxDelay) {
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay.compareTo(minDelay) < 0 ? minDelay : maxDelay;
+        this.delay = minDelay;
+    }
+
+    Duration nextDelay(boolean foundMessages) {
+        if (foundMessages) {
+            delay = minDelay;
+        } else {
+            Duration doubledDelay = delay.multipliedBy(2);
+            delay = doubledDelay.compareTo(maxDelay) > 0 ? maxDelay : doubledDelay;
+        }
+        return delay;
+    }
+
+    void reset() {
+        delay = minDelay;
+    }
+
+}
@@ -4,11 +4,14 @@ import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRelay;
 import lombok.RequiredArgsConstructor;
 import net.javacrumbs.shedlock.core.LockAssert;
 import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 
 @Component
+@ConditionalOnProperty(name = "jeap.messaging.transactional-outbox.message-relay-claiming-enabled", havingValue = "false", matchIfMissing = true)
+@ConditionalOnProperty(name = "jeap.messaging.transactional-outbox.message-relay-wake-up-enabled", havingValue = "false", matchIfMissing = true)
 @RequiredArgsConstructor
 public class MessageRelayScheduler {
 
@@ -21,11 +24,11 @@ public class MessageRelayScheduler {
             // By setting the minimum lock lifespan to pollDelay/2 the start of a new message relay task cannot be sooner
             // than pollDelay/2 after the previous task started.
             lockAtLeastFor = "#{@txOutboxConfigProps.pollDelay.dividedBy(2L)}",
-            // A message relay task execution is expected to not take longer than continuousRelayTimeout + (maxDurationSendScheduled * messageRelayBatchSize)
+            // A message relay task execution is expected to not take longer than continuousRelayTimeout + (maxDurationSendScheduled * messageRelayBatchSizeLimit)
             // We're adding a safety factor of 1.5 to the second part. The maximum lock lifespan should be kept as small as possible because this is also the duration it would
             // take for a different outbox instance to take over from a failed instance that did not release the lock. We would want this to happen as fast as possible.
             lockAtMostFor = "#{@txOutboxConfigProps.continuousRelayTimeout.plus(" +
-                            "@txOutboxConfigProps.maxDurationSendScheduled.multipliedBy(@txOutboxConfigProps.messageRelayBatchSize * 3L).dividedBy(2L))}")
+                            "@txOutboxConfigProps.maxDurationSendScheduled.multipliedBy(@txOutboxConfigProps.messageRelayBatchSizeLimit * 3L).dividedBy(2L))}")
     void scheduleOutboxMessageRelay() {
         LockAssert.assertLocked();
         messageRelay.relay();
@@ -0,0 +1,26 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.scheduling;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxContinuousHouseKeeping;
+import lombok.RequiredArgsConstructor;
+import net.javacrumbs.shedlock.core.LockAssert;
+import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConditionalOnProperty(name = "jeap.messaging.transactional-outbox.house-keeping-continuous-enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class OutboxContinuousHouseKeepingScheduler {
+
+    private final OutboxContinuousHouseKeeping outboxContinuousHouseKeeping;
+
+    @SuppressWarnings("SpringElInspection")
+    @Scheduled(fixedDelayString = "#{@txOutboxConfigProps.houseKeepingContinuousInterval}")
+    @SchedulerLock(name = "outbox-message-continuous-house-keeping-tasks", lockAtLeastFor = "1s", lockAtMostFor = "10m")
+    void scheduleContinuousHouseKeeping() {
+        LockAssert.assertLocked();
+        outboxContinuousHouseKeeping.deleteOldMessagesSlice();
+    }
+
+}
@@ -0,0 +1,27 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.scheduling;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxPartitionHouseKeeping;
+import lombok.RequiredArgsConstructor;
+import net.javacrumbs.shedlock.core.LockAssert;
+import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConditionalOnProperty(name = "jeap.messaging.transactional-outbox.house-keeping-partitioning-enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class OutboxPartitionHouseKeepingScheduler {
+
+    private final OutboxPartitionHouseKeeping outboxPartitionHouseKeeping;
+
+    // Runs on startup and then several times per partition interval, i.e. the upcoming partitions always exist in time.
+    @SuppressWarnings("SpringElInspection")
+    @Scheduled(fixedDelayString = "#{@txOutboxConfigProps.houseKeepingPartitionInterval.dividedBy(4L)}")
+    @SchedulerLock(name = "outbox-message-partition-house-keeping-tasks", lockAtLeastFor = "5s", lockAtMostFor = "30m")
+    void schedulePartitionHouseKeeping() {
+        LockAssert.assertLocked();
+        outboxPartitionHouseKeeping.maintainPartitions();
+    }
+
+}
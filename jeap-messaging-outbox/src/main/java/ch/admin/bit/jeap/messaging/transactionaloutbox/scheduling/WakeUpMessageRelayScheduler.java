@@ -0,0 +1,111 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.scheduling;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRelay;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRelayWakeUpSignal;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.TransactionalOutboxConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Runs the message relay in a dedicated thread whenever a {@link MessageRelayWakeUpSignal} is received, backing off
+ * from polling for messages while the outbox is idle (see {@link MessageRelayIdleBackoff}). Replaces the
+ * {@link MessageRelayScheduler} and the {@link ClaimingMessageRelayScheduler} if relay wake-up is enabled.
+ * <p>
+ * While another instance holds the relay lock, the relay backs off from acquiring the lock the same way, and local
+ * wake-up signals do not end its wait: the instance holding the lock relays the messages of all instances.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "jeap.messaging.transactional-outbox.message-relay-wake-up-enabled", havingValue = "true")
+public class WakeUpMessageRelayScheduler implements SmartLifecycle {
+
+    private static final String THREAD_NAME = "outbox-message-relay";
+
+    private final MessageRelay messageRelay;
+    private final LockedMessageRelay lockedMessageRelay;
+    private final MessageRelayWakeUpSignal messageRelayWakeUpSignal;
+    private final MessageRelayIdleBackoff idleBackoff;
+    private final MessageRelayIdleBackoff lockNotAcquiredBackoff;
+    private final boolean virtualThreadsEnabled;
+    private volatile Thread relayThread;
+    // Only accessed by the relay thread
+    private boolean lockHeldElsewhere;
+
+    WakeUpMessageRelayScheduler(MessageRelay messageRelay, ObjectProvider<LockedMessageRelay> lockedMessageRelay,
+                                MessageRelayWakeUpSignal messageRelayWakeUpSignal, TransactionalOutboxConfiguration config) {
+        this.messageRelay = messageRelay;
+        // Not available if the relays claim their messages, they then run without a lock.
+        this.lockedMessageRelay = lockedMessageRelay.getIfAvailable();
+        this.messageRelayWakeUpSignal = messageRelayWakeUpSignal;
+        this.idleBackoff = new MessageRelayIdleBackoff(config.getPollDelay(), config.getMessageRelayMaxIdleDelay());
+        // The lock is held for at least pollDelay/2 after a relay run started.
+        this.lockNotAcquiredBackoff = new MessageRelayIdleBackoff(config.getPollDelay().dividedBy(2L), config.getMessageRelayMaxIdleDelay());
+        this.virtualThreadsEnabled = config.isVirtualThreadsEnabled();
+    }
+
+    @Override
+    public void start() {
+        Thread.Builder relayThreadBuilder = virtualThreadsEnabled ?
+                Thread.ofVirtual().name(THREAD_NAME) :
+                Thread.ofPlatform().name(THREAD_NAME).daemon();
+        relayThread = relayThreadBuilder.start(this::relayUntilStopped);
+    }
+
+    @Override
+    public void stop() {
+        Thread thread = relayThread;
+        relayThread = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return relayThread != null;
+    }
+
+    private void relayUntilStopped() {
+        log.info("Starting message relay woken up by {}.", messageRelayWakeUpSignal.getClass().getSimpleName());
+        while (relayThread == Thread.currentThread()) {
+            try {
+                Duration delay = relayOnce();
+                if (lockHeldElsewhere) {
+                    // Signals of this instance do not help while another instance relays
+                    Thread.sleep(delay);
+                } else {
+                    boolean signalled = messageRelayWakeUpSignal.await(delay);
+                    log.debug("Message relay woken up by {}.", signalled ? "signal" : "idle timeout");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("Stopped message relay.");
+    }
+
+    private Duration relayOnce() {
+        try {
+            Boolean foundMessages = lockedMessageRelay != null ? lockedMessageRelay.relay() : messageRelay.relay();
+            lockHeldElsewhere = foundMessages == null;
+            if (lockHeldElsewhere) {
+                Duration delay = lockNotAcquiredBackoff.nextDelay(false);
+                log.debug("Message relay lock not acquired, retrying in {}.", delay);
+                return delay;
+            }
+            lockNotAcquiredBackoff.reset();
+            return idleBackoff.nextDelay(foundMessages);
+        } catch (Exception e) {
+            log.error("Message relay failed.", e);
+            lockHeldElsewhere = false;
+            return idleBackoff.nextDelay(false);
+        }
+    }
+
+}
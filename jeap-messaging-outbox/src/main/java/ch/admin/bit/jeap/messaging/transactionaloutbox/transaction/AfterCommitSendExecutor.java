@@ -0,0 +1,129 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.transaction;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.config.TransactionalOutboxConfigurationProperties;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessage;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxThreadFactory;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the sending of messages after the transaction commit on a dedicated, bounded executor if asynchronous
+ * immediate sending is enabled (see {@link TransactionalOutboxConfigurationProperties#isAfterCommitSendAsyncEnabled()}).
+ * The thread that committed the transaction then does not have to wait on Kafka.
+ * <p>
+ * The executor consists of one lane per thread, each with its own queue. The messages of a topic and key always go to
+ * the same lane, which sends them one transaction after the other. Messages with the same key committed by consecutive
+ * transactions are therefore sent in commit order. With virtual threads enabled (see
+ * {@link TransactionalOutboxConfigurationProperties#isVirtualThreadsEnabled()}) the lanes run on virtual threads.
+ * <p>
+ * A send task that waited in its lane's queue for longer than the expected maximum duration of an immediate send is
+ * not run. Its messages are released to the message relay instead, as the relay might otherwise already send them too.
+ * The lane then drains: it also releases all send tasks queued behind the released one until its queue is empty, so
+ * that no later message of a key is sent before the released messages. Messages committed after the lane has drained
+ * may still be sent before the relay has sent the released ones, as after an immediate send that failed.
+ */
+@Slf4j
+@Component
+@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+class AfterCommitSendExecutor {
+
+    static final String EXECUTOR_NAME = "outbox-after-commit-send";
+
+    private final List<Lane> lanes;
+    private final Duration maxQueueWait;
+    private final Optional<OutboxMetrics> outboxMetrics;
+
+    AfterCommitSendExecutor(TransactionalOutboxConfigurationProperties config, Optional<OutboxMetrics> outboxMetrics) {
+        this.outboxMetrics = outboxMetrics;
+        this.maxQueueWait = config.getMaxDurationSendImmediately();
+        if (config.isAfterCommitSendAsyncEnabled()) {
+            int numLanes = Math.max(1, config.getAfterCommitSendThreadCount());
+            // The queue capacity is split evenly among the lanes
+            int laneQueueCapacity = Math.ceilDiv(Math.max(1, config.getAfterCommitSendQueueCapacity()), numLanes);
+            this.lanes = new ArrayList<>(numLanes);
+            for (int lane = 0; lane < numLanes; lane++) {
+                ThreadPoolExecutor laneExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(laneQueueCapacity),
+                        new OutboxThreadFactory(config, EXECUTOR_NAME + "-" + lane + "-"),
+                        new ThreadPoolExecutor.AbortPolicy());
+                String laneExecutorName = EXECUTOR_NAME + "-" + lane;
+                outboxMetrics.ifPresent(metrics -> metrics.monitorExecutor(laneExecutor, laneExecutorName));
+                lanes.add(new Lane(laneExecutor));
+            }
+        } else {
+            this.lanes = List.of();
+        }
+    }
+
+    boolean isEnabled() {
+        return !lanes.isEmpty();
+    }
+
+    /**
+     * @return The lane sending the given message. All messages with the same topic and key are sent by the same lane.
+     */
+    int getLane(DeferredMessage message) {
+        return DeferredMessage.getLane(message, lanes.size());
+    }
+
+    /**
+     * Submit the sending of the given number of messages to the given lane.
+     *
+     * @param releaseTask Run instead of the send task if the send task waited too long in the queue of the lane, or if it
+     *                    is queued behind a send task that did
+     * @return <code>true</code> if the send task has been accepted, <code>false</code> if the lane is saturated.
+     */
+    boolean execute(int laneIndex, Runnable sendTask, Runnable releaseTask, int numMessages) {
+        final long submitNanos = System.nanoTime();
+        final Lane lane = lanes.get(laneIndex);
+        try {
+            lane.executor.execute(() -> {
+                Duration queueWait = Duration.ofNanos(System.nanoTime() - submitNanos);
+                if (lane.draining || queueWait.compareTo(maxQueueWait) > 0) {
+                    // Keep releasing until the queue is empty, later messages of a key must not overtake the released ones
+                    lane.draining = !lane.executor.getQueue().isEmpty();
+                    log.debug("Send task of {} messages waited {} in the after commit send executor, releasing the messages to the message relay.",
+                            numMessages, queueWait);
+                    outboxMetrics.ifPresent(metrics -> metrics.countAfterCommitSendRejected(numMessages));
+                    releaseTask.run();
+                } else {
+                    sendTask.run();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.debug("After commit send executor rejected sending {} messages.", numMessages, e);
+            outboxMetrics.ifPresent(metrics -> metrics.countAfterCommitSendRejected(numMessages));
+            return false;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        // Messages not sent yet remain in the outbox and will be sent by the message relay.
+        lanes.forEach(lane -> lane.executor.shutdown());
+    }
+
+    private static final class Lane {
+
+        private final ThreadPoolExecutor executor;
+        // Only accessed by the single thread of the lane
+        private boolean draining;
+
+        private Lane(ThreadPoolExecutor executor) {
+            this.executor = executor;
+        }
+    }
+
+}
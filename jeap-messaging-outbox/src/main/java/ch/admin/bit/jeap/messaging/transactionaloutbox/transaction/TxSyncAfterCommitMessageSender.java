@@ -16,8 +16,14 @@ import org.springframework.transaction.support.TransactionTemplate;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static net.logstash.logback.argument.StructuredArguments.kv;
 
@@ -31,6 +37,9 @@ public class TxSyncAfterCommitMessageSender implements AfterCommitMessageSender
     private final DeferredMessageRepository deferredMessageRepository;
     private final PlatformTransactionManager transactionManager;
     private final TransactionalOutboxConfigurationProperties config;
+    private final AfterCommitSendExecutor afterCommitSendExecutor;
+    private final MessageRelayWakeUpSignal messageRelayWakeUpSignal;
+    private final SendCircuitBreaker sendCircuitBreaker;
 
     @Override
     public void sendImmediatelyAfterTransactionCommit(DeferredMessage deferredMessage) {
@@ -46,6 +55,47 @@ public class TxSyncAfterCommitMessageSender implements AfterCommitMessageSender
         }
     }
 
+    @Override
+    public void sendImmediatelyAfterTransactionCommit(Collection<DeferredMessage> deferredMessages) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            log.warn("Transaction synchronization not available. Skipping immediate send after transaction commit for {} deferred messages.", deferredMessages.size());
+            return;
+        }
+        try {
+            getDeferredMessagesSendingTxSync().addDeferredMessages(deferredMessages);
+            log.debug("Registered {} deferred messages to be sent immediately.", deferredMessages.size());
+        } catch (Exception e) {
+            log.warn("Registering {} deferred messages for after commit send failed. Skipping immediate send.", deferredMessages.size(), e);
+        }
+    }
+
+    @Override
+    public boolean insertBeforeTransactionCommit(Collection<DeferredMessage> deferredMessages) {
+        if (!config.isWriteBehindEnabled() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        getDeferredMessagesSendingTxSync().addDeferredMessagesToInsert(deferredMessages);
+        log.debug("Registered {} deferred messages to be inserted before commit.", deferredMessages.size());
+        return true;
+    }
+
+    @Override
+    public void wakeUpMessageRelayAfterTransactionCommit() {
+        if (!config.isMessageRelayWakeUpEnabled()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Without a transaction the messages have already been committed
+            messageRelayWakeUpSignal.signal();
+            return;
+        }
+        boolean alreadyRegistered = TransactionSynchronizationManager.getSynchronizations().stream()
+                .anyMatch(MessageRelayWakeUpTxSync.class::isInstance);
+        if (!alreadyRegistered) {
+            TransactionSynchronizationManager.registerSynchronization(new MessageRelayWakeUpTxSync(messageRelayWakeUpSignal));
+        }
+    }
+
     private StructuredArgument messageIdLogArgument(DeferredMessage deferredMessage) {
         return kv("deferredMessageId", deferredMessage.getId());
     }
@@ -64,11 +114,20 @@ public class TxSyncAfterCommitMessageSender implements AfterCommitMessageSender
 
     private DeferredMessagesSendingTxSync registerNewDeferredMessagesSendingTxSync() {
         var deferredMessagesSendingTxSync = new DeferredMessagesSendingTxSync(deferredMessageSenderProvider,
-                config.getMaxDurationSendImmediately(), exceptionHandler, deferredMessageRepository, transactionManager);
+                config.getMaxDurationSendImmediately(), exceptionHandler, deferredMessageRepository, transactionManager, afterCommitSendExecutor,
+                config.isMessageRelayWakeUpEnabled() ? messageRelayWakeUpSignal : null, sendCircuitBreaker, config.getSentMessageRetentionMode());
         TransactionSynchronizationManager.registerSynchronization(deferredMessagesSendingTxSync);
         return deferredMessagesSendingTxSync;
     }
 
+    private record MessageRelayWakeUpTxSync(MessageRelayWakeUpSignal messageRelayWakeUpSignal) implements TransactionSynchronization {
+
+        @Override
+        public void afterCommit() {
+            messageRelayWakeUpSignal.signal();
+        }
+    }
+
     @Slf4j
     private static class DeferredMessagesSendingTxSync implements TransactionSynchronization {
 
@@ -77,61 +136,204 @@ public class TxSyncAfterCommitMessageSender implements AfterCommitMessageSender
         private final DeferredMessageSendExceptionHandler exceptionHandler;
         private final DeferredMessageRepository deferredMessageRepository;
         private final TransactionTemplate transactionTemplate;
+        private final AfterCommitSendExecutor afterCommitSendExecutor;
+        // null if the message relay is not woken up by signals but polls with a fixed delay
+        private final MessageRelayWakeUpSignal messageRelayWakeUpSignal;
+        private final SendCircuitBreaker sendCircuitBreaker;
+        private final SentMessageRetentionMode sentMessageRetentionMode;
 
 
         private DeferredMessagesSendingTxSync(DeferredMessageSenderProvider deferredMessageSenderProvider, Duration maxSendDuration, DeferredMessageSendExceptionHandler exceptionHandler,
-                                              DeferredMessageRepository deferredMessageRepository, PlatformTransactionManager transactionManager) {
+                                              DeferredMessageRepository deferredMessageRepository, PlatformTransactionManager transactionManager,
+                                              AfterCommitSendExecutor afterCommitSendExecutor, MessageRelayWakeUpSignal messageRelayWakeUpSignal,
+                                              SendCircuitBreaker sendCircuitBreaker, SentMessageRetentionMode sentMessageRetentionMode) {
             this.deferredMessageSenderProvider = deferredMessageSenderProvider;
             this.maxSendDuration = maxSendDuration;
             this.exceptionHandler = exceptionHandler;
             this.deferredMessageRepository = deferredMessageRepository;
+            this.afterCommitSendExecutor = afterCommitSendExecutor;
+            this.messageRelayWakeUpSignal = messageRelayWakeUpSignal;
+            this.sendCircuitBreaker = sendCircuitBreaker;
+            this.sentMessageRetentionMode = sentMessageRetentionMode;
             this.transactionTemplate = new TransactionTemplate(transactionManager);
             this.transactionTemplate.setPropagationBehavior(Propagation.REQUIRES_NEW.value());
         }
 
         private List<DeferredMessage> deferredMessages = new ArrayList<>();
+        // New messages to be inserted before commit if write-behind is enabled, not yet part of the deferred messages to send
+        private final List<DeferredMessage> deferredMessagesToInsert = new ArrayList<>();
 
         private void addDeferredMessage(DeferredMessage deferredMessage) {
             deferredMessages.add(deferredMessage);
         }
 
+        private void addDeferredMessages(Collection<DeferredMessage> deferredMessagesToAdd) {
+            deferredMessages.addAll(deferredMessagesToAdd);
+        }
+
+        private void addDeferredMessagesToInsert(Collection<DeferredMessage> deferredMessagesToAdd) {
+            deferredMessagesToInsert.addAll(deferredMessagesToAdd);
+        }
+
         @Override
         public void beforeCommit(boolean readOnly) {
-            final Duration relayDelay = maxSendDuration.multipliedBy(deferredMessages.size());
+            final long numMessagesToSendImmediately = deferredMessages.size() +
+                    deferredMessagesToInsert.stream().filter(DeferredMessage::isSendImmediately).count();
+            // If sent asynchronously, the messages may wait up to the maximum send duration in the executor before being sent
+            final long numSendDurations = afterCommitSendExecutor.isEnabled() ? numMessagesToSendImmediately + 1 : numMessagesToSendImmediately;
+            final Duration relayDelay = maxSendDuration.multipliedBy(numSendDurations);
             final ZonedDateTime beforeCommitTime = ZonedDateTime.now();
             final ZonedDateTime scheduleAfter = beforeCommitTime.plus(relayDelay);
-            deferredMessages.forEach(deferredMessage ->
-                    deferredMessageRepository.setScheduleAfter(deferredMessage.getId(), scheduleAfter));
+            if (!deferredMessages.isEmpty()) {
+                deferredMessageRepository.setScheduleAfter(getIds(deferredMessages), scheduleAfter);
+            }
+            if (!deferredMessagesToInsert.isEmpty()) {
+                insertDeferredMessages(scheduleAfter);
+            }
+        }
+
+        private void insertDeferredMessages(ZonedDateTime scheduleAfter) {
+            deferredMessagesToInsert.stream()
+                    .filter(DeferredMessage::isSendImmediately)
+                    .forEach(deferredMessage -> deferredMessage.scheduleAfterBeforeInsert(scheduleAfter));
+            List<DeferredMessage> insertedMessages = deferredMessageRepository.saveAll(deferredMessagesToInsert);
+            log.debug("Inserted {} deferred messages before commit.", insertedMessages.size());
+            insertedMessages.stream()
+                    .filter(DeferredMessage::isSendImmediately)
+                    .forEach(deferredMessages::add);
+            deferredMessagesToInsert.clear();
         }
 
         @Override
         public void afterCommit() {
-            executeInNewTransaction(this::sendMessages);
+            if (deferredMessages.isEmpty()) {
+                // Only messages to be sent by the message relay have been inserted
+                return;
+            }
+            // The registered messages are cleared after completion, the send task needs its own copy.
+            final List<DeferredMessage> messagesToSend = List.copyOf(deferredMessages);
+            if (!afterCommitSendExecutor.isEnabled()) {
+                sendAndRecordSendOutcomes(messagesToSend);
+            } else {
+                sendOnLanes(messagesToSend);
+            }
         }
 
-        private void sendMessages() {
-            int numSentMessages = 0;
+        private void sendOnLanes(List<DeferredMessage> messagesToSend) {
+            // Messages with the same topic and key go to the same lane, keeping them in commit order across transactions
+            Map<Integer, List<DeferredMessage>> messagesByLane = messagesToSend.stream()
+                    .collect(Collectors.groupingBy(afterCommitSendExecutor::getLane, LinkedHashMap::new, Collectors.toList()));
+            List<DeferredMessage> rejectedMessages = new ArrayList<>();
+            messagesByLane.forEach((lane, laneMessages) -> {
+                if (!afterCommitSendExecutor.execute(lane, () -> sendAndRecordSendOutcomes(laneMessages),
+                        () -> releaseToMessageRelay(laneMessages), laneMessages.size())) {
+                    rejectedMessages.addAll(laneMessages);
+                }
+            });
+            if (!rejectedMessages.isEmpty()) {
+                log.warn("After commit send executor saturated, leaving {} deferred messages to the message relay.", rejectedMessages.size());
+                releaseToMessageRelay(rejectedMessages);
+            }
+        }
+
+        private void sendAndRecordSendOutcomes(List<DeferredMessage> messagesToSend) {
+            // Send without a transaction in order to not hold an additional database connection during the network I/O,
+            // then record the outcomes of all messages in one short transaction.
+            List<Long> sentMessageIds = new ArrayList<>(messagesToSend.size());
+            Map<DeferredMessage, DeferredMessageSendException> failedMessages = new LinkedHashMap<>();
+            sendMessages(messagesToSend, sentMessageIds, failedMessages);
+            recordSendOutcomes(sentMessageIds, failedMessages);
+            if (messageRelayWakeUpSignal != null && sentMessageIds.size() + failedMessages.size() < messagesToSend.size()) {
+                // Let the woken up message relay send the unsent messages now instead of after their relay delay.
+                releaseToMessageRelay(getUnsentMessages(messagesToSend, sentMessageIds, failedMessages));
+            }
+        }
+
+        private static List<DeferredMessage> getUnsentMessages(List<DeferredMessage> messages, List<Long> sentMessageIds,
+                                                               Map<DeferredMessage, DeferredMessageSendException> failedMessages) {
+            Set<Long> sentIds = new HashSet<>(sentMessageIds);
+            return messages.stream()
+                    .filter(message -> !sentIds.contains(message.getId()) && !failedMessages.containsKey(message))
+                    .toList();
+        }
+
+        private void releaseToMessageRelay(List<DeferredMessage> messagesToRelease) {
             try {
-                for (DeferredMessage deferredMessage : deferredMessages) {
+                executeInNewTransaction(() -> deferredMessageRepository.setScheduleAfter(getIds(messagesToRelease), ZonedDateTime.now()));
+                if (messageRelayWakeUpSignal != null) {
+                    messageRelayWakeUpSignal.signal();
+                }
+            } catch (Exception e) {
+                // The messages will still be sent by the message relay once their relay delay has passed.
+                log.warn("Unable to release {} deferred messages to the message relay.", messagesToRelease.size(), e);
+            }
+        }
+
+        private static List<Long> getIds(List<DeferredMessage> messages) {
+            return messages.stream().map(DeferredMessage::getId).toList();
+        }
+
+        private void sendMessages(List<DeferredMessage> messagesToSend, List<Long> sentMessageIds, Map<DeferredMessage, DeferredMessageSendException> failedMessages) {
+            try {
+                for (DeferredMessage deferredMessage : messagesToSend) {
+                    if (!sendCircuitBreaker.tryAcquirePermission(deferredMessage)) {
+                        // Its cluster and topic cannot be sent to at the moment, leave the message to the message relay.
+                        continue;
+                    }
                     try {
                         DeferredMessageSender deferredMessageSender = deferredMessageSenderProvider.getDeferredMessageSenderForCluster(deferredMessage);
                         deferredMessageSender.sendAsImmediate(deferredMessage);
-                        numSentMessages++;
-                        deferredMessageRepository.markSentImmediately(deferredMessage.getId(), ZonedDateTime.now());
+                        sentMessageIds.add(deferredMessage.getId());
+                        sendCircuitBreaker.recordSuccess(deferredMessage);
                     } catch (DeferredMessageSendException e) {
-                        executeInNewTransaction(() -> exceptionHandler.handle(deferredMessage, e));
+                        if (!e.getReason().causedByMessage) {
+                            sendCircuitBreaker.recordFailure(deferredMessage);
+                            throw e;
+                        }
+                        failedMessages.put(deferredMessage, e);
                     }
                 }
             } catch (Exception e) {
                 // The outbox message relay process will try to continue sending later (for unsent, not failed messages).
-                int numUnsetMessages = deferredMessages.size() - numSentMessages;
+                int numUnsetMessages = messagesToSend.size() - sentMessageIds.size() - failedMessages.size();
                 log.warn("Unable to send all deferred messages immediately after transaction commit, {} messages not sent.", numUnsetMessages, e);
             }
         }
 
+        private void recordSendOutcomes(List<Long> sentMessageIds, Map<DeferredMessage, DeferredMessageSendException> failedMessages) {
+            if (sentMessageIds.isEmpty() && failedMessages.isEmpty()) {
+                return;
+            }
+            try {
+                executeInNewTransaction(() -> {
+                    if (!sentMessageIds.isEmpty()) {
+                        recordSent(sentMessageIds);
+                    }
+                    if (!failedMessages.isEmpty()) {
+                        exceptionHandler.handleAll(failedMessages);
+                    }
+                });
+            } catch (Exception e) {
+                // The messages are still pending and will be sent again by the outbox message relay process.
+                log.warn("Unable to record the outcome of {} deferred messages sent immediately after transaction commit.",
+                        sentMessageIds.size() + failedMessages.size(), e);
+            }
+        }
+
+        private void recordSent(List<Long> sentMessageIds) {
+            if (sentMessageRetentionMode == SentMessageRetentionMode.DELETE) {
+                deferredMessageRepository.deleteSentMessages(sentMessageIds);
+            } else if (sentMessageRetentionMode == SentMessageRetentionMode.ARCHIVE) {
+                deferredMessageRepository.archiveSentMessages(sentMessageIds, ZonedDateTime.now(), true);
+            } else {
+                deferredMessageRepository.markSentImmediately(sentMessageIds, ZonedDateTime.now());
+            }
+        }
+
         @Override
         public void afterCompletion(int status) {
             deferredMessages.clear();
+            deferredMessagesToInsert.clear();
         }
 
         private void executeInNewTransaction(Runnable r) {
@@ -1,7 +1,9 @@
 package ch.admin.bit.jeap.messaging.transactionaloutbox.jpa;
 
+import ch.admin.bit.jeap.messaging.transactionaloutbox.config.TransactionalOutboxConfigurationProperties;
 import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.*;
 import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
@@ -25,7 +27,7 @@ import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
 @Transactional
 @DataJpaTest
-@ContextConfiguration(classes = OutboxJpaConfig.class)
+@ContextConfiguration(classes = {OutboxJpaConfig.class, TransactionalOutboxConfigurationProperties.class})
 class JpaDeferredMessageRepositoryTest {
 
     private static final byte[] MESSAGE = "test-message".getBytes(StandardCharsets.UTF_8);
@@ -43,6 +45,14 @@ class JpaDeferredMessageRepositoryTest {
     @Autowired
     TestEntityManager testEntityManager;
 
+    @Autowired
+    private TransactionalOutboxConfigurationProperties config;
+
+    @AfterEach
+    void tearDown() {
+        config.setMessageRelayRetryEnabled(false);
+    }
+
     @Test
     void testSave() {
         final ZonedDateTime beforeCreation = ZonedDateTime.now();
@@ -103,6 +113,69 @@ class JpaDeferredMessageRepositoryTest {
                 .hasMessageContaining("42");
     }
 
+    @Test
+    void testMarkSentForCollectionOfIds() {
+        final DeferredMessage scheduledMessage1 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage scheduledMessage2 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage immediateMessage = jpaDeferredMessageRepository.save(createTestMessage(true));
+        final DeferredMessage unsentMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        testEntityManager.flush();
+        final ZonedDateTime sentTime = truncateToMillis(ZonedDateTime.now());
+
+        jpaDeferredMessageRepository.markSentScheduled(List.of(scheduledMessage1.getId(), scheduledMessage2.getId()), sentTime);
+        jpaDeferredMessageRepository.markSentImmediately(List.of(immediateMessage.getId()), sentTime);
+
+        assertThat(flushDetachAndFind(scheduledMessage1).getSentScheduled()).isEqualTo(sentTime);
+        assertThat(flushDetachAndFind(scheduledMessage2).getSentScheduled()).isEqualTo(sentTime);
+        assertThat(flushDetachAndFind(immediateMessage).getSentImmediately()).isEqualTo(sentTime);
+        assertThat(flushDetachAndFind(immediateMessage).getDeliveryState()).isEqualTo(DeliveryState.SENT);
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10))
+                .extracting(DeferredMessage::getId).containsExactly(unsentMessage.getId());
+
+        assertThatThrownBy(() -> jpaDeferredMessageRepository.markSentScheduled(List.of(unsentMessage.getId(), 42L), sentTime))
+                .isInstanceOf(TransactionalOutboxException.class)
+                .hasMessageContaining("1 of 2");
+    }
+
+    @Test
+    void testDeleteAndArchiveSentMessages() {
+        final DeferredMessage deletedMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage archivedMessage1 = jpaDeferredMessageRepository.save(createTestMessage(true));
+        final DeferredMessage archivedMessage2 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage unsentMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        testEntityManager.flush();
+        final ZonedDateTime sentTime = truncateToMillis(ZonedDateTime.now());
+
+        jpaDeferredMessageRepository.deleteSentMessages(List.of(deletedMessage.getId()));
+        jpaDeferredMessageRepository.archiveSentMessages(List.of(archivedMessage1.getId()), sentTime.minusDays(1), true);
+        jpaDeferredMessageRepository.archiveSentMessages(List.of(archivedMessage2.getId()), sentTime, false);
+        testEntityManager.clear();
+
+        assertThat(jpaDeferredMessageRepository.findAll()).extracting(DeferredMessage::getId).containsExactly(unsentMessage.getId());
+        assertThat(countArchivedMessages()).isEqualTo(2);
+        assertThat(jpaDeferredMessageRepository.deleteArchivedMessagesSentBefore(sentTime.minusHours(1), 10)).isEqualTo(1);
+        assertThat(countArchivedMessages()).isEqualTo(1);
+    }
+
+    @Test
+    void testDeleteAndArchiveSentMessages_whenRecordedTwice_thenIgnoresMessagesAlreadyGone() {
+        final DeferredMessage deletedMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage archivedMessage = jpaDeferredMessageRepository.save(createTestMessage(true));
+        final DeferredMessage unsentMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        testEntityManager.flush();
+        final ZonedDateTime sentTime = truncateToMillis(ZonedDateTime.now());
+
+        // E.g. sent by the after-commit sender and by the relay
+        jpaDeferredMessageRepository.deleteSentMessages(List.of(deletedMessage.getId()));
+        jpaDeferredMessageRepository.deleteSentMessages(List.of(deletedMessage.getId()));
+        jpaDeferredMessageRepository.archiveSentMessages(List.of(archivedMessage.getId()), sentTime, true);
+        jpaDeferredMessageRepository.archiveSentMessages(List.of(archivedMessage.getId()), sentTime, false);
+        testEntityManager.clear();
+
+        assertThat(jpaDeferredMessageRepository.findAll()).extracting(DeferredMessage::getId).containsExactly(unsentMessage.getId());
+        assertThat(countArchivedMessages()).isEqualTo(1);
+    }
+
     @Test
     void testMarkFailed() {
         final DeferredMessage deferredMessage = createTestMessage(false);
@@ -123,6 +196,24 @@ class JpaDeferredMessageRepositoryTest {
                 .hasMessageContaining("42");
     }
 
+    @Test
+    void testMarkFailedForCollectionOfIds() {
+        final DeferredMessage failedMessage1 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage failedMessage2 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage pendingMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        testEntityManager.flush();
+        final ZonedDateTime failedTime = truncateToMillis(ZonedDateTime.now());
+
+        jpaDeferredMessageRepository.markFailed(List.of(failedMessage1.getId(), failedMessage2.getId()), failedTime, SendFailureReason.INVALID_TOPIC);
+
+        assertThat(flushDetachAndFind(failedMessage1).getFailed()).isEqualTo(failedTime);
+        assertThat(flushDetachAndFind(failedMessage2).getFailReason()).isEqualTo(SendFailureReason.INVALID_TOPIC);
+        assertThat(flushDetachAndFind(pendingMessage).getFailed()).isNull();
+
+        assertThatThrownBy(() -> jpaDeferredMessageRepository.markFailed(List.of(42L), failedTime, SendFailureReason.INVALID_TOPIC))
+                .isInstanceOf(TransactionalOutboxException.class);
+    }
+
     @Test
     void testSetScheduleAfter() {
         final DeferredMessage deferredMessage = createTestMessage(true);
@@ -158,6 +249,118 @@ class JpaDeferredMessageRepositoryTest {
                 .hasMessageContaining("42");
     }
 
+    @Test
+    void testDeliveryState() {
+        final DeferredMessage sentMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage failedMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage resendMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage resendRevokedMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        assertThat(sentMessage.getDeliveryState()).isEqualTo(DeliveryState.PENDING);
+        testEntityManager.flush();
+
+        jpaDeferredMessageRepository.markSentScheduled(sentMessage.getId(), ZonedDateTime.now());
+        jpaDeferredMessageRepository.markFailed(failedMessage.getId(), ZonedDateTime.now(), SendFailureReason.MESSAGE_TOO_LARGE);
+        jpaDeferredMessageRepository.markFailed(resendMessage.getId(), ZonedDateTime.now(), SendFailureReason.MESSAGE_TOO_LARGE);
+        jpaDeferredMessageRepository.markForResend(resendMessage.getId(), true);
+        jpaDeferredMessageRepository.markFailed(resendRevokedMessage.getId(), ZonedDateTime.now(), SendFailureReason.MESSAGE_TOO_LARGE);
+        jpaDeferredMessageRepository.markForResend(resendRevokedMessage.getId(), true);
+        jpaDeferredMessageRepository.markForResend(resendRevokedMessage.getId(), false);
+
+        assertThat(flushDetachAndFind(sentMessage).getDeliveryState()).isEqualTo(DeliveryState.SENT);
+        assertThat(flushDetachAndFind(failedMessage).getDeliveryState()).isEqualTo(DeliveryState.FAILED);
+        assertThat(flushDetachAndFind(resendMessage).getDeliveryState()).isEqualTo(DeliveryState.PENDING);
+        assertThat(flushDetachAndFind(resendRevokedMessage).getDeliveryState()).isEqualTo(DeliveryState.FAILED);
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10))
+                .extracting(DeferredMessage::getId).containsExactly(resendMessage.getId());
+    }
+
+    @Test
+    void testScheduleNextAttempt() {
+        final DeferredMessage backingOffMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage retryDueMessage = jpaDeferredMessageRepository.save(createTestMessage(false, "other-topic", TEST_MESSAGE));
+        testEntityManager.flush();
+
+        jpaDeferredMessageRepository.scheduleNextAttempt(backingOffMessage.getId(), 1, ZonedDateTime.now().plusMinutes(1));
+        jpaDeferredMessageRepository.scheduleNextAttempt(retryDueMessage.getId(), 2, ZonedDateTime.now().minusSeconds(1));
+
+        DeferredMessage found = flushDetachAndFind(backingOffMessage);
+        assertThat(found.getAttempts()).isEqualTo(1);
+        assertThat(found.getNextAttemptAt()).isAfter(ZonedDateTime.now());
+        assertThat(flushDetachAndFind(retryDueMessage).getAttempts()).isEqualTo(2);
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10))
+                .extracting(DeferredMessage::getId).containsExactly(retryDueMessage.getId());
+        assertThat(jpaDeferredMessageRepository.countMessagesReadyToBeSent()).isEqualTo(1);
+        // The message backing off does not widen the id range the outbox lag is estimated from
+        assertThat(jpaDeferredMessageRepository.findMinIdOfMessagesReadyToBeSent()).contains(retryDueMessage.getId());
+    }
+
+    @Test
+    void testFindMessagesReadyToBeSent_whenMessageBackingOff_thenSkipsLaterMessagesWithSameTopicAndKey() {
+        config.setMessageRelayRetryEnabled(true);
+        final DeferredMessage backingOffMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage sameKeyMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage otherTopicMessage = jpaDeferredMessageRepository.save(createTestMessage(false, "other-topic", TEST_MESSAGE));
+        testEntityManager.flush();
+
+        jpaDeferredMessageRepository.scheduleNextAttempt(backingOffMessage.getId(), 1, ZonedDateTime.now().plusMinutes(1));
+        testEntityManager.clear();
+
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10))
+                .extracting(DeferredMessage::getId).containsExactly(otherTopicMessage.getId());
+        jpaDeferredMessageRepository.scheduleNextAttempt(backingOffMessage.getId(), 1, ZonedDateTime.now().minusSeconds(1));
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10))
+                .extracting(DeferredMessage::getId).containsExactly(backingOffMessage.getId(), sameKeyMessage.getId(), otherTopicMessage.getId());
+    }
+
+    @Test
+    void testFindMessagesReadyToBeSent_whenRetryDisabled_thenDoesNotSkipLaterMessagesWithSameTopicAndKey() {
+        final DeferredMessage backingOffMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage sameKeyMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        testEntityManager.flush();
+
+        jpaDeferredMessageRepository.scheduleNextAttempt(backingOffMessage.getId(), 1, ZonedDateTime.now().plusMinutes(1));
+        testEntityManager.clear();
+
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10))
+                .extracting(DeferredMessage::getId).containsExactly(sameKeyMessage.getId());
+        assertThat(jpaDeferredMessageRepository.countMessagesReadyToBeSent()).isOne();
+    }
+
+    @Test
+    void testFindMessagesReadyToBeSentExcludingClusterTopics() {
+        final DeferredMessage defaultClusterMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage otherClusterMessage = jpaDeferredMessageRepository.save(DeferredMessage.builder()
+                .message(MESSAGE)
+                .clusterName("other-cluster")
+                .topic(TOPIC)
+                .messageId(UUID.randomUUID().toString())
+                .messageIdempotenceId(UUID.randomUUID().toString())
+                .messageTypeName(TEST_MESSAGE)
+                .build());
+        testEntityManager.flush();
+
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10, List.of()))
+                .extracting(DeferredMessage::getId).containsExactly(defaultClusterMessage.getId(), otherClusterMessage.getId());
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10, List.of(new ClusterTopic(null, TOPIC))))
+                .extracting(DeferredMessage::getId).containsExactly(otherClusterMessage.getId());
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10, List.of(new ClusterTopic("other-cluster", TOPIC), new ClusterTopic(null, "other-topic"))))
+                .extracting(DeferredMessage::getId).containsExactly(defaultClusterMessage.getId());
+    }
+
+    @Test
+    void testFindMessagesReadyToBeSentAfterId() {
+        final DeferredMessage deferredMessage1 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage deferredMessage2 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage deferredMessage3 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        testEntityManager.flush();
+
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(1, deferredMessage1.getId(), List.of()))
+                .extracting(DeferredMessage::getId).containsExactly(deferredMessage2.getId());
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10, deferredMessage1.getId(), List.of(new ClusterTopic(null, "other-topic"))))
+                .extracting(DeferredMessage::getId).containsExactly(deferredMessage2.getId(), deferredMessage3.getId());
+        assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(10, deferredMessage3.getId(), List.of())).isEmpty();
+    }
+
     @Test
     void testFindMessagesReadyToBeSentNumMessages() {
         assertThat(jpaDeferredMessageRepository.findMessagesReadyToBeSent(1)).isEmpty();
@@ -223,6 +426,57 @@ class JpaDeferredMessageRepositoryTest {
         assertThat(readyToBeSentDeferredMessages.get(2).getId()).isEqualTo(deferredMessage7.getId());
     }
 
+    @Test
+    void testClaimMessagesReadyToBeSent() {
+        final DeferredMessage deferredMessage1 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage deferredMessage2 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage deferredMessage3 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        testEntityManager.flush();
+        final ZonedDateTime claimedUntil = truncateToMillis(ZonedDateTime.now().plusMinutes(1));
+
+        List<DeferredMessage> claimedByRelay1 = jpaDeferredMessageRepository.claimMessagesReadyToBeSent("relay-1", claimedUntil, 2);
+        List<DeferredMessage> claimedByRelay2 = jpaDeferredMessageRepository.claimMessagesReadyToBeSent("relay-2", claimedUntil, 2);
+
+        assertThat(claimedByRelay1).extracting(DeferredMessage::getId).containsExactly(deferredMessage1.getId(), deferredMessage2.getId());
+        assertThat(claimedByRelay1).allSatisfy(deferredMessage -> {
+            assertThat(deferredMessage.getClaimedBy()).isEqualTo("relay-1");
+            assertThat(deferredMessage.getClaimedUntil()).isEqualTo(claimedUntil);
+        });
+        assertThat(claimedByRelay2).extracting(DeferredMessage::getId).containsExactly(deferredMessage3.getId());
+        // A relay can claim the messages it already claimed again
+        assertThat(jpaDeferredMessageRepository.claimMessagesReadyToBeSent("relay-1", claimedUntil, 10))
+                .extracting(DeferredMessage::getId).containsExactly(deferredMessage1.getId(), deferredMessage2.getId());
+        assertThat(jpaDeferredMessageRepository.claimMessagesReadyToBeSent("relay-3", claimedUntil, 10)).isEmpty();
+    }
+
+    @Test
+    void testClaimMessagesReadyToBeSent_whenClaimExpired_thenMessagesCanBeClaimedByOtherRelay() {
+        final DeferredMessage deferredMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        testEntityManager.flush();
+        jpaDeferredMessageRepository.claimMessagesReadyToBeSent("relay-1", ZonedDateTime.now().minusSeconds(1), 10);
+
+        List<DeferredMessage> claimedByRelay2 = jpaDeferredMessageRepository.claimMessagesReadyToBeSent("relay-2", ZonedDateTime.now().plusMinutes(1), 10);
+
+        assertThat(claimedByRelay2).extracting(DeferredMessage::getId).containsExactly(deferredMessage.getId());
+        assertThat(claimedByRelay2.getFirst().getClaimedBy()).isEqualTo("relay-2");
+    }
+
+    @Test
+    void testRenewClaims_whenClaimTakenOverByOtherRelay_thenOnlyRenewsOwnClaims() {
+        final DeferredMessage deferredMessage1 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        final DeferredMessage deferredMessage2 = jpaDeferredMessageRepository.save(createTestMessage(false));
+        testEntityManager.flush();
+        jpaDeferredMessageRepository.claimMessagesReadyToBeSent("relay-1", ZonedDateTime.now().minusSeconds(1), 10);
+        jpaDeferredMessageRepository.claimMessagesReadyToBeSent("relay-2", ZonedDateTime.now().plusMinutes(1), 1);
+        final ZonedDateTime renewedUntil = truncateToMillis(ZonedDateTime.now().plusMinutes(2));
+
+        int numRenewed = jpaDeferredMessageRepository.renewClaims("relay-1", List.of(deferredMessage1.getId(), deferredMessage2.getId()), renewedUntil);
+
+        assertThat(numRenewed).isOne();
+        assertThat(jpaDeferredMessageRepository.getById(deferredMessage1.getId()).getClaimedBy()).isEqualTo("relay-2");
+        assertThat(jpaDeferredMessageRepository.getById(deferredMessage2.getId()).getClaimedUntil()).isEqualTo(renewedUntil);
+    }
+
     @Test
     void testCountFailedMessages() {
         final ZonedDateTime failedStartFrom = ZonedDateTime.now();
@@ -408,6 +662,54 @@ class JpaDeferredMessageRepositoryTest {
         assertThat(foundMessages).containsExactly(deferredMessage3);
     }
 
+    @Test
+    void testDeleteInIdRange() {
+        final ZonedDateTime sentTime = truncateToMillis(ZonedDateTime.now().minusHours(1));
+        final DeferredMessage sentMessage1 = createAndSaveDeferredMessage(false, sentTime, false, false);
+        final DeferredMessage sentMessage2 = createAndSaveDeferredMessage(true, sentTime, false, false);
+        final DeferredMessage sentMessage3 = createAndSaveDeferredMessage(false, sentTime, false, false);
+        final DeferredMessage unsentMessage = createAndSaveDeferredMessage(false, null, null, false);
+        testEntityManager.flush();
+        final ZonedDateTime now = ZonedDateTime.now();
+
+        assertThat(jpaDeferredMessageRepository.findMinId()).contains(sentMessage1.getId());
+        assertThat(jpaDeferredMessageRepository.findIdOfLastMessageCreatedBefore(now.minusDays(1))).isEmpty();
+        assertThat(jpaDeferredMessageRepository.deleteMessagesSentBeforeInIdRange(sentMessage1.getId(), sentMessage3.getId(), now)).isEqualTo(2);
+        assertThat(jpaDeferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(sentMessage1.getId(), unsentMessage.getId(), now)).isZero();
+        assertThat(jpaDeferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(unsentMessage.getId(), unsentMessage.getId() + 1, now)).isEqualTo(1);
+        testEntityManager.clear();
+
+        assertThat(jpaDeferredMessageRepository.findAll()).extracting(DeferredMessage::getId).containsExactly(sentMessage3.getId());
+    }
+
+    @Test
+    void testFindAndDeleteInRetentionScope() {
+        final DeferredMessage topicMessage = jpaDeferredMessageRepository.save(createTestMessage(false));
+        jpaDeferredMessageRepository.save(createTestMessage(false, "other-topic", TEST_MESSAGE));
+        final DeferredMessage otherTypeMessage = jpaDeferredMessageRepository.save(createTestMessage(false, TOPIC, "OtherMessage"));
+        testEntityManager.flush();
+        final ZonedDateTime now = ZonedDateTime.now();
+        final RetentionScope.TopicMessageType otherType = new RetentionScope.TopicMessageType(TOPIC, "OtherMessage");
+        final RetentionScope defaultScope = new RetentionScope(null, null, Set.of("other-topic"), Set.of(otherType));
+        final RetentionScope topicScope = new RetentionScope(TOPIC, null, Set.of(), Set.of(otherType));
+        final RetentionScope otherTypeScope = new RetentionScope(TOPIC, "OtherMessage", Set.of(), Set.of());
+        final RetentionScope otherTopicScope = new RetentionScope("other-topic", null, Set.of(), Set.of());
+
+        assertThat(jpaDeferredMessageRepository.findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(now, defaultScope, Pageable.ofSize(10)))
+                .containsExactly(topicMessage.getId());
+        assertThat(jpaDeferredMessageRepository.findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(now, topicScope, Pageable.ofSize(10)))
+                .containsExactly(topicMessage.getId());
+        assertThat(jpaDeferredMessageRepository.findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(now, otherTypeScope, Pageable.ofSize(10)))
+                .containsExactly(otherTypeMessage.getId());
+        assertThat(jpaDeferredMessageRepository.findSentImmediatelyBeforeOrSentScheduledBefore(now, otherTopicScope, Pageable.ofSize(10))).isEmpty();
+        assertThat(jpaDeferredMessageRepository.deleteMessagesSentBeforeInIdRange(topicMessage.getId(), otherTypeMessage.getId() + 1, now, otherTopicScope)).isZero();
+        assertThat(jpaDeferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(topicMessage.getId(), otherTypeMessage.getId() + 1, now, otherTopicScope)).isEqualTo(1);
+        testEntityManager.clear();
+
+        assertThat(jpaDeferredMessageRepository.findAll()).extracting(DeferredMessage::getId)
+                .containsExactlyInAnyOrder(topicMessage.getId(), otherTypeMessage.getId());
+    }
+
     private DeferredMessage createAndSaveDeferredMessage(boolean sendImmediately, ZonedDateTime failedOrSucceededAt, Boolean failed, boolean resend) {
         long deferredMessageId = jpaDeferredMessageRepository.save(createTestMessage(sendImmediately)).getId();
         if (failed == null) {
@@ -431,14 +733,18 @@ class JpaDeferredMessageRepositoryTest {
     }
 
     private DeferredMessage createTestMessage(boolean sendImmediately) {
+        return createTestMessage(sendImmediately, TOPIC, TEST_MESSAGE);
+    }
+
+    private DeferredMessage createTestMessage(boolean sendImmediately, String topic, String messageTypeName) {
         return DeferredMessage.builder()
                 .message(MESSAGE)
                 .key(KEY)
-                .topic(TOPIC)
+                .topic(topic)
                 .sendImmediately(sendImmediately)
                 .messageId(UUID.randomUUID().toString())
                 .messageIdempotenceId(UUID.randomUUID().toString())
-                .messageTypeName(TEST_MESSAGE)
+                .messageTypeName(messageTypeName)
                 .messageTypeVersion(VERSION)
                 .traceContext(OutboxTraceContext.builder().traceId(1L).spanId(1L).parentSpanId(1L).build())
                 .build();
@@ -450,6 +756,12 @@ class JpaDeferredMessageRepositoryTest {
         return testEntityManager.find(DeferredMessage.class, deferredMessage.getId());
     }
 
+    private long countArchivedMessages() {
+        return ((Number) testEntityManager.getEntityManager()
+                .createNativeQuery("SELECT COUNT(*) FROM deferred_message_sent")
+                .getSingleResult()).longValue();
+    }
+
     // As the database is only able to store milliseconds precision we have to truncate ZondeDateTime values to milliseconds to be able
     // to do an equals comparison between ZondeDateTime instances sent to the database and the date time data read back from the database.
     private ZonedDateTime truncateToMillis(ZonedDateTime zonedDateTime) {
@@ -0,0 +1,76 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.messaging;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessage;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessageSendException;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.SendFailureReason;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TopicHealthCacheTest {
+
+    private static final Duration TTL = Duration.ofSeconds(10);
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Test
+    void getKnownFailure_whenTopicUnauthorized_thenFailsOtherMessagesToTopicUntilTtlElapsed() {
+        TopicHealthCache topicHealthCache = new TopicHealthCache(TTL, nanoTime::get);
+        DeferredMessage failedMessage = createMessage("unauthorized-topic");
+        Exception sendException = new RuntimeException("unauthorized");
+
+        topicHealthCache.recordFailure(failedMessage, DeferredMessageSendException.topicAuthorizationException(failedMessage, sendException));
+
+        DeferredMessage nextMessage = createMessage("unauthorized-topic");
+        assertThat(topicHealthCache.getKnownFailure(nextMessage)).hasValueSatisfying(failure -> {
+            assertThat(failure.getReason()).isEqualTo(SendFailureReason.UNAUTHORIZED_ON_TOPIC);
+            assertThat(failure.getCause()).isSameAs(sendException);
+            assertThat(failure.getMessage()).contains("unauthorized-topic");
+        });
+        assertThat(topicHealthCache.getKnownFailure(createMessage("other-topic"))).isEmpty();
+
+        nanoTime.addAndGet(TTL.toNanos());
+        assertThat(topicHealthCache.getKnownFailure(nextMessage)).isEmpty();
+    }
+
+    @Test
+    void recordFailure_whenFailureNotCausedByTopic_thenTopicNotCached() {
+        TopicHealthCache topicHealthCache = new TopicHealthCache(TTL, nanoTime::get);
+        DeferredMessage tooLargeMessage = createMessage("topic");
+        DeferredMessage generalFailureMessage = createMessage("topic");
+
+        topicHealthCache.recordFailure(tooLargeMessage,
+                DeferredMessageSendException.messageTooLargeException(tooLargeMessage, new RuntimeException("too large")));
+        topicHealthCache.recordFailure(generalFailureMessage,
+                DeferredMessageSendException.generalSendException(generalFailureMessage, new RuntimeException("timeout")));
+
+        assertThat(topicHealthCache.getKnownFailure(createMessage("topic"))).isEmpty();
+    }
+
+    @Test
+    void recordFailure_whenTtlZero_thenDisabled() {
+        TopicHealthCache topicHealthCache = new TopicHealthCache(Duration.ZERO, nanoTime::get);
+        DeferredMessage failedMessage = createMessage("invalid-topic");
+
+        topicHealthCache.recordFailure(failedMessage,
+                DeferredMessageSendException.invalidTopicException(failedMessage, new RuntimeException("invalid")));
+
+        assertThat(topicHealthCache.getKnownFailure(createMessage("invalid-topic"))).isEmpty();
+    }
+
+    private static DeferredMessage createMessage(String topic) {
+        return DeferredMessage.builder()
+                .message("message".getBytes(StandardCharsets.UTF_8))
+                .topic(topic)
+                .messageId(UUID.randomUUID().toString())
+                .messageIdempotenceId(UUID.randomUUID().toString())
+                .messageTypeName("TestMessage")
+                .build();
+    }
+
+}
@@ -0,0 +1,73 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.metrics;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessageRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxLagEstimatorTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    @Mock
+    private DeferredMessageRepository deferredMessageRepository;
+
+    @Test
+    void estimateMessagesReadyToBeSent_scalesReadyIdRangeByDensityOfLastExactCount() {
+        OutboxLagEstimator lagEstimator = new OutboxLagEstimator(deferredMessageRepository, Duration.ofMinutes(5), Clock.fixed(NOW, ZoneOffset.UTC));
+        assertThat(lagEstimator.isReconciliationDue()).isTrue();
+        when(deferredMessageRepository.findMinIdOfMessagesReadyToBeSent()).thenReturn(Optional.of(101L));
+        when(deferredMessageRepository.findMaxId()).thenReturn(Optional.of(300L), Optional.of(500L));
+
+        // 50 of the 200 ids from 101 to 300 belong to messages ready to be sent
+        lagEstimator.reconcile(50);
+
+        assertThat(lagEstimator.isReconciliationDue()).isFalse();
+        assertThat(lagEstimator.estimateMessagesReadyToBeSent()).hasValue(100);
+    }
+
+    @Test
+    void estimateMessagesReadyToBeSent_whenNoMessagesReadyToBeSent_thenZero() {
+        OutboxLagEstimator lagEstimator = new OutboxLagEstimator(deferredMessageRepository, Duration.ofMinutes(5), Clock.fixed(NOW, ZoneOffset.UTC));
+        when(deferredMessageRepository.findMinIdOfMessagesReadyToBeSent()).thenReturn(Optional.empty());
+
+        assertThat(lagEstimator.estimateMessagesReadyToBeSent()).hasValue(0);
+    }
+
+    @Test
+    void estimateMessagesReadyToBeSent_whenReadyIdRangeGrewFarBeyondLastExactCount_thenNoEstimate() {
+        OutboxLagEstimator lagEstimator = new OutboxLagEstimator(deferredMessageRepository, Duration.ofMinutes(5), Clock.fixed(NOW, ZoneOffset.UTC));
+        // The message with the old id 1 became ready to be sent again after backing off for long
+        when(deferredMessageRepository.findMinIdOfMessagesReadyToBeSent()).thenReturn(Optional.of(19_901L), Optional.of(1L));
+        when(deferredMessageRepository.findMaxId()).thenReturn(Optional.of(20_000L));
+
+        lagEstimator.reconcile(100);
+
+        assertThat(lagEstimator.estimateMessagesReadyToBeSent()).isEmpty();
+    }
+
+    @Test
+    void estimateMessagesReadyToBeSent_whenIdleAtLastExactCount_thenEstimatesWithinMinCalibratedIdRange() {
+        OutboxLagEstimator lagEstimator = new OutboxLagEstimator(deferredMessageRepository, Duration.ofMinutes(5), Clock.fixed(NOW, ZoneOffset.UTC));
+        when(deferredMessageRepository.findMinIdOfMessagesReadyToBeSent()).thenReturn(Optional.empty(), Optional.of(101L), Optional.of(101L));
+        when(deferredMessageRepository.findMaxId()).thenReturn(Optional.of(200L), Optional.of(20_000L));
+
+        lagEstimator.reconcile(0);
+
+        // New messages do not force an exact count on every update, unless far more arrived than the min calibrated range
+        assertThat(lagEstimator.estimateMessagesReadyToBeSent()).hasValue(100);
+        assertThat(lagEstimator.estimateMessagesReadyToBeSent()).isEmpty();
+    }
+
+}
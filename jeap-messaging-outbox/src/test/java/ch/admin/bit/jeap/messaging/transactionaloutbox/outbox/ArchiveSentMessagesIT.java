@@ -0,0 +1,80 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import ch.admin.bit.jeap.messaging.kafka.contract.ContractsValidator;
+import ch.admin.bit.jeap.messaging.kafka.metrics.KafkaMessagingMetrics;
+import ch.admin.bit.jeap.messaging.kafka.signature.publisher.SignaturePublisherProperties;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.testsupport.DeferredMessageTestUtil;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.testsupport.OutboxMockKafkaNoSchedulingTestConfig;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.testsupport.StringMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.Commit;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+
+@DataJpaTest(properties = "jeap.messaging.transactional-outbox.sent-message-retention-mode=ARCHIVE")
+@ContextConfiguration(classes = OutboxMockKafkaNoSchedulingTestConfig.class)
+class ArchiveSentMessagesIT {
+
+    @Autowired
+    TransactionalOutbox transactionalOutbox;
+
+    @Autowired
+    DeferredMessageRepository deferredMessageRepository;
+
+    @Autowired
+    DataSource dataSource;
+
+    @MockitoBean
+    DeferredMessageSender deferredMessageSenderMock;
+
+    @MockitoBean
+    ContractsValidator contractsValidator;
+
+    @MockitoBean
+    OutboxTracing outboxTracing;
+
+    @MockitoBean
+    KafkaMessagingMetrics kafkaMessagingMetrics;
+
+    @MockitoBean
+    @SuppressWarnings("unused")
+    SignaturePublisherProperties signaturePublisherProperties;
+
+    @Commit
+    @Transactional
+    @Test
+    void testSend_whenArchiveMode_thenSentMessageMovedToArchive() {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        DeferredMessageTestUtil.with(deferredMessageRepository).deleteAllMessagesAfter(() -> {
+            transactionalOutbox.sendMessage(StringMessage.from("immediate-message"), "topic");
+            transactionalOutbox.sendMessageScheduled(StringMessage.from("scheduled-message"), "topic");
+
+            TestTransaction.end();
+
+            verify(deferredMessageSenderMock).sendAsImmediate(any());
+            TestTransaction.start();
+            List<DeferredMessage> deferredMessages = deferredMessageRepository.findAll();
+            assertThat(deferredMessages).hasSize(1);
+            assertThat(deferredMessages.getFirst().isSendImmediately()).isFalse();
+            TestTransaction.end();
+            List<Map<String, Object>> archivedMessages = jdbcTemplate.queryForList("SELECT topic, sent_immediately FROM deferred_message_sent");
+            assertThat(archivedMessages).hasSize(1);
+            assertThat(archivedMessages.getFirst()).containsEntry("TOPIC", "topic").containsEntry("SENT_IMMEDIATELY", true);
+            jdbcTemplate.update("DELETE FROM deferred_message_sent");
+        });
+    }
+
+}
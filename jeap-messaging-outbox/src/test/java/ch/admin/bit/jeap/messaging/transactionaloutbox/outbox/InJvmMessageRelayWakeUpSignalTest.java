@@ -0,0 +1,46 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InJvmMessageRelayWakeUpSignalTest {
+
+    private final InJvmMessageRelayWakeUpSignal wakeUpSignal = new InJvmMessageRelayWakeUpSignal();
+
+    @Test
+    void await_whenNoSignal_thenTimesOut() throws InterruptedException {
+        assertThat(wakeUpSignal.await(Duration.ofMillis(50))).isFalse();
+    }
+
+    @Test
+    void await_whenSignalledBeforeWaiting_thenReturnsImmediatelyAndConsumesSignal() throws InterruptedException {
+        wakeUpSignal.signal();
+        wakeUpSignal.signal();
+
+        assertThat(wakeUpSignal.await(Duration.ofMinutes(1))).isTrue();
+        assertThat(wakeUpSignal.await(Duration.ofMillis(50))).isFalse();
+    }
+
+    @Test
+    void await_whenSignalledWhileWaiting_thenWakesUp() throws Exception {
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return wakeUpSignal.await(Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+        Thread.sleep(100);
+
+        wakeUpSignal.signal();
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+}
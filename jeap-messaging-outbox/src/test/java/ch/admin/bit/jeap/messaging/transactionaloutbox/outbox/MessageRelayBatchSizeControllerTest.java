@@ -0,0 +1,100 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.IntSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MessageRelayBatchSizeControllerTest {
+
+    private static final Duration TARGET_DURATION = Duration.ofSeconds(1);
+    private static final Duration FAST = Duration.ofMillis(100);
+
+    @Mock
+    private TransactionalOutboxConfiguration config;
+
+    @Mock
+    private OutboxMetrics outboxMetrics;
+
+    @Test
+    void batchSent_whenFullBatchesSentFast_thenGrowsAdditivelyUpToMax() {
+        MessageRelayBatchSizeController controller = createAdaptiveController();
+
+        controller.batchSent(10, FAST);
+        assertThat(controller.getBatchSize()).isEqualTo(15);
+        controller.batchSent(15, FAST);
+        assertThat(controller.getBatchSize()).isEqualTo(20);
+        for (int i = 0; i < 100; i++) {
+            controller.batchSent(controller.getBatchSize(), FAST);
+        }
+        assertThat(controller.getBatchSize()).isEqualTo(100);
+    }
+
+    @Test
+    void batchSent_whenBatchNotFull_thenKeepsSize() {
+        MessageRelayBatchSizeController controller = createAdaptiveController();
+
+        controller.batchSent(3, FAST);
+
+        assertThat(controller.getBatchSize()).isEqualTo(10);
+    }
+
+    @Test
+    void batchSentSlowOrFailed_thenHalvesDownToMin() {
+        MessageRelayBatchSizeController controller = createAdaptiveController();
+        for (int i = 0; i < 6; i++) {
+            controller.batchSent(controller.getBatchSize(), FAST);
+        }
+        assertThat(controller.getBatchSize()).isEqualTo(40);
+
+        controller.batchSent(40, TARGET_DURATION.plusMillis(1));
+        assertThat(controller.getBatchSize()).isEqualTo(20);
+        controller.batchFailed();
+        assertThat(controller.getBatchSize()).isEqualTo(10);
+        controller.batchFailed();
+        controller.batchFailed();
+        assertThat(controller.getBatchSize()).isEqualTo(5);
+    }
+
+    @Test
+    void whenNotAdaptive_thenFixedBatchSize() {
+        when(config.getMessageRelayBatchSize()).thenReturn(10);
+        when(config.getMessageRelayBatchSizeLimit()).thenReturn(10);
+        MessageRelayBatchSizeController controller = new MessageRelayBatchSizeController(config, Optional.empty());
+
+        controller.batchSent(10, FAST);
+        controller.batchFailed();
+
+        assertThat(controller.getBatchSize()).isEqualTo(10);
+    }
+
+    @Test
+    void constructor_registersBatchSizeGauge() {
+        when(config.getMessageRelayBatchSize()).thenReturn(10);
+        when(config.getMessageRelayBatchSizeLimit()).thenReturn(10);
+
+        new MessageRelayBatchSizeController(config, Optional.of(outboxMetrics));
+
+        verify(outboxMetrics).monitorRelayBatchSize(any(IntSupplier.class));
+    }
+
+    private MessageRelayBatchSizeController createAdaptiveController() {
+        when(config.isMessageRelayAdaptiveBatchSizeEnabled()).thenReturn(true);
+        when(config.getMessageRelayBatchSize()).thenReturn(10);
+        when(config.getMessageRelayMinBatchSize()).thenReturn(5);
+        when(config.getMessageRelayBatchSizeLimit()).thenReturn(100);
+        when(config.getMessageRelayTargetBatchDuration()).thenReturn(TARGET_DURATION);
+        return new MessageRelayBatchSizeController(config, Optional.empty());
+    }
+
+}
@@ -0,0 +1,110 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MessageRelayLanesTest {
+
+    private static final int NUM_LANES = 4;
+
+    @Mock
+    private TransactionalOutboxConfiguration config;
+
+    @Mock
+    private OutboxMetrics outboxMetrics;
+
+    private MessageRelayLanes messageRelayLanes;
+
+    @BeforeEach
+    void setUp() {
+        when(config.getMessageRelayWorkerCount()).thenReturn(NUM_LANES);
+        messageRelayLanes = new MessageRelayLanes(config, Optional.of(outboxMetrics));
+    }
+
+    @AfterEach
+    void tearDown() {
+        messageRelayLanes.shutdown();
+    }
+
+    @Test
+    void getLane_whenSameTopicAndKey_thenSameLane() {
+        DeferredMessage message1 = createMessage("topic-a", "key-1");
+        DeferredMessage message2 = createMessage("topic-a", "key-1");
+
+        assertThat(messageRelayLanes.getLane(message1)).isEqualTo(messageRelayLanes.getLane(message2));
+        assertThat(messageRelayLanes.getLane(message1)).isBetween(0, NUM_LANES - 1);
+        assertThat(messageRelayLanes.getLane(createMessage("topic-a", null))).isBetween(0, NUM_LANES - 1);
+    }
+
+    @Test
+    void send_whenMessagesWithDifferentKeys_thenSentInParallelLanesKeepingOrderPerKey() {
+        List<DeferredMessage> messages = IntStream.range(0, 40)
+                .mapToObj(i -> createMessage("topic-a", "key-" + (i % 8)))
+                .toList();
+        List<DeferredMessage> sentMessages = new CopyOnWriteArrayList<>();
+        Set<String> laneThreads = ConcurrentHashMap.newKeySet();
+
+        List<DeferredMessageSendResult> results = messageRelayLanes.send(messages, laneMessages -> {
+            laneThreads.add(Thread.currentThread().getName());
+            sentMessages.addAll(laneMessages);
+            return laneMessages.stream().map(DeferredMessageSendResult::success).toList();
+        });
+
+        assertThat(results).extracting(DeferredMessageSendResult::getDeferredMessage).containsExactlyInAnyOrderElementsOf(messages);
+        assertThat(laneThreads).allMatch(threadName -> threadName.startsWith("outbox-relay-lane-"));
+        for (int i = 0; i < 8; i++) {
+            String key = "key-" + i;
+            List<DeferredMessage> expectedOrder = messages.stream().filter(m -> hasKey(m, key)).toList();
+            assertThat(sentMessages.stream().filter(m -> hasKey(m, key)).toList()).containsExactlyElementsOf(expectedOrder);
+        }
+        verify(outboxMetrics, atLeast(1)).recordRelayLaneSend(anyInt(), anyInt(), any(Duration.class));
+    }
+
+    @Test
+    void send_whenNoMessages_thenNoLaneSends() {
+        List<DeferredMessageSendResult> results = messageRelayLanes.send(Collections.emptyList(), _ -> {
+            throw new IllegalStateException("No lane should send");
+        });
+
+        assertThat(results).isEmpty();
+    }
+
+    private static boolean hasKey(DeferredMessage message, String key) {
+        return new String(message.getKey(), StandardCharsets.UTF_8).equals(key);
+    }
+
+    private static DeferredMessage createMessage(String topic, String key) {
+        return DeferredMessage.builder()
+                .message("message".getBytes(StandardCharsets.UTF_8))
+                .key(key == null ? null : key.getBytes(StandardCharsets.UTF_8))
+                .topic(topic)
+                .messageId(UUID.randomUUID().toString())
+                .messageIdempotenceId(UUID.randomUUID().toString())
+                .messageTypeName("TestMessage")
+                .build();
+    }
+
+}
@@ -0,0 +1,127 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.LongStream;
+
+import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRelayPrefetcher.FROM_START;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MessageRelayPrefetcherTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    @Mock
+    private TransactionalOutboxConfiguration config;
+
+    @Mock
+    private OutboxMetrics outboxMetrics;
+
+    private MessageRelayPrefetcher prefetcher;
+
+    private final List<Long> fetchedAfterIds = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        prefetcher.shutdown();
+    }
+
+    @Test
+    void next_whenPrefetching_thenNextBatchesContinueAfterLastFetchedId() {
+        createPrefetcher(2);
+
+        try (MessageRelayPrefetcher.Batches batches = prefetcher.start(afterId -> fetch(afterId, 5))) {
+            assertThat(batches.next()).extracting(DeferredMessage::getId).containsExactly(1L, 2L);
+            assertThat(batches.next()).extracting(DeferredMessage::getId).containsExactly(3L, 4L);
+            assertThat(batches.next()).extracting(DeferredMessage::getId).containsExactly(5L);
+        }
+
+        assertThat(fetchedAfterIds).startsWith(FROM_START, 2L, 4L);
+        verify(outboxMetrics, atLeastOnce()).recordRelayStage(eq(OutboxMetrics.RELAY_STAGE_FETCH), any(Duration.class));
+        verify(outboxMetrics, atLeastOnce()).recordRelayStage(eq(OutboxMetrics.RELAY_STAGE_AWAIT_FETCH), any(Duration.class));
+    }
+
+    @Test
+    void next_whenRestarted_thenFetchesFromStartAgain() {
+        createPrefetcher(1);
+
+        try (MessageRelayPrefetcher.Batches batches = prefetcher.start(afterId -> fetch(afterId, 5))) {
+            assertThat(batches.next()).extracting(DeferredMessage::getId).containsExactly(1L, 2L);
+            batches.restart();
+            assertThat(batches.next()).extracting(DeferredMessage::getId).containsExactly(1L, 2L);
+        }
+    }
+
+    @Test
+    void next_whenNoMessagesAfterLastFetchedId_thenFetchesFromStartBeforeReportingNoMessages() {
+        createPrefetcher(1);
+
+        try (MessageRelayPrefetcher.Batches batches = prefetcher.start(afterId -> fetch(afterId, 2))) {
+            assertThat(batches.next()).extracting(DeferredMessage::getId).containsExactly(1L, 2L);
+            // Messages 1 and 2 are still ready to be sent as they have not been marked as sent by this test
+            assertThat(batches.next()).extracting(DeferredMessage::getId).containsExactly(1L, 2L);
+        }
+
+        assertThat(fetchedAfterIds).startsWith(FROM_START, 2L, FROM_START);
+    }
+
+    @Test
+    void next_whenNoPrefetching_thenAlwaysFetchesFromStartOnCallingThread() {
+        createPrefetcher(0);
+        final Thread callingThread = Thread.currentThread();
+
+        try (MessageRelayPrefetcher.Batches batches = prefetcher.start(afterId -> {
+            assertThat(Thread.currentThread()).isSameAs(callingThread);
+            return fetch(afterId, 5);
+        })) {
+            assertThat(batches.next()).extracting(DeferredMessage::getId).containsExactly(1L, 2L);
+            assertThat(batches.next()).extracting(DeferredMessage::getId).containsExactly(1L, 2L);
+        }
+
+        assertThat(fetchedAfterIds).containsExactly(FROM_START, FROM_START);
+    }
+
+    private void createPrefetcher(int depth) {
+        when(config.getMessageRelayPrefetchDepth()).thenReturn(depth);
+        prefetcher = new MessageRelayPrefetcher(config, Optional.of(outboxMetrics));
+    }
+
+    private List<DeferredMessage> fetch(long afterId, long numReadyMessages) {
+        fetchedAfterIds.add(afterId);
+        return LongStream.rangeClosed(1, numReadyMessages)
+                .filter(id -> id > afterId)
+                .limit(BATCH_SIZE)
+                .mapToObj(MessageRelayPrefetcherTest::createMessage)
+                .toList();
+    }
+
+    private static DeferredMessage createMessage(long id) {
+        DeferredMessage message = DeferredMessage.builder()
+                .message("message".getBytes(StandardCharsets.UTF_8))
+                .topic("topic")
+                .messageId(UUID.randomUUID().toString())
+                .messageIdempotenceId(UUID.randomUUID().toString())
+                .messageTypeName("TestMessage")
+                .build();
+        ReflectionTestUtils.setField(message, "id", id);
+        return message;
+    }
+
+}
@@ -0,0 +1,44 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MessageRelayRetryBackoffTest {
+
+    @Mock
+    private TransactionalOutboxConfiguration config;
+
+    private MessageRelayRetryBackoff retryBackoff;
+
+    @BeforeEach
+    void setUp() {
+        when(config.getMessageRelayRetryInitialDelay()).thenReturn(Duration.ofSeconds(2));
+        when(config.getMessageRelayRetryMaxDelay()).thenReturn(Duration.ofMinutes(1));
+        retryBackoff = new MessageRelayRetryBackoff(config);
+    }
+
+    @Test
+    void getDelay_doublesPerAttemptWithJitterOfHalfTheDelay() {
+        for (int i = 0; i < 20; i++) {
+            assertThat(retryBackoff.getDelay(1)).isBetween(Duration.ofSeconds(1), Duration.ofSeconds(2));
+            assertThat(retryBackoff.getDelay(2)).isBetween(Duration.ofSeconds(2), Duration.ofSeconds(4));
+            assertThat(retryBackoff.getDelay(4)).isBetween(Duration.ofSeconds(8), Duration.ofSeconds(16));
+        }
+    }
+
+    @Test
+    void getDelay_whenManyAttempts_thenCappedAtMaxDelay() {
+        assertThat(retryBackoff.getDelay(10)).isBetween(Duration.ofSeconds(30), Duration.ofMinutes(1));
+        assertThat(retryBackoff.getDelay(Integer.MAX_VALUE)).isBetween(Duration.ofSeconds(30), Duration.ofMinutes(1));
+    }
+
+}
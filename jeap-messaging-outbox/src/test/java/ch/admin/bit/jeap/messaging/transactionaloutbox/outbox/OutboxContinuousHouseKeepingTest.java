@@ -0,0 +1,101 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.HOUSE_KEEPING_KIND_SENT;
+import static ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics.HOUSE_KEEPING_KIND_UNSENT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxContinuousHouseKeepingTest {
+
+    @Mock
+    private DeferredMessageRepository deferredMessageRepository;
+
+    @Mock
+    private TransactionalOutboxConfiguration config;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private OutboxMetrics outboxMetrics;
+
+    @Captor
+    private ArgumentCaptor<LongSupplier> backlogCaptor;
+
+    @BeforeEach
+    void setup() {
+        when(config.getHouseKeepingPageSize()).thenReturn(10);
+        when(config.getHouseKeepingMaxPages()).thenReturn(100);
+        when(config.getHouseKeepingTargetChunkDuration()).thenReturn(Duration.ofMinutes(1));
+        when(config.getHouseKeepingContinuousInterval()).thenReturn(Duration.ofSeconds(10));
+        when(config.getHouseKeepingContinuousMaxDeletesPerSecond()).thenReturn(3);
+        when(config.getUnsentMessageRetentionDuration()).thenReturn(Duration.ofDays(30));
+        when(deferredMessageRepository.findMinId()).thenReturn(Optional.of(1L));
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+    }
+
+    @Test
+    void deleteOldMessagesSlice_whenMoreOldMessagesThanBudget_thenNextSliceContinuesWhereTheLastSliceStopped() {
+        when(config.isHouseKeepingContinuousEnabled()).thenReturn(true);
+        when(config.getHouseKeepingMaxChunkSize()).thenReturn(1000);
+        when(config.getSentMessageRetentionDuration()).thenReturn(Duration.ofDays(7));
+        // Sent messages up to id 1000 are old enough, no unsent messages are old enough
+        when(deferredMessageRepository.findIdOfLastMessageCreatedBefore(any()))
+                .thenReturn(Optional.of(1000L), Optional.empty(), Optional.of(1000L), Optional.empty());
+        when(deferredMessageRepository.deleteMessagesSentBeforeInIdRange(anyLong(), anyLong(), any()))
+                .thenAnswer(invocation -> (int) (invocation.<Long>getArgument(1) - invocation.<Long>getArgument(0)));
+        OutboxContinuousHouseKeeping houseKeeping = new OutboxContinuousHouseKeeping(deferredMessageRepository, config, transactionTemplate, Optional.of(outboxMetrics));
+        verify(outboxMetrics).monitorHouseKeepingBacklog(eq(HOUSE_KEEPING_KIND_SENT), backlogCaptor.capture());
+        verify(outboxMetrics).monitorHouseKeepingBacklog(eq(HOUSE_KEEPING_KIND_UNSENT), any());
+
+        houseKeeping.deleteOldMessagesSlice();
+        houseKeeping.deleteOldMessagesSlice();
+
+        // Budget of 3 messages per second and 10 seconds per slice, i.e. 30 messages per slice
+        assertThat(houseKeeping.getSliceBudget()).isEqualTo(30);
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(1L), eq(11L), any());
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(11L), eq(31L), any());
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(31L), eq(61L), any());
+        verify(deferredMessageRepository, times(3)).deleteMessagesSentBeforeInIdRange(anyLong(), anyLong(), any());
+        verify(deferredMessageRepository, never()).deleteUnsentMessagesCreatedBeforeInIdRange(anyLong(), anyLong(), any());
+        verify(outboxMetrics, times(2)).countHouseKeepingDeleted(HOUSE_KEEPING_KIND_SENT, 30);
+        assertThat(backlogCaptor.getValue().getAsLong()).isEqualTo(940);
+    }
+
+    @Test
+    void deleteOldMessagesSlice_whenPartitioningEnabled_thenOnlyDeletesUnsentMessagesUpToLastOldMessage() {
+        when(config.isHouseKeepingPartitioningEnabled()).thenReturn(true);
+        when(deferredMessageRepository.findIdOfLastMessageCreatedBefore(any())).thenReturn(Optional.of(5L));
+        when(deferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(anyLong(), anyLong(), any())).thenReturn(2);
+        OutboxContinuousHouseKeeping houseKeeping = new OutboxContinuousHouseKeeping(deferredMessageRepository, config, transactionTemplate, Optional.empty());
+
+        houseKeeping.deleteOldMessagesSlice();
+        houseKeeping.deleteOldMessagesSlice();
+
+        verify(deferredMessageRepository).deleteUnsentMessagesCreatedBeforeInIdRange(eq(1L), eq(6L), any());
+        verify(deferredMessageRepository, times(1)).deleteUnsentMessagesCreatedBeforeInIdRange(anyLong(), anyLong(), any());
+        verify(deferredMessageRepository, never()).deleteMessagesSentBeforeInIdRange(anyLong(), anyLong(), any());
+    }
+
+}
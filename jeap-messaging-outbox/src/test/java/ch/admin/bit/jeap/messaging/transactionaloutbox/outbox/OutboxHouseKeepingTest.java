@@ -16,10 +16,13 @@ import org.springframework.transaction.support.TransactionTemplate;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -241,4 +244,96 @@ class OutboxHouseKeepingTest {
         verify(deferredMessageRepository, times(1)).findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(any(), any());
         verify(deferredMessageRepository, never()).deleteAllById(any());
     }
+
+    @Test
+    void deleteOldMessages_WhenIdRangeDeletes_ThenDeletesGrowingIdRangesUpToLastOldMessage() {
+        when(config.isHouseKeepingIdRangeDeletesEnabled()).thenReturn(true);
+        when(config.getHouseKeepingTargetChunkDuration()).thenReturn(Duration.ofMinutes(1));
+        when(config.getHouseKeepingMaxChunkSize()).thenReturn(40);
+        when(deferredMessageRepository.findMinId()).thenReturn(Optional.of(1L));
+        when(deferredMessageRepository.findIdOfLastMessageCreatedBefore(any())).thenReturn(Optional.of(100L), Optional.of(5L));
+        when(deferredMessageRepository.deleteMessagesSentBeforeInIdRange(anyLong(), anyLong(), any())).thenReturn(3);
+        when(deferredMessageRepository.deleteUnsentMessagesCreatedBeforeInIdRange(anyLong(), anyLong(), any())).thenReturn(1);
+
+        outboxHouseKeeping.deleteOldMessages();
+
+        // Starting at the page size, doubling after every fast delete up to the max chunk size
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(1L), eq(11L), any());
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(11L), eq(31L), any());
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(31L), eq(71L), any());
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(71L), eq(101L), any());
+        verify(deferredMessageRepository, times(4)).deleteMessagesSentBeforeInIdRange(anyLong(), anyLong(), any());
+        verify(deferredMessageRepository).deleteUnsentMessagesCreatedBeforeInIdRange(eq(1L), eq(6L), any());
+        verify(deferredMessageRepository, never()).findSentImmediatelyBeforeOrSentScheduledBefore(any(), any());
+        verify(deferredMessageRepository, never()).deleteAllById(any());
+    }
+
+    @Test
+    void deleteOldMessages_WhenIdRangeDeletesSlowerThanTarget_ThenHalvesIdRanges() {
+        when(config.isHouseKeepingIdRangeDeletesEnabled()).thenReturn(true);
+        when(config.getHouseKeepingTargetChunkDuration()).thenReturn(Duration.ZERO);
+        when(deferredMessageRepository.findMinId()).thenReturn(Optional.of(1L));
+        when(deferredMessageRepository.findIdOfLastMessageCreatedBefore(any())).thenReturn(Optional.of(20L), Optional.empty());
+        when(deferredMessageRepository.deleteMessagesSentBeforeInIdRange(anyLong(), anyLong(), any())).thenReturn(1);
+
+        outboxHouseKeeping.deleteOldMessages();
+
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(1L), eq(11L), any());
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(11L), eq(16L), any());
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(16L), eq(18L), any());
+        verify(deferredMessageRepository).deleteMessagesSentBeforeInIdRange(eq(20L), eq(21L), any());
+        verify(deferredMessageRepository, times(6)).deleteMessagesSentBeforeInIdRange(anyLong(), anyLong(), any());
+        verify(deferredMessageRepository, never()).deleteUnsentMessagesCreatedBeforeInIdRange(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void deleteOldMessages_WhenRetentionRuleForTopic_ThenDeletesMessagesPerRetentionScope() {
+        Slice<Long> emptySlice = new SliceImpl<>(List.of());
+        when(config.getMessageRetentionRules()).thenReturn(List.of(
+                new MessageRetentionRule("audit-topic", null, Duration.ofDays(365), null)));
+        when(deferredMessageRepository.findSentImmediatelyBeforeOrSentScheduledBefore(any(), any(RetentionScope.class), any())).thenReturn(emptySlice);
+        when(deferredMessageRepository.findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(any(), any(RetentionScope.class), any())).thenReturn(emptySlice);
+
+        outboxHouseKeeping.deleteOldMessages();
+
+        final RetentionScope defaultScope = new RetentionScope(null, null, Set.of("audit-topic"), Set.of());
+        final RetentionScope auditScope = new RetentionScope("audit-topic", null, Set.of(), Set.of());
+        verify(deferredMessageRepository).findSentImmediatelyBeforeOrSentScheduledBefore(dateTimeCaptor.capture(), eq(defaultScope), any());
+        assertThat(dateTimeCaptor.getValue()).isBetween(ZonedDateTime.now().minusDays(7).minusMinutes(1), ZonedDateTime.now().minusDays(7));
+        verify(deferredMessageRepository).findSentImmediatelyBeforeOrSentScheduledBefore(dateTimeCaptor.capture(), eq(auditScope), any());
+        assertThat(dateTimeCaptor.getValue()).isBetween(ZonedDateTime.now().minusDays(365).minusMinutes(1), ZonedDateTime.now().minusDays(365));
+        verify(deferredMessageRepository, times(2)).findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(dateTimeCaptor.capture(), any(RetentionScope.class), any());
+        assertThat(dateTimeCaptor.getAllValues().subList(2, 4)).allSatisfy(dateTime ->
+                assertThat(dateTime).isBetween(ZonedDateTime.now().minusDays(30).minusMinutes(1), ZonedDateTime.now().minusDays(30)));
+        verify(deferredMessageRepository, never()).findSentImmediatelyBeforeOrSentScheduledBefore(any(), any(Pageable.class));
+        verify(deferredMessageRepository, never()).findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(any(), any(Pageable.class));
+    }
+
+    @Test
+    void deleteOldMessages_WhenPartitioningEnabled_ThenDeletesSentMessagesInDefaultPartitionOnly() {
+        Slice<Long> emptySlice = new SliceImpl<>(List.of());
+        when(config.isHouseKeepingPartitioningEnabled()).thenReturn(true);
+        when(deferredMessageRepository.findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(any(), any())).thenReturn(emptySlice);
+        when(deferredMessageRepository.deleteMessagesSentBeforeInDefaultPartition(any(), eq(10))).thenReturn(10, 2);
+
+        outboxHouseKeeping.deleteOldMessages();
+
+        verify(deferredMessageRepository, times(2)).deleteMessagesSentBeforeInDefaultPartition(dateTimeCaptor.capture(), eq(10));
+        assertThat(dateTimeCaptor.getValue()).isBefore(ZonedDateTime.now().minusDays(7).plusMinutes(1));
+        verify(deferredMessageRepository, never()).findSentImmediatelyBeforeOrSentScheduledBefore(any(), any());
+    }
+
+    @Test
+    void deleteOldMessages_WhenArchiveMode_ThenDeletesOldArchivedMessagesPageByPage() {
+        Slice<Long> emptySlice = new SliceImpl<>(List.of());
+        when(config.getSentMessageRetentionMode()).thenReturn(SentMessageRetentionMode.ARCHIVE);
+        when(deferredMessageRepository.findSentImmediatelyBeforeOrSentScheduledBefore(any(), any())).thenReturn(emptySlice);
+        when(deferredMessageRepository.findSentImmediatelyIsNullAndSentScheduledIsNullAndCreatedBefore(any(), any())).thenReturn(emptySlice);
+        when(deferredMessageRepository.deleteArchivedMessagesSentBefore(any(), eq(10))).thenReturn(10, 3);
+
+        outboxHouseKeeping.deleteOldMessages();
+
+        verify(deferredMessageRepository, times(2)).deleteArchivedMessagesSentBefore(dateTimeCaptor.capture(), eq(10));
+        assertThat(dateTimeCaptor.getValue()).isBefore(ZonedDateTime.now().minusDays(7).plusMinutes(1));
+    }
 }
@@ -0,0 +1,129 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxPartitionHouseKeepingTest {
+
+    private static final Duration DAY = Duration.ofDays(1);
+
+    @Mock
+    private DeferredMessageRepository deferredMessageRepository;
+
+    @Mock
+    private TransactionalOutboxConfiguration config;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void getPartitionName_whenDaily_thenNamedAfterStartOfDayInUtc() {
+        OutboxPartitionHouseKeeping houseKeeping = createHouseKeeping(DAY);
+
+        Instant start = houseKeeping.getPartitionStart(Instant.parse("2026-10-18T13:45:10Z"));
+
+        assertThat(start).isEqualTo(Instant.parse("2026-10-18T00:00:00Z"));
+        assertThat(OutboxPartitionHouseKeeping.getPartitionName(start)).isEqualTo("deferred_message_p202610180000");
+        assertThat(OutboxPartitionHouseKeeping.parsePartitionStart("deferred_message_p202610180000")).contains(start);
+        assertThat(OutboxPartitionHouseKeeping.parsePartitionStart("deferred_message_default")).isEmpty();
+        assertThat(OutboxPartitionHouseKeeping.parsePartitionStart("deferred_message_pending")).isEmpty();
+    }
+
+    @Test
+    void getPartitionStart_whenHourly_thenStartOfHour() {
+        OutboxPartitionHouseKeeping houseKeeping = createHouseKeeping(Duration.ofHours(1));
+
+        assertThat(houseKeeping.getPartitionStart(Instant.parse("2026-10-18T13:45:10Z"))).isEqualTo(Instant.parse("2026-10-18T13:00:00Z"));
+    }
+
+    @Test
+    void maintainPartitions_whenPartitionsMissingAndExpired_thenCreatesUpcomingAndDropsExpiredPartitions() {
+        OutboxPartitionHouseKeeping houseKeeping = createHouseKeeping(DAY);
+        when(config.getHouseKeepingPartitionsAhead()).thenReturn(2);
+        when(config.getSentMessageRetentionDuration()).thenReturn(Duration.ofDays(2));
+        mockTransactionTemplate();
+        final Instant today = houseKeeping.getPartitionStart(Instant.now());
+        final String expiredPartition = OutboxPartitionHouseKeeping.getPartitionName(today.minus(DAY.multipliedBy(3)));
+        final String retainedPartition = OutboxPartitionHouseKeeping.getPartitionName(today.minus(DAY));
+        final String currentPartition = OutboxPartitionHouseKeeping.getPartitionName(today);
+        when(deferredMessageRepository.findPartitionNames()).thenReturn(
+                List.of("deferred_message_default", expiredPartition, retainedPartition, currentPartition));
+        when(deferredMessageRepository.dropPartitionKeepingUnsentMessages(expiredPartition)).thenReturn(1);
+
+        houseKeeping.maintainPartitions();
+
+        verify(deferredMessageRepository, never()).createPartition(eq(currentPartition), any(), any());
+        verify(deferredMessageRepository).createPartition(OutboxPartitionHouseKeeping.getPartitionName(today.plus(DAY)),
+                today.plus(DAY).atZone(ZoneOffset.UTC), today.plus(DAY.multipliedBy(2)).atZone(ZoneOffset.UTC));
+        verify(deferredMessageRepository).createPartition(eq(OutboxPartitionHouseKeeping.getPartitionName(today.plus(DAY.multipliedBy(2)))),
+                any(ZonedDateTime.class), any(ZonedDateTime.class));
+        verify(deferredMessageRepository).dropPartitionKeepingUnsentMessages(expiredPartition);
+        verify(deferredMessageRepository, times(1)).dropPartitionKeepingUnsentMessages(anyString());
+    }
+
+    @Test
+    void maintainPartitions_whenCreatingPartitionFails_thenStillCreatesUpcomingPartitions() {
+        OutboxPartitionHouseKeeping houseKeeping = createHouseKeeping(DAY);
+        when(config.getHouseKeepingPartitionsAhead()).thenReturn(1);
+        when(config.getSentMessageRetentionDuration()).thenReturn(Duration.ofDays(2));
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        final Instant today = houseKeeping.getPartitionStart(Instant.now());
+        final String currentPartition = OutboxPartitionHouseKeeping.getPartitionName(today);
+        final String nextPartition = OutboxPartitionHouseKeeping.getPartitionName(today.plus(DAY));
+        when(deferredMessageRepository.findPartitionNames()).thenReturn(List.of("deferred_message_default"));
+        doThrow(new IllegalStateException("failed")).when(deferredMessageRepository).createPartition(eq(currentPartition), any(), any());
+
+        houseKeeping.maintainPartitions();
+
+        verify(deferredMessageRepository).createPartition(eq(nextPartition), any(ZonedDateTime.class), any(ZonedDateTime.class));
+    }
+
+    @Test
+    void maintainPartitions_whenIntervalTooShort_thenFails() {
+        OutboxPartitionHouseKeeping houseKeeping = createHouseKeeping(Duration.ofSeconds(10));
+
+        assertThatThrownBy(houseKeeping::maintainPartitions).isInstanceOf(IllegalStateException.class);
+        verifyNoInteractions(deferredMessageRepository);
+    }
+
+    private OutboxPartitionHouseKeeping createHouseKeeping(Duration interval) {
+        when(config.getHouseKeepingPartitionInterval()).thenReturn(interval);
+        return new OutboxPartitionHouseKeeping(deferredMessageRepository, config, transactionTemplate);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockTransactionTemplate() {
+        doAnswer(invocation -> {
+            ((Consumer<TransactionStatus>) invocation.getArgument(0)).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+    }
+
+}
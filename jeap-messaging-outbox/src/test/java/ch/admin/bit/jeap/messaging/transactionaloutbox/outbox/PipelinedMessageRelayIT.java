@@ -0,0 +1,106 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import ch.admin.bit.jeap.messaging.kafka.contract.ContractsValidator;
+import ch.admin.bit.jeap.messaging.kafka.metrics.KafkaMessagingMetrics;
+import ch.admin.bit.jeap.messaging.kafka.signature.publisher.SignaturePublisherProperties;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.testsupport.DeferredMessageTestUtil;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.testsupport.OutboxMockKafkaTestConfig;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.testsupport.StringMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.test.annotation.Commit;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@DataJpaTest(properties = {
+        "jeap.messaging.transactional-outbox.poll-delay=1s",
+        "jeap.messaging.transactional-outbox.message-relay-batch-size=10",
+        "jeap.messaging.transactional-outbox.message-relay-pipelining-enabled=true",
+        "jeap.messaging.transactional-outbox.continuous-relay-timeout=3s"})
+@ContextConfiguration(classes = OutboxMockKafkaTestConfig.class)
+class PipelinedMessageRelayIT {
+
+    @Autowired
+    TransactionalOutbox transactionalOutbox;
+
+    @Autowired
+    DeferredMessageRepository deferredMessageRepository;
+
+    @MockitoBean
+    DeferredMessageSender deferredMessageSenderMock;
+
+    @MockitoBean
+    ContractsValidator contractsValidator;
+
+    @MockitoBean
+    OutboxTracing outboxTracing;
+
+    @MockitoBean
+    KafkaMessagingMetrics kafkaMessagingMetrics;
+
+    @MockitoBean
+    @SuppressWarnings("unused")
+    SignaturePublisherProperties signaturePublisherProperties;
+
+    @Commit
+    @Transactional
+    @Test
+    void testRelay_whenPipelining_thenSendsBatchAtOnceAndRecordsResultPerMessage() {
+        DeferredMessageTestUtil.with(deferredMessageRepository).deleteAllMessagesAfter(() -> {
+            assertThat(deferredMessageRepository.findAll()).isEmpty();
+            final String unauthorizedTopic = "unauthorized-topic";
+            final String authorizedTopic = "authorized-topic";
+            doAnswer(invocation -> {
+                List<DeferredMessage> deferredMessages = invocation.getArgument(0);
+                return deferredMessages.stream()
+                        .map(deferredMessage -> unauthorizedTopic.equals(deferredMessage.getTopic()) ?
+                                DeferredMessageSendResult.failure(deferredMessage,
+                                        DeferredMessageSendException.topicAuthorizationException(deferredMessage, new RuntimeException("unauthorized on topic"))) :
+                                DeferredMessageSendResult.success(deferredMessage))
+                        .toList();
+            }).when(deferredMessageSenderMock).sendAllAsScheduled(anyList());
+
+            transactionalOutbox.sendMessageScheduled(StringMessage.from("authorized-test-message-1"), authorizedTopic);
+            transactionalOutbox.sendMessageScheduled(StringMessage.from("unauthorized-test-message"), unauthorizedTopic);
+            transactionalOutbox.sendMessageScheduled(StringMessage.from("authorized-test-message-2"), authorizedTopic);
+
+            final ZonedDateTime afterSend = ZonedDateTime.now();
+            TestTransaction.end();
+            await().atMost(Duration.ofSeconds(5)).until(() ->
+                    deferredMessageRepository.findMessagesReadyToBeSent(1).isEmpty()
+            );
+
+            verify(deferredMessageSenderMock, atLeastOnce()).sendAllAsScheduled(anyList());
+            verify(deferredMessageSenderMock, never()).sendAsScheduled(any());
+            TestTransaction.start();
+            List<DeferredMessage> allDeferredMessages = deferredMessageRepository.findAll();
+            allDeferredMessages.sort(Comparator.comparing(DeferredMessage::getId));
+            assertThat(allDeferredMessages.getFirst().getFailed()).isNull();
+            assertThat(allDeferredMessages.getFirst().getSentScheduled()).isAfterOrEqualTo(afterSend);
+            assertThat(allDeferredMessages.get(1).getSentScheduled()).isNull();
+            assertThat(allDeferredMessages.get(1).getFailed()).isAfterOrEqualTo(afterSend);
+            assertThat(allDeferredMessages.get(1).getFailReason()).isEqualTo(SendFailureReason.UNAUTHORIZED_ON_TOPIC);
+            assertThat(allDeferredMessages.get(2).getFailed()).isNull();
+            assertThat(allDeferredMessages.get(2).getSentScheduled()).isAfterOrEqualTo(afterSend);
+            TestTransaction.end();
+        });
+    }
+
+}
@@ -0,0 +1,90 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.RetentionScope.TopicMessageType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RetentionPolicyTest {
+
+    private static final Duration SENT = Duration.ofDays(7);
+    private static final Duration UNSENT = Duration.ofDays(30);
+
+    @Mock
+    private TransactionalOutboxConfiguration config;
+
+    @BeforeEach
+    void setup() {
+        when(config.getSentMessageRetentionDuration()).thenReturn(SENT);
+        when(config.getUnsentMessageRetentionDuration()).thenReturn(UNSENT);
+    }
+
+    @Test
+    void of_whenNoRules_thenSinglePolicyForAllMessages() {
+        assertThat(RetentionPolicy.of(config)).containsExactly(new RetentionPolicy(RetentionScope.ALL, SENT, UNSENT));
+        assertThat(RetentionScope.ALL.isAll()).isTrue();
+    }
+
+    @Test
+    void of_whenTopicAndMessageTypeRules_thenMessageTypeRuleFallsBackToTopicRuleAndDefaults() {
+        when(config.getMessageRetentionRules()).thenReturn(List.of(
+                new MessageRetentionRule("audit", null, Duration.ofDays(365), null),
+                new MessageRetentionRule("audit", "LoginEvent", null, Duration.ofDays(1)),
+                new MessageRetentionRule("orders", "OrderCreated", Duration.ofDays(1), null)));
+        final TopicMessageType loginEvent = new TopicMessageType("audit", "LoginEvent");
+        final TopicMessageType orderCreated = new TopicMessageType("orders", "OrderCreated");
+
+        assertThat(RetentionPolicy.of(config)).containsExactly(
+                new RetentionPolicy(new RetentionScope(null, null, Set.of("audit"), Set.of(loginEvent, orderCreated)), SENT, UNSENT),
+                new RetentionPolicy(new RetentionScope("audit", null, Set.of(), Set.of(loginEvent)), Duration.ofDays(365), UNSENT),
+                new RetentionPolicy(new RetentionScope("audit", "LoginEvent", Set.of(), Set.of()), Duration.ofDays(365), Duration.ofDays(1)),
+                new RetentionPolicy(new RetentionScope("orders", "OrderCreated", Set.of(), Set.of()), Duration.ofDays(1), UNSENT));
+    }
+
+    @Test
+    void of_whenDuplicateRule_thenFails() {
+        when(config.getMessageRetentionRules()).thenReturn(List.of(
+                new MessageRetentionRule("audit", null, Duration.ofDays(365), null),
+                new MessageRetentionRule("audit", null, Duration.ofDays(30), null)));
+
+        assertThatThrownBy(() -> RetentionPolicy.of(config)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void of_whenPartitioningEnabledAndRuleKeepsSentMessagesLongerThanDefault_thenFails() {
+        when(config.isHouseKeepingPartitioningEnabled()).thenReturn(true);
+        when(config.getMessageRetentionRules()).thenReturn(List.of(
+                new MessageRetentionRule("audit", null, Duration.ofDays(365), null)));
+
+        assertThatThrownBy(() -> RetentionPolicy.of(config)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void of_whenPartitioningEnabledAndRulesWithinDefaultSentRetention_thenPolicies() {
+        when(config.isHouseKeepingPartitioningEnabled()).thenReturn(true);
+        when(config.getMessageRetentionRules()).thenReturn(List.of(
+                new MessageRetentionRule("audit", null, Duration.ofDays(1), Duration.ofDays(365))));
+
+        assertThat(RetentionPolicy.of(config)).hasSize(2);
+    }
+
+    @Test
+    void of_whenRuleWithoutTopic_thenFails() {
+        when(config.getMessageRetentionRules()).thenReturn(List.of(
+                new MessageRetentionRule(null, "LoginEvent", Duration.ofDays(365), null)));
+
+        assertThatThrownBy(() -> RetentionPolicy.of(config)).isInstanceOf(IllegalStateException.class);
+    }
+
+}
@@ -0,0 +1,108 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SendCircuitBreakerTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+    private static final Instant NOW = Instant.parse("2026-01-01T10:00:00Z");
+
+    @Mock
+    private TransactionalOutboxConfiguration config;
+
+    @Mock
+    private Clock clock;
+
+    private SendCircuitBreaker sendCircuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        when(config.isSendCircuitBreakerEnabled()).thenReturn(true);
+        when(config.getSendCircuitBreakerFailureThreshold()).thenReturn(2);
+        when(config.getSendCircuitBreakerOpenDuration()).thenReturn(OPEN_DURATION);
+        lenient().when(clock.instant()).thenReturn(NOW);
+        sendCircuitBreaker = new SendCircuitBreaker(config, clock);
+    }
+
+    @Test
+    void recordFailure_whenThresholdReached_thenCircuitOpensForClusterAndTopicOnly() {
+        DeferredMessage brokenTopicMessage = createMessage("cluster-a", "broken-topic");
+
+        sendCircuitBreaker.recordFailure(brokenTopicMessage);
+        assertThat(sendCircuitBreaker.tryAcquirePermission(brokenTopicMessage)).isTrue();
+        assertThat(sendCircuitBreaker.getOpenCircuits()).isEmpty();
+
+        sendCircuitBreaker.recordFailure(brokenTopicMessage);
+        assertThat(sendCircuitBreaker.tryAcquirePermission(brokenTopicMessage)).isFalse();
+        assertThat(sendCircuitBreaker.getOpenCircuits()).containsExactly(new ClusterTopic("cluster-a", "broken-topic"));
+        assertThat(sendCircuitBreaker.tryAcquirePermission(createMessage("cluster-a", "healthy-topic"))).isTrue();
+        assertThat(sendCircuitBreaker.tryAcquirePermission(createMessage("cluster-b", "broken-topic"))).isTrue();
+    }
+
+    @Test
+    void recordSuccess_resetsConsecutiveFailures() {
+        DeferredMessage message = createMessage(null, "topic");
+
+        sendCircuitBreaker.recordFailure(message);
+        sendCircuitBreaker.recordSuccess(message);
+        sendCircuitBreaker.recordFailure(message);
+
+        assertThat(sendCircuitBreaker.tryAcquirePermission(message)).isTrue();
+    }
+
+    @Test
+    void tryAcquirePermission_whenOpenDurationElapsed_thenSingleProbeLetThrough() {
+        DeferredMessage message = createMessage(null, "topic");
+        sendCircuitBreaker.recordFailure(message);
+        sendCircuitBreaker.recordFailure(message);
+
+        when(clock.instant()).thenReturn(NOW.plus(OPEN_DURATION));
+        assertThat(sendCircuitBreaker.getOpenCircuits()).isEmpty();
+        assertThat(sendCircuitBreaker.tryAcquirePermission(message)).isTrue();
+        assertThat(sendCircuitBreaker.tryAcquirePermission(createMessage(null, "topic"))).isFalse();
+
+        sendCircuitBreaker.recordSuccess(message);
+        assertThat(sendCircuitBreaker.tryAcquirePermission(createMessage(null, "topic"))).isTrue();
+    }
+
+    @Test
+    void tryAcquirePermission_whenProbeFails_thenStaysOpen() {
+        DeferredMessage message = createMessage(null, "topic");
+        sendCircuitBreaker.recordFailure(message);
+        sendCircuitBreaker.recordFailure(message);
+        when(clock.instant()).thenReturn(NOW.plus(OPEN_DURATION));
+        assertThat(sendCircuitBreaker.tryAcquirePermission(message)).isTrue();
+
+        sendCircuitBreaker.recordFailure(message);
+
+        assertThat(sendCircuitBreaker.tryAcquirePermission(message)).isFalse();
+        assertThat(sendCircuitBreaker.getOpenCircuits()).containsExactly(new ClusterTopic(null, "topic"));
+    }
+
+    private static DeferredMessage createMessage(String clusterName, String topic) {
+        return DeferredMessage.builder()
+                .message("message".getBytes(StandardCharsets.UTF_8))
+                .clusterName(clusterName)
+                .topic(topic)
+                .messageId(UUID.randomUUID().toString())
+                .messageIdempotenceId(UUID.randomUUID().toString())
+                .messageTypeName("TestMessage")
+                .build();
+    }
+
+}
@@ -19,6 +19,10 @@ import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -73,4 +77,37 @@ class TransactionalOutboxTest {
         verify(callback).onSend(testMessage, "topic");
         verifyNoMoreInteractions(callback);
     }
+
+    @Test
+    void testSendMessages_contractValidatedOncePerTypeAndMessagesPersistedAtOnce() {
+        final List<StringMessage> testMessages = List.of(StringMessage.from("test-message-1"),
+                StringMessage.from("test-message-2"), StringMessage.from("test-message-3"));
+        doReturn(new byte[0]).when(serializer).serializeMessage(any(), any());
+        doReturn(List.of(deferredMessage, deferredMessage, deferredMessage)).when(deferredMessageRepository).saveAll(anyList());
+
+        transactionalOutbox.sendMessages(testMessages, "topic");
+
+        verify(contractsValidator, times(1)).ensurePublisherContract(any(MessageType.class), eq("topic"));
+        verify(deferredMessageRepository).saveAll(argThat(deferredMessages -> deferredMessages.size() == 3));
+        verify(deferredMessageRepository, never()).save(any());
+        verify(afterCommitMessageSender).sendImmediatelyAfterTransactionCommit(anyCollection());
+        testMessages.forEach(testMessage -> verify(callback).onSend(testMessage, "topic"));
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    void testSendMessages_whenBufferedForWriteBehind_thenNotPersistedAndRelayWokenUpForScheduledMessagesOnly() {
+        final List<StringMessage> testMessages = List.of(StringMessage.from("test-message-1"), StringMessage.from("test-message-2"));
+        doReturn(new byte[0]).when(serializer).serializeMessage(any(), any());
+        doReturn(true).when(afterCommitMessageSender).insertBeforeTransactionCommit(anyCollection());
+
+        transactionalOutbox.sendMessages(testMessages, "topic");
+        transactionalOutbox.sendMessageScheduled(StringMessage.from("test-message-3"), "topic");
+
+        verify(afterCommitMessageSender).insertBeforeTransactionCommit(argThat(deferredMessages -> deferredMessages.size() == 2));
+        verify(afterCommitMessageSender).insertBeforeTransactionCommit(argThat(deferredMessages -> deferredMessages.size() == 1));
+        verify(afterCommitMessageSender, never()).sendImmediatelyAfterTransactionCommit(anyCollection());
+        verify(afterCommitMessageSender, times(1)).wakeUpMessageRelayAfterTransactionCommit();
+        verifyNoInteractions(deferredMessageRepository);
+    }
 }
@@ -0,0 +1,87 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.outbox;
+
+import ch.admin.bit.jeap.messaging.kafka.contract.ContractsValidator;
+import ch.admin.bit.jeap.messaging.kafka.metrics.KafkaMessagingMetrics;
+import ch.admin.bit.jeap.messaging.kafka.signature.publisher.SignaturePublisherProperties;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.testsupport.DeferredMessageTestUtil;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.testsupport.OutboxMockKafkaNoSchedulingTestConfig;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.testsupport.StringMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.test.annotation.Commit;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@DataJpaTest(properties = "jeap.messaging.transactional-outbox.write-behind-enabled=true")
+@ContextConfiguration(classes = OutboxMockKafkaNoSchedulingTestConfig.class)
+class WriteBehindTransactionalOutboxIT {
+
+    @Autowired
+    TransactionalOutbox transactionalOutbox;
+
+    @Autowired
+    DeferredMessageRepository deferredMessageRepository;
+
+    @MockitoBean
+    DeferredMessageSender deferredMessageSenderMock;
+
+    @MockitoBean
+    ContractsValidator contractsValidator;
+
+    @MockitoBean
+    OutboxTracing outboxTracing;
+
+    @MockitoBean
+    KafkaMessagingMetrics kafkaMessagingMetrics;
+
+    @MockitoBean
+    @SuppressWarnings("unused")
+    SignaturePublisherProperties signaturePublisherProperties;
+
+    @Commit
+    @Transactional
+    @Test
+    void testSend_whenWriteBehind_thenMessagesInsertedBeforeCommitAndSentImmediatelyAfterCommit() {
+        DeferredMessageTestUtil.with(deferredMessageRepository).deleteAllMessagesAfter(() -> {
+            final ZonedDateTime beforeSend = ZonedDateTime.now();
+            transactionalOutbox.sendMessage(StringMessage.from("immediate-message"), "topic");
+            transactionalOutbox.sendMessages(List.of(StringMessage.from("immediate-batch-message-1"), StringMessage.from("immediate-batch-message-2")), "topic");
+            transactionalOutbox.sendMessageScheduled(StringMessage.from("scheduled-message"), "topic");
+            // Buffered until the transaction commits
+            assertThat(deferredMessageRepository.findAll()).isEmpty();
+
+            TestTransaction.end();
+
+            verify(deferredMessageSenderMock, times(3)).sendAsImmediate(any());
+            verify(deferredMessageSenderMock, times(3)).sendAsImmediate(argThat(deferredMessage -> deferredMessage.getId() != null));
+            TestTransaction.start();
+            List<DeferredMessage> allDeferredMessages = deferredMessageRepository.findAll();
+            allDeferredMessages.sort(Comparator.comparing(DeferredMessage::getId));
+            assertThat(allDeferredMessages).hasSize(4);
+            allDeferredMessages.subList(0, 3).forEach(immediateMessage -> {
+                assertThat(immediateMessage.isSendImmediately()).isTrue();
+                assertThat(immediateMessage.getScheduleAfter()).isAfter(beforeSend);
+                assertThat(immediateMessage.getSentImmediately()).isAfterOrEqualTo(beforeSend);
+            });
+            DeferredMessage scheduledMessage = allDeferredMessages.get(3);
+            assertThat(scheduledMessage.isSendImmediately()).isFalse();
+            assertThat(scheduledMessage.getScheduleAfter()).isNull();
+            assertThat(scheduledMessage.getSentImmediately()).isNull();
+            TestTransaction.end();
+        });
+    }
+
+}
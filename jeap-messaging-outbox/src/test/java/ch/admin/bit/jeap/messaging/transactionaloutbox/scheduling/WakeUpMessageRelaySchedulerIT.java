@@ -0,0 +1,65 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.scheduling;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.config.TransactionalOutboxConfigurationProperties;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.InJvmMessageRelayWakeUpSignal;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRelay;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.MessageRelayWakeUpSignal;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxHouseKeeping;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.time.Duration;
+
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@EnableAutoConfiguration
+@DataJpaTest
+@ContextConfiguration(classes = {OutboxSchedulingConfig.class, TransactionalOutboxConfigurationProperties.class, InJvmMessageRelayWakeUpSignal.class})
+class WakeUpMessageRelaySchedulerIT {
+
+    @MockitoBean
+    MessageRelay messageRelayMock;
+
+    @MockitoBean
+    OutboxHouseKeeping outboxHouseKeepingMock;
+
+    @MockitoBean
+    OutboxMetrics outboxMetricsMock;
+
+    @Autowired
+    MessageRelayWakeUpSignal messageRelayWakeUpSignal;
+
+    @SneakyThrows
+    @Test
+    void testRelayCalledWhenSignalledButNotPolledWhileIdle() {
+        await().atMost(Duration.ofSeconds(5)).until(() -> !mockingDetails(messageRelayMock).getInvocations().isEmpty());
+        // The relay found no messages, it waits for a signal for 2s, then 4s, ... instead of polling every pollDelay (1s)
+        Thread.sleep(1500);
+        verify(messageRelayMock, times(1)).relay();
+
+        messageRelayWakeUpSignal.signal();
+
+        await().atMost(Duration.ofSeconds(1)).untilAsserted(() -> verify(messageRelayMock, atLeast(2)).relay());
+    }
+
+    @DynamicPropertySource
+    static void registerProperties(DynamicPropertyRegistry registry) {
+        registry.add("jeap.messaging.transactional-outbox.poll-delay", () -> "1s");
+        registry.add("jeap.messaging.transactional-outbox.continuous-relay-timeout", () -> "10s");
+        registry.add("jeap.messaging.transactional-outbox.message-relay-wake-up-enabled", () -> "true");
+        registry.add("jeap.messaging.transactional-outbox.message-relay-max-idle-delay", () -> "1m");
+    }
+
+}
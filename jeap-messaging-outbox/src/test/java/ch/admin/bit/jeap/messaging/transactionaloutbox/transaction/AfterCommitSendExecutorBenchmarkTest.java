@@ -0,0 +1,78 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.transaction;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.config.TransactionalOutboxConfigurationProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the throughput of the after commit send executor on platform threads and on virtual threads for sends that
+ * block on the network. Both modes run the same number of sends concurrently, i.e. the benchmark shows the overhead of
+ * either thread kind rather than a difference in concurrency. Not run by default as it takes a while, run with
+ * -Doutbox.benchmark=true.
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "outbox.benchmark", matches = "true")
+class AfterCommitSendExecutorBenchmarkTest {
+
+    private static final int NUM_SENDS = 10_000;
+    private static final int THREAD_COUNT = 200;
+    private static final Duration SEND_LATENCY = Duration.ofMillis(20);
+
+    @Test
+    void benchmark_platformThreadsVersusVirtualThreads() throws InterruptedException {
+        // Warm up
+        runSends(false);
+        runSends(true);
+
+        Duration platformThreadsDuration = runSends(false);
+        Duration virtualThreadsDuration = runSends(true);
+
+        log.info("{} blocking sends of {} with {} threads and a queue capacity of {}: platform threads took {}, virtual threads took {}.",
+                NUM_SENDS, SEND_LATENCY, THREAD_COUNT, NUM_SENDS, platformThreadsDuration, virtualThreadsDuration);
+        // Neither mode can send more than the thread count concurrently
+        Duration minDuration = SEND_LATENCY.multipliedBy(NUM_SENDS / THREAD_COUNT);
+        assertThat(platformThreadsDuration).isGreaterThanOrEqualTo(minDuration);
+        assertThat(virtualThreadsDuration).isGreaterThanOrEqualTo(minDuration);
+    }
+
+    private static Duration runSends(boolean virtualThreadsEnabled) throws InterruptedException {
+        TransactionalOutboxConfigurationProperties config = new TransactionalOutboxConfigurationProperties();
+        config.setAfterCommitSendAsyncEnabled(true);
+        config.setVirtualThreadsEnabled(virtualThreadsEnabled);
+        config.setAfterCommitSendThreadCount(THREAD_COUNT);
+        config.setAfterCommitSendQueueCapacity(NUM_SENDS);
+        AfterCommitSendExecutor afterCommitSendExecutor = new AfterCommitSendExecutor(config, Optional.empty());
+        CountDownLatch sendsCompleted = new CountDownLatch(NUM_SENDS);
+        try {
+            final long startNanos = System.nanoTime();
+            for (int i = 0; i < NUM_SENDS; i++) {
+                boolean accepted = afterCommitSendExecutor.execute(i % THREAD_COUNT, () -> {
+                    blockingSend();
+                    sendsCompleted.countDown();
+                }, sendsCompleted::countDown, 1);
+                assertThat(accepted).isTrue();
+            }
+            assertThat(sendsCompleted.await(5, TimeUnit.MINUTES)).isTrue();
+            return Duration.ofNanos(System.nanoTime() - startNanos);
+        } finally {
+            afterCommitSendExecutor.shutdown();
+        }
+    }
+
+    private static void blockingSend() {
+        try {
+            Thread.sleep(SEND_LATENCY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+package ch.admin.bit.jeap.messaging.transactionaloutbox.transaction;
+
+import ch.admin.bit.jeap.messaging.transactionaloutbox.config.TransactionalOutboxConfigurationProperties;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.DeferredMessage;
+import ch.admin.bit.jeap.messaging.transactionaloutbox.outbox.OutboxMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class AfterCommitSendExecutorTest {
+
+    @Mock
+    private OutboxMetrics outboxMetrics;
+
+    private AfterCommitSendExecutor afterCommitSendExecutor;
+
+    @AfterEach
+    void tearDown() {
+        afterCommitSendExecutor.shutdown();
+    }
+
+    @Test
+    void isEnabled_whenAsyncSendDisabled_thenFalse() {
+        afterCommitSendExecutor = new AfterCommitSendExecutor(new TransactionalOutboxConfigurationProperties(), Optional.of(outboxMetrics));
+
+        assertThat(afterCommitSendExecutor.isEnabled()).isFalse();
+    }
+
+    @Test
+    void execute_whenSaturated_thenSendTaskRejectedAndCounted() throws InterruptedException {
+        TransactionalOutboxConfigurationProperties config = new TransactionalOutboxConfigurationProperties();
+        config.setAfterCommitSendAsyncEnabled(true);
+        config.setAfterCommitSendThreadCount(1);
+        config.setAfterCommitSendQueueCapacity(1);
+        afterCommitSendExecutor = new AfterCommitSendExecutor(config, Optional.of(outboxMetrics));
+        CountDownLatch sendStarted = new CountDownLatch(1);
+        CountDownLatch releaseSend = new CountDownLatch(1);
+
+        boolean firstAccepted = afterCommitSendExecutor.execute(0, () -> {
+            sendStarted.countDown();
+            awaitQuietly(releaseSend);
+        }, () -> {}, 1);
+        assertThat(sendStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        boolean secondAccepted = afterCommitSendExecutor.execute(0, () -> {}, () -> {}, 2);
+        boolean thirdAccepted = afterCommitSendExecutor.execute(0, () -> {}, () -> {}, 3);
+        releaseSend.countDown();
+
+        assertThat(afterCommitSendExecutor.isEnabled()).isTrue();
+        assertThat(firstAccepted).isTrue();
+        assertThat(secondAccepted).isTrue();
+        assertThat(thirdAccepted).isFalse();
+        verify(outboxMetrics).monitorExecutor(any(ExecutorService.class), eq(AfterCommitSendExecutor.EXECUTOR_NAME + "-0"));
+        verify(outboxMetrics).countAfterCommitSendRejected(3);
+    }
+
+    @Test
+    void execute_whenVirtualThreadsEnabled_thenSendsOnVirtualThreadsUpToThreadCountAndQueuesUpToQueueCapacity() throws InterruptedException {
+        TransactionalOutboxConfigurationProperties config = new TransactionalOutboxConfigurationProperties();
+        config.setAfterCommitSendAsyncEnabled(true);
+        config.setVirtualThreadsEnabled(true);
+        config.setAfterCommitSendThreadCount(1);
+        config.setAfterCommitSendQueueCapacity(1);
+        afterCommitSendExecutor = new AfterCommitSendExecutor(config, Optional.of(outboxMetrics));
+        CountDownLatch sendStarted = new CountDownLatch(1);
+        CountDownLatch releaseSend = new CountDownLatch(1);
+        AtomicBoolean sentOnVirtualThread = new AtomicBoolean();
+
+        boolean firstAccepted = afterCommitSendExecutor.execute(0, () -> {
+            sentOnVirtualThread.set(Thread.currentThread().isVirtual());
+            sendStarted.countDown();
+            awaitQuietly(releaseSend);
+        }, () -> {}, 1);
+        assertThat(sendStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        boolean secondAccepted = afterCommitSendExecutor.execute(0, () -> {}, () -> {}, 2);
+        boolean thirdAccepted = afterCommitSendExecutor.execute(0, () -> {}, () -> {}, 3);
+        releaseSend.countDown();
+
+        assertThat(firstAccepted).isTrue();
+        assertThat(secondAccepted).isTrue();
+        assertThat(thirdAccepted).isFalse();
+        assertThat(sentOnVirtualThread).isTrue();
+        verify(outboxMetrics).countAfterCommitSendRejected(3);
+    }
+
+    @Test
+    void execute_whenSendTasksOfSameLane_thenRunsThemInSubmissionOrder() throws InterruptedException {
+        TransactionalOutboxConfigurationProperties config = new TransactionalOutboxConfigurationProperties();
+        config.setAfterCommitSendAsyncEnabled(true);
+        config.setAfterCommitSendThreadCount(4);
+        afterCommitSendExecutor = new AfterCommitSendExecutor(config, Optional.of(outboxMetrics));
+        DeferredMessage message = createDeferredMessage("key");
+        DeferredMessage sameKeyMessage = createDeferredMessage("key");
+        List<Integer> sendOrder = new CopyOnWriteArrayList<>();
+        CountDownLatch sendsCompleted = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            final int sendNumber = i;
+            DeferredMessage messageToSend = i % 2 == 0 ? message : sameKeyMessage;
+            afterCommitSendExecutor.execute(afterCommitSendExecutor.getLane(messageToSend), () -> {
+                sendOrder.add(sendNumber);
+                sendsCompleted.countDown();
+            }, () -> {}, 1);
+        }
+
+        assertThat(sendsCompleted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(afterCommitSendExecutor.getLane(message)).isEqualTo(afterCommitSendExecutor.getLane(sameKeyMessage));
+        assertThat(sendOrder).isEqualTo(IntStream.range(0, 100).boxed().toList());
+    }
+
+    @Test
+    void execute_whenSendTaskWaitedTooLongInQueue_thenReleasesInsteadOfSending() throws InterruptedException {
+        TransactionalOutboxConfigurationProperties config = new TransactionalOutboxConfigurationProperties();
+        config.setAfterCommitSendAsyncEnabled(true);
+        config.setAfterCommitSendThreadCount(1);
+        config.setMessageSendImmediatelyMaxBlockTime(Duration.ofMillis(10));
+        config.setMessageSendImmediatelyTimeout(Duration.ofMillis(10));
+        afterCommitSendExecutor = new AfterCommitSendExecutor(config, Optional.of(outboxMetrics));
+        CountDownLatch sendStarted = new CountDownLatch(1);
+        CountDownLatch releaseSend = new CountDownLatch(1);
+        CountDownLatch queuedTaskReleased = new CountDownLatch(1);
+        AtomicBoolean queuedTaskSent = new AtomicBoolean();
+
+        afterCommitSendExecutor.execute(0, () -> {
+            sendStarted.countDown();
+            awaitQuietly(releaseSend);
+        }, () -> {}, 1);
+        assertThat(sendStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        boolean queuedTaskAccepted = afterCommitSendExecutor.execute(0, () -> queuedTaskSent.set(true), queuedTaskReleased::countDown, 2);
+        Thread.sleep(100);
+        releaseSend.countDown();
+
+        assertThat(queuedTaskAccepted).isTrue();
+        assertThat(queuedTaskReleased.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(queuedTaskSent).isFalse();
+        verify(outboxMetrics).countAfterCommitSendRejected(2);
+    }
+
+    @Test
+    void execute_whenSendTaskQueuedBehindReleasedTask_thenReleasesItUntilLaneDrained() throws InterruptedException {
+        TransactionalOutboxConfigurationProperties config = new TransactionalOutboxConfigurationProperties();
+        config.setAfterCommitSendAsyncEnabled(true);
+        config.setAfterCommitSendThreadCount(1);
+        config.setMessageSendImmediatelyMaxBlockTime(Duration.ofMillis(10));
+        config.setMessageSendImmediatelyTimeout(Duration.ofMillis(10));
+        afterCommitSendExecutor = new AfterCommitSendExecutor(config, Optional.of(outboxMetrics));
+        CountDownLatch sendStarted = new CountDownLatch(1);
+        CountDownLatch releaseSend = new CountDownLatch(1);
+        CountDownLatch queuedTasksReleased = new CountDownLatch(2);
+        CountDownLatch taskAfterDrainSent = new CountDownLatch(1);
+        AtomicBoolean queuedTaskSent = new AtomicBoolean();
+
+        afterCommitSendExecutor.execute(0, () -> {
+            sendStarted.countDown();
+            awaitQuietly(releaseSend);
+        }, () -> {}, 1);
+        assertThat(sendStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        afterCommitSendExecutor.execute(0, () -> queuedTaskSent.set(true), queuedTasksReleased::countDown, 2);
+        Thread.sleep(100);
+        // Has not waited too long itself, but must not overtake the released task
+        afterCommitSendExecutor.execute(0, () -> queuedTaskSent.set(true), queuedTasksReleased::countDown, 3);
+        releaseSend.countDown();
+        assertThat(queuedTasksReleased.await(5, TimeUnit.SECONDS)).isTrue();
+        afterCommitSendExecutor.execute(0, taskAfterDrainSent::countDown, () -> {}, 4);
+
+        assertThat(taskAfterDrainSent.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(queuedTaskSent).isFalse();
+        verify(outboxMetrics).countAfterCommitSendRejected(2);
+        verify(outboxMetrics).countAfterCommitSendRejected(3);
+    }
+
+    private static DeferredMessage createDeferredMessage(String key) {
+        return DeferredMessage.builder()
+                .message("message".getBytes(StandardCharsets.UTF_8))
+                .key(key.getBytes(StandardCharsets.UTF_8))
+                .topic("topic")
+                .messageId(UUID.randomUUID().toString())
+                .messageIdempotenceId(UUID.randomUUID().toString())
+                .messageTypeName("TestMessage")
+                .build();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
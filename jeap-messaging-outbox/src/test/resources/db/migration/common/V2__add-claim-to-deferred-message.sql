@@ -0,0 +1,3 @@
+-- Adds the claim of a message by a relay, used when the relays claim the messages they send (message-relay-claiming-enabled).
+ALTER TABLE deferred_message ADD COLUMN claimed_by varchar;
+ALTER TABLE deferred_message ADD COLUMN claimed_until timestamp with time zone;
@@ -0,0 +1,10 @@
+-- Adds the delivery state of a message, which lets the relay find the pending messages by index instead of scanning
+-- all sent and failed messages.
+ALTER TABLE deferred_message ADD COLUMN delivery_state varchar;
+UPDATE deferred_message SET delivery_state = CASE
+    WHEN resend = true THEN 'PENDING'
+    WHEN failed IS NOT NULL THEN 'FAILED'
+    WHEN sent_immediately IS NOT NULL OR sent_scheduled IS NOT NULL THEN 'SENT'
+    ELSE 'PENDING' END;
+ALTER TABLE deferred_message ALTER COLUMN delivery_state SET NOT NULL;
+CREATE INDEX deferred_message_delivery_state_id ON deferred_message (delivery_state, id);
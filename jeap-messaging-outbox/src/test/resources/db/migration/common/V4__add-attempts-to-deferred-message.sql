@@ -0,0 +1,4 @@
+-- Adds the failed attempts of a message and the time of its next attempt, used when the relay retries messages
+-- (message-relay-retry-enabled).
+ALTER TABLE deferred_message ADD COLUMN attempts integer DEFAULT 0 NOT NULL;
+ALTER TABLE deferred_message ADD COLUMN next_attempt_at timestamp with time zone;
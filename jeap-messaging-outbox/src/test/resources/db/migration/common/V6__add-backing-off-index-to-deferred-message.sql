@@ -0,0 +1,4 @@
+-- Adds an index on the messages backing off, used when the relay retries messages (message-relay-retry-enabled) to hold
+-- back the later messages with the same topic and key. On PostgreSQL, make it a partial index that only contains the
+-- messages backing off: ... ON deferred_message (topic, "key", id) WHERE delivery_state = 'PENDING' AND next_attempt_at IS NOT NULL
+CREATE INDEX deferred_message_backing_off ON deferred_message (topic, "key", id);